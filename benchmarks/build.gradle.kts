@@ -0,0 +1,18 @@
+plugins {
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+group = "com.tmsvr.databases"
+version = "1.0-SNAPSHOT"
+
+dependencies {
+    jmhImplementation(project(":interfaces"))
+    jmhImplementation(project(":lsmtree"))
+    jmhImplementation(project(":btree"))
+}
+
+jmh {
+    // Narrow a run down with e.g. ./gradlew :benchmarks:jmh -Pjmh.includes=GetBenchmark
+    (project.findProperty("jmh.includes") as String?)?.let { includes.set(listOf(it)) }
+    resultFormat.set("JSON")
+}
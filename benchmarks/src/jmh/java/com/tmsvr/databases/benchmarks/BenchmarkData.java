@@ -0,0 +1,67 @@
+package com.tmsvr.databases.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Pre-generated keys and values, so that the measured code does not pay for building them.
+ * Keys are zero padded numbers, hence their lexicographic order matches their numeric order.
+ */
+final class BenchmarkData {
+    private static final String CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    private static final long SEED = 42;
+
+    private BenchmarkData() {
+    }
+
+    static String[] sequentialKeys(int count, int keySize) {
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = key(i, keySize);
+        }
+        return keys;
+    }
+
+    static String[] shuffledKeys(int count, int keySize) {
+        String[] keys = sequentialKeys(count, keySize);
+        Random random = new Random(SEED);
+
+        for (int i = keys.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            String tmp = keys[i];
+            keys[i] = keys[j];
+            keys[j] = tmp;
+        }
+        return keys;
+    }
+
+    static String[] missingKeys(int count, int keySize) {
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            // Same length and alphabet as the real keys, but never written
+            keys[i] = "x" + key(i, keySize - 1);
+        }
+        return keys;
+    }
+
+    static String[] values(int count, int valueSize) {
+        Random random = new Random(SEED);
+        String[] values = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            StringBuilder builder = new StringBuilder(valueSize);
+            for (int j = 0; j < valueSize; j++) {
+                builder.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+            }
+            values[i] = builder.toString();
+        }
+        return values;
+    }
+
+    private static String key(int i, int keySize) {
+        String number = Integer.toString(i);
+        if (number.length() >= keySize) {
+            return number;
+        }
+        return "0".repeat(keySize - number.length()) + number;
+    }
+}
@@ -0,0 +1,119 @@
+package com.tmsvr.databases.benchmarks;
+
+import com.tmsvr.databases.lsmtree.sstable.Compactor;
+import com.tmsvr.databases.lsmtree.sstable.RowCountBasedCompactor;
+import com.tmsvr.databases.lsmtree.sstable.SSTable;
+import com.tmsvr.databases.lsmtree.sstable.SizeTieredCompactor;
+import com.tmsvr.databases.serde.BinarySerDe;
+import com.tmsvr.databases.serde.BinarySerDes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compaction of a set of overlapping SSTables into one. Each table holds a window of shuffled keys that
+ * overlaps half of the previous table, so roughly every second row is shadowed by a newer table.
+ * <p>
+ * PAIRWISE merges the tables two at a time, rewriting the growing result once per table; SIZE_TIERED merges
+ * the equally sized tables in a single pass.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Thread)
+public class CompactionBenchmark {
+
+    @Param({"16"})
+    int keySize;
+
+    @Param({"100", "500"})
+    int valueSize;
+
+    @Param({"4", "8"})
+    int tableCount;
+
+    @Param({"1000", "10000"})
+    int rowsPerTable;
+
+    /**
+     * ORDERED keys are merged as raw bytes, UTF8 keys have to be deserialized and compared as Strings.
+     */
+    @Param({"ORDERED", "UTF8"})
+    String keyEncoding;
+
+    @Param({"PAIRWISE", "SIZE_TIERED"})
+    String strategy;
+
+    private String[] keys;
+    private String[] values;
+
+    private Compactor<String, String> compactor;
+    private List<SSTable<String, String>> tables;
+    private List<SSTable<String, String>> compacted = List.of();
+
+    @Setup(Level.Trial)
+    public void generateData() {
+        int keySpace = tableCount * rowsPerTable / 2;
+        keys = BenchmarkData.shuffledKeys(keySpace, keySize);
+        values = BenchmarkData.values(rowsPerTable, valueSize);
+
+        // No row limit and no size limit, every table is merged into a single result
+        compactor = strategy.equals("PAIRWISE")
+                ? new RowCountBasedCompactor<>(Integer.MAX_VALUE)
+                : new SizeTieredCompactor<>(2, tableCount, Double.MAX_VALUE);
+    }
+
+    @Setup(Level.Iteration)
+    public void writeTables() throws IOException {
+        StoreFiles.cleanup();
+        BinarySerDe<String> keySerDe = keyEncoding.equals("ORDERED") ? Engine.keySerDe() : BinarySerDes.stringSerDe();
+        tables = new ArrayList<>();
+
+        for (int t = 0; t < tableCount; t++) {
+            Map<String, String> data = new TreeMap<>();
+            for (int i = 0; i < rowsPerTable; i++) {
+                data.put(keys[(t * rowsPerTable / 2 + i) % keys.length], values[i]);
+            }
+
+            SSTable<String, String> table = new SSTable<>("sstable-bench-" + t, keySerDe, Engine.valueSerDe());
+            table.write(data);
+            tables.add(table);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void cleanup() throws IOException {
+        for (SSTable<String, String> table : tables) {
+            table.close();
+        }
+        for (SSTable<String, String> table : compacted) {
+            table.close();
+        }
+        StoreFiles.cleanup();
+    }
+
+    @Benchmark
+    public List<SSTable<String, String>> compact() throws IOException {
+        compacted = compactor.compact(tables);
+        return compacted;
+    }
+}
@@ -0,0 +1,102 @@
+package com.tmsvr.databases.benchmarks;
+
+import com.tmsvr.databases.DataStore;
+import com.tmsvr.databases.lsmtree.commitlog.CommitLogOptions;
+import com.tmsvr.databases.lsmtree.commitlog.CommitLogOptions.Durability;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Put throughput of several writers sharing one store, for each durability mode of the commit log. With
+ * {@code SYNC_EVERY_WRITE} the throughput stays at the sync rate of the disk; with {@code GROUP_SYNC} the writers
+ * share the forces, so it should grow with the number of writers; the other two modes don't wait for the disk at
+ * all and show the cost of the rest of the write path. Only engines that are safe for concurrent use are listed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ConcurrentPutBenchmark {
+
+    @Param({"LSM"})
+    Engine engine;
+
+    @Param({"SYNC_EVERY_WRITE", "GROUP_SYNC", "PERIODIC_SYNC", "OS_BUFFERED"})
+    Durability durability;
+
+    @Param({"16"})
+    int keySize;
+
+    @Param({"100"})
+    int valueSize;
+
+    @Param({"10000"})
+    int memtableSize;
+
+    @Param({"100000"})
+    int keyCount;
+
+    private String[] keys;
+    private String[] values;
+
+    private DataStore<String, String> dataStore;
+
+    @Setup(Level.Trial)
+    public void generateData() {
+        keys = BenchmarkData.shuffledKeys(keyCount, keySize);
+        values = BenchmarkData.values(keyCount, valueSize);
+    }
+
+    @Setup(Level.Iteration)
+    public void createStore() throws IOException {
+        StoreFiles.cleanup();
+        dataStore = engine.create(memtableSize, CommitLogOptions.defaults().withDurability(durability));
+    }
+
+    @TearDown(Level.Iteration)
+    public void cleanup() throws IOException {
+        dataStore.close();
+        StoreFiles.cleanup();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void oneWriter() throws IOException {
+        put();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void fourWriters() throws IOException {
+        put();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void sixteenWriters() throws IOException {
+        put();
+    }
+
+    private void put() throws IOException {
+        int i = ThreadLocalRandom.current().nextInt(keyCount);
+        dataStore.put(keys[i], values[i]);
+    }
+}
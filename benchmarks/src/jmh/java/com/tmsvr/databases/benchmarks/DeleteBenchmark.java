@@ -0,0 +1,83 @@
+package com.tmsvr.databases.benchmarks;
+
+import com.tmsvr.databases.DataStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes every key of a freshly loaded store in random order. One invocation deletes all
+ * {@link #KEY_COUNT} keys, the reported score is the average time of a single delete.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(DeleteBenchmark.KEY_COUNT)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Thread)
+public class DeleteBenchmark {
+    static final int KEY_COUNT = 50_000;
+
+    @Param({"LSM", "BTREE"})
+    Engine engine;
+
+    @Param({"16"})
+    int keySize;
+
+    @Param({"100", "500"})
+    int valueSize;
+
+    @Param({"1000", "10000"})
+    int memtableSize;
+
+    private String[] keys;
+    private String[] deleteOrder;
+    private String[] values;
+
+    private DataStore<String, String> dataStore;
+
+    @Setup(Level.Trial)
+    public void generateData() {
+        keys = BenchmarkData.sequentialKeys(KEY_COUNT, keySize);
+        deleteOrder = BenchmarkData.shuffledKeys(KEY_COUNT, keySize);
+        values = BenchmarkData.values(KEY_COUNT, valueSize);
+    }
+
+    @Setup(Level.Iteration)
+    public void loadStore() throws IOException {
+        StoreFiles.cleanup();
+        dataStore = engine.create(memtableSize);
+
+        for (int i = 0; i < KEY_COUNT; i++) {
+            dataStore.put(keys[i], values[i]);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void cleanup() throws IOException {
+        dataStore.close();
+        StoreFiles.cleanup();
+    }
+
+    @Benchmark
+    public void delete() throws IOException {
+        for (String key : deleteOrder) {
+            dataStore.delete(key);
+        }
+    }
+}
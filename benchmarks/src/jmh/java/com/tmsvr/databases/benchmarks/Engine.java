@@ -0,0 +1,62 @@
+package com.tmsvr.databases.benchmarks;
+
+import com.tmsvr.databases.DataStore;
+import com.tmsvr.databases.btree.BTreeDataStore;
+import com.tmsvr.databases.lsmtree.LsmDataStore;
+import com.tmsvr.databases.lsmtree.commitlog.CommitLogOptions;
+import com.tmsvr.databases.lsmtree.sstable.SSTableOptions;
+import com.tmsvr.databases.lsmtree.sstable.SSTableOptions.ReadMode;
+import com.tmsvr.databases.serde.BinarySerDe;
+import com.tmsvr.databases.serde.BinarySerDes;
+import com.tmsvr.databases.serde.OrderedBinarySerDes;
+
+import java.io.IOException;
+
+/**
+ * The storage engines under benchmark, all driven through the shared {@link DataStore} interface.
+ */
+public enum Engine {
+    LSM {
+        @Override
+        DataStore<String, String> create(int memtableSize, CommitLogOptions commitLogOptions) throws IOException {
+            return new LsmDataStore<>(keySerDe(), valueSerDe(), memtableSize, SSTableOptions.defaults(), commitLogOptions);
+        }
+    },
+    LSM_NO_CACHE {
+        @Override
+        DataStore<String, String> create(int memtableSize, CommitLogOptions commitLogOptions) throws IOException {
+            return new LsmDataStore<>(keySerDe(), valueSerDe(), memtableSize, SSTableOptions.defaults().withBlockCache(null),
+                    commitLogOptions);
+        }
+    },
+    LSM_MMAP {
+        @Override
+        DataStore<String, String> create(int memtableSize, CommitLogOptions commitLogOptions) throws IOException {
+            return new LsmDataStore<>(keySerDe(), valueSerDe(), memtableSize, SSTableOptions.defaults().withReadMode(ReadMode.MMAP),
+                    commitLogOptions);
+        }
+    },
+    BTREE {
+        @Override
+        DataStore<String, String> create(int memtableSize, CommitLogOptions commitLogOptions) {
+            return new BTreeDataStore<>();
+        }
+    };
+
+    DataStore<String, String> create(int memtableSize) throws IOException {
+        return create(memtableSize, CommitLogOptions.defaults());
+    }
+
+    /**
+     * @param commitLogOptions ignored by engines without a commit log
+     */
+    abstract DataStore<String, String> create(int memtableSize, CommitLogOptions commitLogOptions) throws IOException;
+
+    static BinarySerDe<String> keySerDe() {
+        return OrderedBinarySerDes.stringSerDe();
+    }
+
+    static BinarySerDe<String> valueSerDe() {
+        return BinarySerDes.stringSerDe();
+    }
+}
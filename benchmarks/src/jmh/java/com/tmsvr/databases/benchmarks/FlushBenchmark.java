@@ -0,0 +1,74 @@
+package com.tmsvr.databases.benchmarks;
+
+import com.tmsvr.databases.lsmtree.LsmDataStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to flush a full memtable of the LSM engine into a new SSTable, including index, bloom filter and
+ * commit log truncation.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Thread)
+public class FlushBenchmark {
+
+    @Param({"16"})
+    int keySize;
+
+    @Param({"100", "500"})
+    int valueSize;
+
+    @Param({"1000", "10000", "50000"})
+    int memtableSize;
+
+    private String[] keys;
+    private String[] values;
+
+    private LsmDataStore<String, String> dataStore;
+
+    @Setup(Level.Trial)
+    public void generateData() {
+        keys = BenchmarkData.shuffledKeys(memtableSize, keySize);
+        values = BenchmarkData.values(memtableSize, valueSize);
+    }
+
+    @Setup(Level.Iteration)
+    public void fillMemtable() throws IOException {
+        StoreFiles.cleanup();
+        dataStore = new LsmDataStore<>(Engine.keySerDe(), Engine.valueSerDe(), memtableSize);
+
+        // Exactly memtableSize entries, one more would trigger the flush inside put
+        for (int i = 0; i < memtableSize; i++) {
+            dataStore.put(keys[i], values[i]);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void cleanup() throws IOException {
+        dataStore.close();
+        StoreFiles.cleanup();
+    }
+
+    @Benchmark
+    public void flush() throws IOException {
+        dataStore.flush();
+    }
+}
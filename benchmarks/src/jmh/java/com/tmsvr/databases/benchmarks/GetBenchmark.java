@@ -0,0 +1,127 @@
+package com.tmsvr.databases.benchmarks;
+
+import com.tmsvr.databases.DataStore;
+import com.tmsvr.databases.lsmtree.LsmDataStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point lookups of existing and of never written keys against a pre-loaded store. The LSM engine is
+ * flushed after loading, so lookups are served from the SSTables and not from the memtable. The parallel
+ * variant runs the same lookups from 4 threads, its score against {@link #getHit()} shows how reads scale.
+ * The multi-get variants look up {@value #MULTI_GET_SIZE} keys per operation, with {@link DataStore#getAll} and
+ * with one get per key.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class GetBenchmark {
+    static final int MULTI_GET_SIZE = 100;
+
+    @Param({"LSM", "LSM_NO_CACHE", "LSM_MMAP", "BTREE"})
+    Engine engine;
+
+    @Param({"16"})
+    int keySize;
+
+    @Param({"100", "500"})
+    int valueSize;
+
+    @Param({"1000", "10000"})
+    int memtableSize;
+
+    @Param({"100000"})
+    int keyCount;
+
+    private String[] keys;
+    private String[] missingKeys;
+
+    private DataStore<String, String> dataStore;
+
+    @Setup(Level.Trial)
+    public void loadStore() throws IOException {
+        StoreFiles.cleanup();
+
+        keys = BenchmarkData.shuffledKeys(keyCount, keySize);
+        missingKeys = BenchmarkData.missingKeys(keyCount, keySize);
+        String[] values = BenchmarkData.values(keyCount, valueSize);
+
+        dataStore = engine.create(memtableSize);
+        for (int i = 0; i < keyCount; i++) {
+            dataStore.put(keys[i], values[i]);
+        }
+
+        if (dataStore instanceof LsmDataStore<String, String> lsmDataStore) {
+            lsmDataStore.flush();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        dataStore.close();
+        StoreFiles.cleanup();
+    }
+
+    @Benchmark
+    public Optional<String> getHit() throws IOException {
+        return dataStore.get(keys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+
+    @Benchmark
+    public Optional<String> getMiss() throws IOException {
+        return dataStore.get(missingKeys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+
+    @Benchmark
+    public Map<String, String> getAllHit() throws IOException {
+        return dataStore.getAll(randomKeys());
+    }
+
+    @Benchmark
+    public int getEachHit() throws IOException {
+        int found = 0;
+        for (String key : randomKeys()) {
+            if (dataStore.get(key).isPresent()) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private List<String> randomKeys() {
+        List<String> batch = new ArrayList<>(MULTI_GET_SIZE);
+        for (int i = 0; i < MULTI_GET_SIZE; i++) {
+            batch.add(keys[ThreadLocalRandom.current().nextInt(keyCount)]);
+        }
+        return batch;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Optional<String> getHitParallel() throws IOException {
+        return dataStore.get(keys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+}
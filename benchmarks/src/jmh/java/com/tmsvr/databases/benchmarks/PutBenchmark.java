@@ -0,0 +1,93 @@
+package com.tmsvr.databases.benchmarks;
+
+import com.tmsvr.databases.DataStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Put throughput with sequential and random key order. Every iteration starts from an empty store, once all
+ * keys are written the benchmark wraps around and keeps overwriting them. The LSM engine flushes and compacts
+ * in the background, the writing thread only pays for them when the flushes fall behind.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Thread)
+public class PutBenchmark {
+
+    @Param({"LSM", "BTREE"})
+    Engine engine;
+
+    @Param({"16"})
+    int keySize;
+
+    @Param({"100", "500"})
+    int valueSize;
+
+    @Param({"1000", "10000"})
+    int memtableSize;
+
+    @Param({"100000"})
+    int keyCount;
+
+    private String[] sequentialKeys;
+    private String[] randomKeys;
+    private String[] values;
+
+    private DataStore<String, String> dataStore;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void generateData() {
+        sequentialKeys = BenchmarkData.sequentialKeys(keyCount, keySize);
+        randomKeys = BenchmarkData.shuffledKeys(keyCount, keySize);
+        values = BenchmarkData.values(keyCount, valueSize);
+    }
+
+    @Setup(Level.Iteration)
+    public void createStore() throws IOException {
+        StoreFiles.cleanup();
+        dataStore = engine.create(memtableSize);
+        next = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void cleanup() throws IOException {
+        dataStore.close();
+        StoreFiles.cleanup();
+    }
+
+    @Benchmark
+    public void sequentialPut() throws IOException {
+        int i = nextIndex();
+        dataStore.put(sequentialKeys[i], values[i]);
+    }
+
+    @Benchmark
+    public void randomPut() throws IOException {
+        int i = nextIndex();
+        dataStore.put(randomKeys[i], values[i]);
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = (i + 1 == keyCount) ? 0 : i + 1;
+        return i;
+    }
+}
@@ -0,0 +1,97 @@
+package com.tmsvr.databases.benchmarks;
+
+import com.tmsvr.databases.DataStore;
+import com.tmsvr.databases.WriteBatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes {@code batchSize} random keys per operation, once as a single {@link WriteBatch} and once as separate
+ * puts, so the scores compare directly. Records per second are the score times the batch size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Thread)
+public class WriteBatchBenchmark {
+
+    @Param({"LSM", "BTREE"})
+    Engine engine;
+
+    @Param({"100", "1000"})
+    int batchSize;
+
+    @Param({"100"})
+    int valueSize;
+
+    @Param({"10000"})
+    int memtableSize;
+
+    @Param({"100000"})
+    int keyCount;
+
+    private String[] keys;
+    private String[] values;
+
+    private DataStore<String, String> dataStore;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void generateData() {
+        keys = BenchmarkData.shuffledKeys(keyCount, 16);
+        values = BenchmarkData.values(keyCount, valueSize);
+    }
+
+    @Setup(Level.Iteration)
+    public void createStore() throws IOException {
+        StoreFiles.cleanup();
+        dataStore = engine.create(memtableSize);
+        next = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void cleanup() throws IOException {
+        dataStore.close();
+        StoreFiles.cleanup();
+    }
+
+    @Benchmark
+    public void writeBatch() throws IOException {
+        WriteBatch<String, String> batch = new WriteBatch<>();
+        for (int n = 0; n < batchSize; n++) {
+            int i = nextIndex();
+            batch.put(keys[i], values[i]);
+        }
+        dataStore.write(batch);
+    }
+
+    @Benchmark
+    public void separatePuts() throws IOException {
+        for (int n = 0; n < batchSize; n++) {
+            int i = nextIndex();
+            dataStore.put(keys[i], values[i]);
+        }
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = (i + 1 == keyCount) ? 0 : i + 1;
+        return i;
+    }
+}
@@ -1,14 +1,21 @@
 package com.tmsvr.databases.btree;
 
+import com.tmsvr.databases.CloseableIterator;
 import com.tmsvr.databases.DataRecord;
 import com.tmsvr.databases.DataStore;
+import com.tmsvr.databases.ScanDirection;
+import com.tmsvr.databases.WriteBatch;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 
 @Slf4j
 public class BTreeDataStore<K extends Comparable<K>, V> implements DataStore<K, V> {
     private BTreeNode<K, V> root = new BTreeNode<>(true);
+    // Counts the changes of the tree, iterators search their position again when it moves
+    private int modCount;
 
     @Override
     public void put(K key, V value) {
@@ -17,6 +24,7 @@ public class BTreeDataStore<K extends Comparable<K>, V> implements DataStore<K,
         }
 
         DataRecord<K, V> kv = new DataRecord<>(key, value);
+        modCount++;
 
         if (root.data.size() == BTreeNode.ORDER - 1) {
             // Root is full; split it and create a new root
@@ -40,6 +48,7 @@ public class BTreeDataStore<K extends Comparable<K>, V> implements DataStore<K,
             return;
         }
 
+        modCount++;
         root.deleteFromNode(key);
 
         // If the root becomes empty, and it is not a leaf, make the first child the new root
@@ -48,10 +57,116 @@ public class BTreeDataStore<K extends Comparable<K>, V> implements DataStore<K,
         }
     }
 
+    /**
+     * Applies the writes in key order, the last write of a key wins. Neighboring keys mostly go to the same leaf:
+     * the leaf found for a key is kept with the range of keys it may hold, and the following keys of that range
+     * are inserted into it without descending from the root again, as long as it has room. A key that needs a
+     * split or lives in an inner node, and every delete, takes the usual path from the root.
+     */
+    @Override
+    public void write(WriteBatch<K, V> batch) {
+        Map<K, DataRecord<K, V>> sorted = new TreeMap<>();
+        for (DataRecord<K, V> kv : batch.records()) {
+            sorted.put(kv.key(), kv);
+        }
+
+        modCount++;
+        Leaf<K, V> leaf = null;
+        for (DataRecord<K, V> kv : sorted.values()) {
+            if (kv.value() == null) {
+                delete(kv.key());
+                leaf = null;
+                continue;
+            }
+
+            if (leaf == null || !leaf.covers(kv.key())) {
+                leaf = findLeaf(kv.key());
+            }
+            if (leaf == null || !leaf.insert(kv)) {
+                put(kv.key(), kv.value());
+                leaf = null;
+            }
+        }
+    }
+
+    /**
+     * @return the leaf the key belongs to with the bounds of its keys, or null if the key is in an inner node
+     */
+    private Leaf<K, V> findLeaf(K key) {
+        BTreeNode<K, V> node = root;
+        K lower = null;
+        K upper = null;
+
+        while (!node.isLeaf) {
+            int i = 0;
+            while (i < node.data.size() && key.compareTo(node.data.get(i).key()) > 0) {
+                i++;
+            }
+            if (i < node.data.size() && key.compareTo(node.data.get(i).key()) == 0) {
+                return null;
+            }
+
+            if (i > 0) {
+                lower = node.data.get(i - 1).key();
+            }
+            if (i < node.data.size()) {
+                upper = node.data.get(i).key();
+            }
+            node = node.children.get(i);
+        }
+        return new Leaf<>(node, lower, upper);
+    }
+
+    /**
+     * A leaf with the keys of the inner nodes around it, the leaf holds the keys strictly between them.
+     */
+    private record Leaf<K extends Comparable<K>, V>(BTreeNode<K, V> node, K lower, K upper) {
+
+        boolean covers(K key) {
+            return (lower == null || key.compareTo(lower) > 0) && (upper == null || key.compareTo(upper) < 0);
+        }
+
+        /**
+         * @return false if the key is new and the leaf is full, it has to be split from the parent
+         */
+        boolean insert(DataRecord<K, V> kv) {
+            int i = 0;
+            while (i < node.data.size() && kv.compareTo(node.data.get(i)) > 0) {
+                i++;
+            }
+
+            if (i < node.data.size() && kv.compareTo(node.data.get(i)) == 0) {
+                node.data.set(i, kv);
+                return true;
+            }
+            if (node.data.size() == BTreeNode.ORDER - 1) {
+                return false;
+            }
+            node.data.add(i, kv);
+            return true;
+        }
+    }
+
+    /**
+     * Walks the tree in order from the first key of the range, see {@link BTreeIterator}. The tree may be changed
+     * while iterating, the iterator goes on after the last key it returned.
+     */
+    @Override
+    public CloseableIterator<DataRecord<K, V>> scan(K fromKey, K toKey, ScanDirection direction) {
+        if (fromKey != null && toKey != null && fromKey.compareTo(toKey) >= 0) {
+            return CloseableIterator.empty();
+        }
+        return new BTreeIterator<>(this, fromKey, toKey, direction);
+    }
+
     BTreeNode<K, V> getRoot() {
         return root;
     }
 
+    int getModCount() {
+        return modCount;
+    }
+
     void printTree() {
         if (root == null) {
             log.info("The tree is empty.");
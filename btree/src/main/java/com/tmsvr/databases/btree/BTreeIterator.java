@@ -0,0 +1,186 @@
+package com.tmsvr.databases.btree;
+
+import com.tmsvr.databases.CloseableIterator;
+import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.ScanDirection;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+
+/**
+ * In-order traversal of a key range of the tree, with a stack of the nodes on the path to the current key
+ * instead of recursion, so it can stop after any record.
+ * <p>
+ * Every frame of the stack holds a node and the index of the next record to return from it. Going forward, the
+ * subtree left of that record is visited before it, after the record the walk goes down the leftmost path of the
+ * child to its right. Going in reverse it is the mirror image.
+ * <p>
+ * If the tree is changed while iterating, the path may point to nodes that are not in the tree anymore. The
+ * iterator notices the change and searches the path again from the root, starting after the last key it returned.
+ */
+class BTreeIterator<K extends Comparable<K>, V> implements CloseableIterator<DataRecord<K, V>> {
+    private final BTreeDataStore<K, V> store;
+    private final K from;
+    private final K to;
+    private final ScanDirection direction;
+    private final Deque<Frame<K, V>> path = new ArrayDeque<>();
+
+    private int expectedModCount;
+    private DataRecord<K, V> pending;
+    private K lastKey;
+    private boolean done;
+
+    BTreeIterator(BTreeDataStore<K, V> store, K from, K to, ScanDirection direction) {
+        this.store = store;
+        this.from = from;
+        this.to = to;
+        this.direction = direction;
+        seek();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (done) {
+            return false;
+        }
+
+        if (expectedModCount != store.getModCount()) {
+            pending = null;
+            seek();
+        }
+
+        if (pending == null) {
+            DataRecord<K, V> record = direction == ScanDirection.FORWARD ? advance() : advanceReverse();
+            if (record == null || !inRange(record.key())) {
+                close();
+                return false;
+            }
+            pending = record;
+        }
+        return true;
+    }
+
+    @Override
+    public DataRecord<K, V> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        DataRecord<K, V> next = pending;
+        pending = null;
+        lastKey = next.key();
+        return next;
+    }
+
+    @Override
+    public void close() {
+        done = true;
+        path.clear();
+    }
+
+    private boolean inRange(K key) {
+        return direction == ScanDirection.FORWARD
+                ? to == null || key.compareTo(to) < 0
+                : from == null || key.compareTo(from) >= 0;
+    }
+
+    private void seek() {
+        expectedModCount = store.getModCount();
+        path.clear();
+
+        BTreeNode<K, V> node = store.getRoot();
+        while (node != null) {
+            int index = direction == ScanDirection.FORWARD ? firstIndexFrom(node) : firstIndexBelow(node) - 1;
+            path.push(new Frame<>(node, index));
+            node = node.isLeaf ? null : node.children.get(direction == ScanDirection.FORWARD ? index : index + 1);
+        }
+    }
+
+    /**
+     * @return index of the first record of the node with a key not before the start, or after the last key returned
+     */
+    private int firstIndexFrom(BTreeNode<K, V> node) {
+        int index = 0;
+        while (index < node.data.size() && before(node.data.get(index).key())) {
+            index++;
+        }
+        return index;
+    }
+
+    private boolean before(K key) {
+        if (lastKey != null) {
+            return key.compareTo(lastKey) <= 0;
+        }
+        return from != null && key.compareTo(from) < 0;
+    }
+
+    /**
+     * @return number of records of the node with a key before the end, or before the last key returned
+     */
+    private int firstIndexBelow(BTreeNode<K, V> node) {
+        int index = 0;
+        while (index < node.data.size() && below(node.data.get(index).key())) {
+            index++;
+        }
+        return index;
+    }
+
+    private boolean below(K key) {
+        if (lastKey != null) {
+            return key.compareTo(lastKey) < 0;
+        }
+        return to == null || key.compareTo(to) < 0;
+    }
+
+    private DataRecord<K, V> advance() {
+        while (!path.isEmpty()) {
+            Frame<K, V> frame = path.peek();
+            if (frame.index == frame.node.data.size()) {
+                path.pop();
+                continue;
+            }
+
+            DataRecord<K, V> record = frame.node.data.get(frame.index++);
+            if (!frame.node.isLeaf) {
+                BTreeNode<K, V> node = frame.node.children.get(frame.index);
+                while (node != null) {
+                    path.push(new Frame<>(node, 0));
+                    node = node.isLeaf ? null : node.children.getFirst();
+                }
+            }
+            return record;
+        }
+        return null;
+    }
+
+    private DataRecord<K, V> advanceReverse() {
+        while (!path.isEmpty()) {
+            Frame<K, V> frame = path.peek();
+            if (frame.index < 0) {
+                path.pop();
+                continue;
+            }
+
+            DataRecord<K, V> record = frame.node.data.get(frame.index--);
+            if (!frame.node.isLeaf) {
+                BTreeNode<K, V> node = frame.node.children.get(frame.index + 1);
+                while (node != null) {
+                    path.push(new Frame<>(node, node.data.size() - 1));
+                    node = node.isLeaf ? null : node.children.getLast();
+                }
+            }
+            return record;
+        }
+        return null;
+    }
+
+    private static final class Frame<K extends Comparable<K>, V> {
+        private final BTreeNode<K, V> node;
+        private int index;
+
+        Frame(BTreeNode<K, V> node, int index) {
+            this.node = node;
+            this.index = index;
+        }
+    }
+}
@@ -60,6 +60,12 @@ class BTreeNode<K extends Comparable<K>, V> {
             while (i >= 0 && kv.compareTo(data.get(i)) < 0) {
                 i--;
             }
+
+            // The key is in this node, overwrite it here instead of adding it to a child again
+            if (i >= 0 && kv.compareTo(data.get(i)) == 0) {
+                data.set(i, kv);
+                return;
+            }
             i++;
 
             // If the key exists in the child, update the value
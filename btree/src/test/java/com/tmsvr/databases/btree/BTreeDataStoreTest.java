@@ -2,10 +2,19 @@ package com.tmsvr.databases.btree;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.tmsvr.databases.CloseableIterator;
+import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.KeyRanges;
+import com.tmsvr.databases.ScanDirection;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 
 class BTreeDataStoreTest {
 
@@ -184,4 +193,69 @@ class BTreeDataStoreTest {
         assertEquals(Optional.of("8"), dataStore.get("h"), "Key 'h' should still exist");
         assertEquals(Optional.of("9"), dataStore.get("i"), "Key 'i' should still exist");
     }
+
+    @Test
+    void testOverwriteKeyOfInnerNode() {
+        for (int i = 1; i <= 6; i++) {
+            dataStore.put("key" + i, "value" + i);
+        }
+        String rootKey = dataStore.getRoot().data.getFirst().key();
+
+        dataStore.put(rootKey, "updated");
+
+        assertEquals(Optional.of("updated"), dataStore.get(rootKey));
+        dataStore.delete(rootKey);
+        assertFalse(dataStore.get(rootKey).isPresent(), "Expected no copy of the key to be left");
+    }
+
+    @Test
+    void testScanReturnsRangeInOrder() throws IOException {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            keys.add(String.format("key%03d", i));
+        }
+        List<String> shuffled = new ArrayList<>(keys);
+        Collections.shuffle(shuffled, new Random(1));
+        shuffled.forEach(key -> dataStore.put(key, "value"));
+
+        assertEquals(keys, keys(dataStore.scan(null, null)));
+        assertEquals(keys.reversed(), keys(dataStore.scan(null, null, ScanDirection.REVERSE)));
+        assertEquals(keys.subList(50, 120), keys(dataStore.scan("key050", "key120")));
+        assertEquals(keys.subList(50, 120).reversed(), keys(dataStore.scan("key050", "key120", ScanDirection.REVERSE)));
+        assertEquals(keys.subList(50, 60), keys(dataStore.scanPrefix("key05", KeyRanges::prefixEnd, ScanDirection.FORWARD)));
+        assertEquals(List.of(), keys(dataStore.scan("key120", "key050")));
+    }
+
+    @Test
+    void testScanContinuesAfterTreeChanges() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            dataStore.put(String.format("key%03d", i), "value");
+        }
+
+        List<String> seen = new ArrayList<>();
+        try (CloseableIterator<DataRecord<String, String>> records = dataStore.scan(null, null)) {
+            while (records.hasNext()) {
+                String key = records.next().key();
+                seen.add(key);
+                // Deleting the key just returned and the next one rebalances the nodes under the iterator
+                dataStore.delete(key);
+                int next = Integer.parseInt(key.substring(3)) + 1;
+                dataStore.delete(String.format("key%03d", next));
+            }
+        }
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i += 2) {
+            expected.add(String.format("key%03d", i));
+        }
+        assertEquals(expected, seen);
+    }
+
+    private static List<String> keys(CloseableIterator<DataRecord<String, String>> records) {
+        List<String> keys = new ArrayList<>();
+        try (records) {
+            records.forEachRemaining(record -> keys.add(record.key()));
+        }
+        return keys;
+    }
 }
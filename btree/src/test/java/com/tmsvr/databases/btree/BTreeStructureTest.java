@@ -1,6 +1,7 @@
 package com.tmsvr.databases.btree;
 
 import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.WriteBatch;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -8,7 +9,9 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.function.Consumer;
 
 import static com.tmsvr.databases.btree.BTreeNode.ORDER;
@@ -170,6 +173,46 @@ class BTreeStructureTest {
         }
     }
 
+    @Test
+    void testWriteBatchKeepsTreeValid() {
+        for (int i = 0; i < 100; i += 3) {
+            dataStore.put(String.format("key%03d", i), "old");
+        }
+
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            keys.add(String.format("key%03d", i));
+        }
+        Collections.shuffle(keys, new Random(7));
+
+        WriteBatch<String, String> batch = new WriteBatch<>();
+        keys.forEach(key -> batch.put(key, "new-" + key));
+        for (int i = 0; i < 300; i += 10) {
+            batch.delete(String.format("key%03d", i));
+        }
+        dataStore.write(batch);
+
+        List<DataRecord<String, String>> records = inOrderTraversal(dataStore.getRoot());
+        assertEquals(270, records.size());
+        for (int i = 0; i < records.size() - 1; i++) {
+            assertTrue(records.get(i).key().compareTo(records.get(i + 1).key()) < 0, "Keys should be in sorted order");
+        }
+        for (DataRecord<String, String> kv : records) {
+            assertEquals("new-" + kv.key(), kv.value());
+        }
+
+        BTreeNode<String, String> root = dataStore.getRoot();
+        traverseAndExecute(root, node -> {
+            assertTrue(node.data.size() <= ORDER - 1);
+            if (node != root) {
+                assertTrue(node.data.size() >= BTreeNode.MIN_DEGREE - 1);
+            }
+            if (!node.isLeaf) {
+                assertEquals(node.data.size() + 1, node.children.size());
+            }
+        });
+    }
+
     private List<DataRecord<String, String>> inOrderTraversal(BTreeNode<String, String> node) {
         List<DataRecord<String, String>> result = new ArrayList<>();
         if (node == null) return result;
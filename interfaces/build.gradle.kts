@@ -1,2 +1,6 @@
 group = "com.tmsvr.databases"
 version = "1.0-SNAPSHOT"
+
+dependencies {
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
@@ -0,0 +1,49 @@
+package com.tmsvr.databases;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * Iterator over resources of a store, like open files, that have to be released when the caller is done. The
+ * iterator may be closed before it reaches its end, and has to be closed in any case.
+ */
+public interface CloseableIterator<T> extends Iterator<T>, AutoCloseable {
+
+    /**
+     * Releases what the iterator holds, it can't be used afterwards. Closing more than once does nothing.
+     */
+    @Override
+    void close();
+
+    /**
+     * @return an iterator that runs {@code onClose} when it is closed the first time
+     */
+    static <T> CloseableIterator<T> of(Iterator<T> iterator, Runnable onClose) {
+        return new CloseableIterator<>() {
+            private boolean closed;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    onClose.run();
+                }
+            }
+        };
+    }
+
+    static <T> CloseableIterator<T> empty() {
+        return of(Collections.emptyIterator(), () -> {
+        });
+    }
+}
@@ -1,12 +1,71 @@
 package com.tmsvr.databases;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.UnaryOperator;
 
-public interface DataStore<K extends Comparable<K>, V> {
+public interface DataStore<K extends Comparable<K>, V> extends Closeable {
     void put(K key, V value) throws IOException;
 
     Optional<V> get(K key) throws IOException;
 
     void delete(K key) throws IOException;
+
+    /**
+     * Looks up many keys at once. Stores that can share work between the keys override it, by default every key
+     * is looked up on its own.
+     *
+     * @return the values of the keys that are in the store, missing keys are left out
+     */
+    default Map<K, V> getAll(Collection<K> keys) throws IOException {
+        Map<K, V> values = new HashMap<>();
+        for (K key : keys) {
+            Optional<V> value = get(key);
+            if (value.isPresent()) {
+                values.put(key, value.get());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Applies every write of the batch, with less work per record than the same puts and deletes one by one.
+     * The engine decides how atomic the batch is, see its implementation.
+     */
+    void write(WriteBatch<K, V> batch) throws IOException;
+
+    /**
+     * Iterates the live records of a key range in key order. The records are read as the iterator advances, so a
+     * scan can be stopped early by closing it, and it has to be closed once done. Writes made while the scan runs
+     * may or may not be seen by it.
+     *
+     * @param fromKey first key of the range, or null to start at the smallest key
+     * @param toKey   first key after the range, or null to go to the largest key
+     */
+    CloseableIterator<DataRecord<K, V>> scan(K fromKey, K toKey, ScanDirection direction) throws IOException;
+
+    default CloseableIterator<DataRecord<K, V>> scan(K fromKey, K toKey) throws IOException {
+        return scan(fromKey, toKey, ScanDirection.FORWARD);
+    }
+
+    /**
+     * Iterates the records whose keys start with the prefix, see {@link #scan(Comparable, Comparable, ScanDirection)}.
+     *
+     * @param prefixEnd gives the first key after every key with a prefix, or null if there is none. For String
+     *                  keys it is {@link KeyRanges#prefixEnd(String)}.
+     */
+    default CloseableIterator<DataRecord<K, V>> scanPrefix(K prefix, UnaryOperator<K> prefixEnd, ScanDirection direction) throws IOException {
+        return scan(prefix, prefixEnd.apply(prefix), direction);
+    }
+
+    /**
+     * Releases the files held open by the store. In-memory stores have nothing to release.
+     */
+    @Override
+    default void close() throws IOException {
+    }
 }
@@ -0,0 +1,24 @@
+package com.tmsvr.databases;
+
+/**
+ * Helpers to turn key prefixes into the ranges of {@link DataStore#scan}.
+ */
+public final class KeyRanges {
+
+    private KeyRanges() {
+    }
+
+    /**
+     * @return the smallest string after every string that starts with the prefix, in the order of
+     * {@link String#compareTo}, or null if there is none as the prefix is all {@code '￿'}
+     */
+    public static String prefixEnd(String prefix) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE) {
+                return prefix.substring(0, i) + (char) (c + 1);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,15 @@
+package com.tmsvr.databases;
+
+/**
+ * Order in which a scan returns the keys of its range.
+ */
+public enum ScanDirection {
+    /**
+     * From the smallest key to the largest.
+     */
+    FORWARD,
+    /**
+     * From the largest key to the smallest.
+     */
+    REVERSE
+}
@@ -0,0 +1,48 @@
+package com.tmsvr.databases;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Puts and deletes that {@link DataStore#write(WriteBatch)} applies together. A key written more than once in a
+ * batch ends up with its last write. Not safe for concurrent use.
+ */
+public class WriteBatch<K extends Comparable<K>, V> {
+    private final List<DataRecord<K, V>> records = new ArrayList<>();
+
+    public WriteBatch<K, V> put(K key, V value) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Null key or value not allowed");
+        }
+        records.add(new DataRecord<>(key, value));
+        return this;
+    }
+
+    public WriteBatch<K, V> delete(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Null key not allowed");
+        }
+        records.add(new DataRecord<>(key, null));
+        return this;
+    }
+
+    /**
+     * @return the writes in the order they were added, a delete is a record with a null value
+     */
+    public List<DataRecord<K, V>> records() {
+        return Collections.unmodifiableList(records);
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    public boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    public void clear() {
+        records.clear();
+    }
+}
@@ -0,0 +1,218 @@
+package com.tmsvr.databases.cache;
+
+import com.tmsvr.databases.CloseableIterator;
+import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.DataStore;
+import com.tmsvr.databases.ScanDirection;
+import com.tmsvr.databases.WriteBatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the values of hot keys in front of another store, decoded, so a hit costs neither a lookup in the store
+ * nor deserialization. Lookups of missing keys are cached too. At most {@code maximumSize} keys are held, evicted
+ * with {@link WindowTinyLfu}, which keeps the keys read most often lately and lets keys read once pass through.
+ * <p>
+ * Writes go to the store first and then drop the key from the cache, the next get reads it from the store again.
+ * Updating the cached value instead could leave the older of two concurrent writes of a key in the cache.
+ * <p>
+ * The cache is split into segments by key, each behind its own lock, so it is as safe for concurrent use as the
+ * store is. A get that read the store while a write to its segment ran doesn't cache what it read, the value may
+ * be older than the write. Scans go to the store, they neither use nor fill the cache.
+ */
+public class CachingDataStore<K extends Comparable<K>, V> implements DataStore<K, V> {
+    private static final int MAX_SEGMENTS = 16;
+
+    private final DataStore<K, V> delegate;
+    private final Segment<K, V>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maximumSize most keys held, split evenly between the segments
+     */
+    @SuppressWarnings("unchecked")
+    public CachingDataStore(DataStore<K, V> delegate, int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Maximum size must not be negative: " + maximumSize);
+        }
+
+        this.delegate = delegate;
+        this.segments = new Segment[Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maximumSize)))];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment<>(maximumSize / segments.length);
+        }
+    }
+
+    @Override
+    public void put(K key, V value) throws IOException {
+        delegate.put(key, value);
+        segment(key).invalidate(key);
+    }
+
+    @Override
+    public Optional<V> get(K key) throws IOException {
+        Segment<K, V> segment = segment(key);
+        Optional<V> cached;
+        long stamp;
+        segment.lock.lock();
+        try {
+            cached = segment.cache.get(key);
+            stamp = segment.writes;
+        } finally {
+            segment.lock.unlock();
+        }
+
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        misses.increment();
+        Optional<V> value = delegate.get(key);
+        segment.fill(key, value, stamp);
+        return value;
+    }
+
+    /**
+     * Looks up the keys that are not cached with a single {@link DataStore#getAll(Collection)} of the store.
+     */
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws IOException {
+        Map<K, V> values = new HashMap<>();
+        // Write stamps of the segments of the keys that are not cached, taken before the store is read
+        Map<K, Long> missing = new LinkedHashMap<>();
+
+        for (K key : keys) {
+            Segment<K, V> segment = segment(key);
+            segment.lock.lock();
+            try {
+                Optional<V> cached = segment.cache.get(key);
+                if (cached == null) {
+                    misses.increment();
+                    missing.putIfAbsent(key, segment.writes);
+                } else {
+                    hits.increment();
+                    cached.ifPresent(value -> values.put(key, value));
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return values;
+        }
+
+        Map<K, V> found = delegate.getAll(new ArrayList<>(missing.keySet()));
+        for (Map.Entry<K, Long> entry : missing.entrySet()) {
+            Optional<V> value = Optional.ofNullable(found.get(entry.getKey()));
+            segment(entry.getKey()).fill(entry.getKey(), value, entry.getValue());
+            value.ifPresent(v -> values.put(entry.getKey(), v));
+        }
+        return values;
+    }
+
+    @Override
+    public void delete(K key) throws IOException {
+        delegate.delete(key);
+        segment(key).invalidate(key);
+    }
+
+    @Override
+    public void write(WriteBatch<K, V> batch) throws IOException {
+        delegate.write(batch);
+        for (DataRecord<K, V> record : batch.records()) {
+            segment(record.key()).invalidate(record.key());
+        }
+    }
+
+    @Override
+    public CloseableIterator<DataRecord<K, V>> scan(K fromKey, K toKey, ScanDirection direction) throws IOException {
+        return delegate.scan(fromKey, toKey, direction);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    /**
+     * @return number of lookups answered from the cache, {@link #getAll(Collection)} counts every key
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of keys in the cache, found or missing ones
+     */
+    public long getSize() {
+        long size = 0;
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.cache.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    private Segment<K, V> segment(K key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * A lock is used instead of synchronized methods, so that virtual threads are not pinned while they wait.
+     */
+    private static final class Segment<K, V> {
+        private final ReentrantLock lock = new ReentrantLock();
+        // An empty Optional is a key known to be missing
+        private final WindowTinyLfu<K, Optional<V>> cache;
+        // Number of writes to the keys of the segment, guarded by the lock
+        private long writes;
+
+        Segment(int maximumSize) {
+            this.cache = new WindowTinyLfu<>(maximumSize);
+        }
+
+        /**
+         * Caches a value read from the store, unless a key of the segment was written since the stamp was taken.
+         */
+        void fill(K key, Optional<V> value, long stamp) {
+            lock.lock();
+            try {
+                if (writes == stamp) {
+                    cache.put(key, value);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void invalidate(K key) {
+            lock.lock();
+            try {
+                writes++;
+                cache.remove(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.tmsvr.databases.cache;
+
+/**
+ * Count-min sketch of how often keys were seen lately, the popularity estimate of TinyLFU. Every key has a 4-bit
+ * counter in each of 4 rows, its frequency is the smallest of them, so a collision can only make a key look more
+ * popular than it is. Once there were ten increments per key the cache holds, every counter is halved: keys that
+ * were popular long ago fade and make room for those popular now.
+ * <p>
+ * The counters are packed 16 to a long, the sketch takes 8 bytes per key the cache holds. Not safe for concurrent
+ * use.
+ */
+final class FrequencySketch<K> {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param maximumSize number of keys the cache holds
+     */
+    FrequencySketch(int maximumSize) {
+        int length = Integer.highestOneBit(Math.max(8, Math.min(maximumSize, 1 << 30)) - 1) << 1;
+        this.table = new long[length];
+        this.sampleSize = (int) Math.min(10L * Math.max(1, maximumSize), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return estimate of how often the key was seen lately, from 0 to 15
+     */
+    int frequency(K key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < SEEDS.length; row++) {
+            frequency = Math.min(frequency, (int) ((table[index(hash, row)] >>> shift(hash, row)) & MAX_COUNT));
+        }
+        return frequency;
+    }
+
+    void increment(K key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            int index = index(hash, row);
+            int shift = shift(hash, row);
+            if (((table[index] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int index(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & (table.length - 1);
+    }
+
+    /**
+     * @return position of the key's counter of the row within its long
+     */
+    private static int shift(int hash, int row) {
+        return ((hash >>> (row << 3)) & 15) << 2;
+    }
+
+    private static int spread(int hashCode) {
+        int h = hashCode * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,175 @@
+package com.tmsvr.databases.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Map of at most {@code maximumSize} entries evicted with W-TinyLFU. New entries go into a small LRU window of 1%
+ * of the size. The entry pushed out of the window has to win against the next entry the main part would evict,
+ * the one that was seen more often lately by the {@link FrequencySketch} stays. Keys read once, as a scan does,
+ * pass through the window and rarely get past its end.
+ * <p>
+ * The main part is a segmented LRU: admitted entries are on probation until they are read again, then they move
+ * to the protected segment, 80% of the main part. Entries pushed out of the protected segment go back on
+ * probation, so the victims are always the least recently used entries of those read only once since admission.
+ * <p>
+ * Not safe for concurrent use.
+ */
+final class WindowTinyLfu<K, V> {
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final int maximumSize;
+    private final int windowSize;
+    private final int protectedSize;
+    private final Map<K, Node<K, V>> nodes = new HashMap<>();
+    private final FrequencySketch<K> sketch;
+    private final Queue<K, V> window = new Queue<>();
+    private final Queue<K, V> probation = new Queue<>();
+    private final Queue<K, V> protectedQueue = new Queue<>();
+
+    WindowTinyLfu(int maximumSize) {
+        this.maximumSize = maximumSize;
+        this.windowSize = Math.max(1, (int) (maximumSize * WINDOW_SHARE));
+        this.protectedSize = (int) ((maximumSize - windowSize) * PROTECTED_SHARE);
+        this.sketch = new FrequencySketch<>(maximumSize);
+    }
+
+    /**
+     * Counts an access of the key, whether it is in the map or not.
+     *
+     * @return the value, or null if the key is not in the map
+     */
+    V get(K key) {
+        sketch.increment(key);
+        Node<K, V> node = nodes.get(key);
+        if (node == null) {
+            return null;
+        }
+
+        onAccess(node);
+        return node.value;
+    }
+
+    /**
+     * Adds or replaces the value of the key. Adding may evict another entry or the new one right away.
+     */
+    void put(K key, V value) {
+        Node<K, V> node = nodes.get(key);
+        if (node != null) {
+            node.value = value;
+            onAccess(node);
+            return;
+        }
+        if (maximumSize == 0) {
+            return;
+        }
+
+        node = new Node<>(key, value);
+        nodes.put(key, node);
+        window.addLast(node);
+
+        if (window.size > windowSize) {
+            Node<K, V> candidate = window.removeFirst();
+            probation.addLast(candidate);
+            if (nodes.size() > maximumSize) {
+                evict(candidate);
+            }
+        }
+    }
+
+    void remove(K key) {
+        Node<K, V> node = nodes.remove(key);
+        if (node != null) {
+            node.queue.remove(node);
+        }
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if (node.queue == probation) {
+            probation.remove(node);
+            protectedQueue.addLast(node);
+            if (protectedQueue.size > protectedSize) {
+                probation.addLast(protectedQueue.removeFirst());
+            }
+        } else {
+            node.queue.moveToLast(node);
+        }
+    }
+
+    /**
+     * Evicts either the candidate that just left the window or the victim at the head of probation, whichever
+     * was seen less often. A tie evicts the candidate, the main part keeps what it has.
+     */
+    private void evict(Node<K, V> candidate) {
+        Node<K, V> victim = probation.first();
+        Node<K, V> evicted = victim == candidate || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)
+                ? candidate : victim;
+
+        probation.remove(evicted);
+        nodes.remove(evicted.key);
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private V value;
+        private Queue<K, V> queue;
+        private Node<K, V> previous;
+        private Node<K, V> next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Doubly linked list of nodes from the least to the most recently used, around a sentinel.
+     */
+    private static final class Queue<K, V> {
+        private final Node<K, V> sentinel = new Node<>(null, null);
+        private int size;
+
+        Queue() {
+            sentinel.previous = sentinel;
+            sentinel.next = sentinel;
+        }
+
+        Node<K, V> first() {
+            return sentinel.next == sentinel ? null : sentinel.next;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.previous = sentinel.previous;
+            node.next = sentinel;
+            sentinel.previous.next = node;
+            sentinel.previous = node;
+            node.queue = this;
+            size++;
+        }
+
+        void remove(Node<K, V> node) {
+            node.previous.next = node.next;
+            node.next.previous = node.previous;
+            node.previous = null;
+            node.next = null;
+            node.queue = null;
+            size--;
+        }
+
+        Node<K, V> removeFirst() {
+            Node<K, V> first = first();
+            remove(first);
+            return first;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            remove(node);
+            addLast(node);
+        }
+    }
+}
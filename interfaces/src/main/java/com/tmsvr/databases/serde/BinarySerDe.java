@@ -0,0 +1,57 @@
+package com.tmsvr.databases.serde;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary counterpart of {@link SerDe}, writes values into and reads them from buffers without any intermediate
+ * String. The length of a serialized value is not part of its encoding, the caller stores it next to the
+ * bytes and passes it back to {@link #deserialize(ByteBuffer, int)}.
+ * <p>
+ * Built-in implementations are available in {@link BinarySerDes}.
+ */
+public interface BinarySerDe<T> {
+
+    /**
+     * Writes the value at the current position of the buffer and advances the position.
+     *
+     * @return number of bytes written
+     * @throws BufferOverflowException if the buffer does not have enough space left, in that case the buffer
+     *                                 position is undefined and the caller should retry with a larger buffer
+     */
+    int serialize(T input, ByteBuffer target);
+
+    /**
+     * Reads a value of {@code length} bytes from the current position of the buffer and advances the position.
+     */
+    T deserialize(ByteBuffer source, int length);
+
+    default int serialize(T input, MemorySegment target, long offset) {
+        return serialize(input, target.asSlice(offset).asByteBuffer());
+    }
+
+    default T deserialize(MemorySegment source, long offset, int length) {
+        return deserialize(source.asSlice(offset, length).asByteBuffer(), length);
+    }
+
+    default byte[] toBytes(T input) {
+        int capacity = 64;
+
+        while (true) {
+            ByteBuffer buffer = ByteBuffer.allocate(capacity);
+            try {
+                int length = serialize(input, buffer);
+                byte[] result = new byte[length];
+                System.arraycopy(buffer.array(), 0, result, 0, length);
+                return result;
+            } catch (BufferOverflowException e) {
+                capacity *= 2;
+            }
+        }
+    }
+
+    default T fromBytes(byte[] input) {
+        return deserialize(ByteBuffer.wrap(input), input.length);
+    }
+}
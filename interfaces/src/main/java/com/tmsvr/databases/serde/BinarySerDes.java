@@ -0,0 +1,204 @@
+package com.tmsvr.databases.serde;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Built-in {@link BinarySerDe} implementations. All of them are stateless and can be shared.
+ */
+public final class BinarySerDes {
+    private static final StringSerDe STRINGS = new StringSerDe();
+    private static final LongSerDe LONGS = new LongSerDe();
+    private static final IntSerDe INTS = new IntSerDe();
+    private static final UuidSerDe UUIDS = new UuidSerDe();
+    private static final BytesSerDe BYTES = new BytesSerDe();
+
+    private BinarySerDes() {
+    }
+
+    /**
+     * UTF-8 encoded strings. Unpaired surrogates are replaced with '?', the same way {@link String#getBytes} does.
+     */
+    public static BinarySerDe<String> stringSerDe() {
+        return STRINGS;
+    }
+
+    /**
+     * Longs as 8 big-endian bytes.
+     */
+    public static BinarySerDe<Long> longSerDe() {
+        return LONGS;
+    }
+
+    /**
+     * Integers as 4 big-endian bytes.
+     */
+    public static BinarySerDe<Integer> intSerDe() {
+        return INTS;
+    }
+
+    /**
+     * UUIDs as 16 bytes, the most significant half first.
+     */
+    public static BinarySerDe<UUID> uuidSerDe() {
+        return UUIDS;
+    }
+
+    /**
+     * Byte arrays as they are.
+     */
+    public static BinarySerDe<byte[]> bytesSerDe() {
+        return BYTES;
+    }
+
+    /**
+     * Adapts a String based {@link SerDe} by UTF-8 encoding its output.
+     */
+    public static <T> BinarySerDe<T> fromStringSerDe(SerDe<T> serDe) {
+        return new BinarySerDe<>() {
+            @Override
+            public int serialize(T input, ByteBuffer target) {
+                return writeUtf8(serDe.serialize(input), target);
+            }
+
+            @Override
+            public T deserialize(ByteBuffer source, int length) {
+                return serDe.deserialize(readUtf8(source, length));
+            }
+        };
+    }
+
+    /**
+     * Writes the UTF-8 encoding of a String without allocating an intermediate byte array.
+     *
+     * @return number of bytes written
+     */
+    public static int writeUtf8(String input, ByteBuffer target) {
+        int start = target.position();
+        int length = input.length();
+        int i = 0;
+
+        if (target.hasArray()) {
+            // Fast path for the ASCII prefix, written straight into the backing array
+            byte[] array = target.array();
+            int position = target.arrayOffset() + target.position();
+            int limit = target.arrayOffset() + target.limit();
+
+            while (i < length && position < limit) {
+                char c = input.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                array[position++] = (byte) c;
+                i++;
+            }
+
+            target.position(position - target.arrayOffset());
+        }
+
+        for (; i < length; i++) {
+            char c = input.charAt(i);
+
+            if (c < 0x80) {
+                target.put((byte) c);
+            } else if (c < 0x800) {
+                target.put((byte) (0xC0 | (c >> 6)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(input.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, input.charAt(++i));
+                target.put((byte) (0xF0 | (codePoint >> 18)));
+                target.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                target.put((byte) '?');
+            } else {
+                target.put((byte) (0xE0 | (c >> 12)));
+                target.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+
+        return target.position() - start;
+    }
+
+    public static String readUtf8(ByteBuffer source, int length) {
+        if (source.hasArray()) {
+            String result = new String(source.array(), source.arrayOffset() + source.position(), length, StandardCharsets.UTF_8);
+            source.position(source.position() + length);
+            return result;
+        }
+
+        byte[] bytes = new byte[length];
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class StringSerDe implements BinarySerDe<String> {
+        @Override
+        public int serialize(String input, ByteBuffer target) {
+            return writeUtf8(input, target);
+        }
+
+        @Override
+        public String deserialize(ByteBuffer source, int length) {
+            return readUtf8(source, length);
+        }
+    }
+
+    private static final class LongSerDe implements BinarySerDe<Long> {
+        @Override
+        public int serialize(Long input, ByteBuffer target) {
+            target.putLong(input);
+            return Long.BYTES;
+        }
+
+        @Override
+        public Long deserialize(ByteBuffer source, int length) {
+            return source.getLong();
+        }
+    }
+
+    private static final class IntSerDe implements BinarySerDe<Integer> {
+        @Override
+        public int serialize(Integer input, ByteBuffer target) {
+            target.putInt(input);
+            return Integer.BYTES;
+        }
+
+        @Override
+        public Integer deserialize(ByteBuffer source, int length) {
+            return source.getInt();
+        }
+    }
+
+    private static final class UuidSerDe implements BinarySerDe<UUID> {
+        @Override
+        public int serialize(UUID input, ByteBuffer target) {
+            target.putLong(input.getMostSignificantBits());
+            target.putLong(input.getLeastSignificantBits());
+            return 2 * Long.BYTES;
+        }
+
+        @Override
+        public UUID deserialize(ByteBuffer source, int length) {
+            return new UUID(source.getLong(), source.getLong());
+        }
+    }
+
+    private static final class BytesSerDe implements BinarySerDe<byte[]> {
+        @Override
+        public int serialize(byte[] input, ByteBuffer target) {
+            target.put(input);
+            return input.length;
+        }
+
+        @Override
+        public byte[] deserialize(ByteBuffer source, int length) {
+            byte[] result = new byte[length];
+            source.get(result);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.tmsvr.databases.serde;
+
+/**
+ * A {@link BinarySerDe} whose encoding preserves the natural order of the values: for any two values
+ * {@code a.compareTo(b)} has the same sign as {@link ByteKeys#compare(byte[], byte[])} of their encodings.
+ * Engines can sort, merge and search keys in this encoding as raw bytes, without deserializing them.
+ * <p>
+ * Built-in implementations are available in {@link OrderedBinarySerDes}.
+ */
+public interface OrderedBinarySerDe<T extends Comparable<? super T>> extends BinarySerDe<T> {
+}
@@ -0,0 +1,221 @@
+package com.tmsvr.databases.serde;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Built-in {@link OrderedBinarySerDe} implementations for key types. All of them are stateless and can be shared.
+ * <ul>
+ *     <li>Signed numbers are stored big-endian with the sign bit flipped, so negative values sort first.</li>
+ *     <li>Strings are stored as CESU-8: every UTF-16 char is encoded on its own, surrogates included. Unlike
+ *     UTF-8 this keeps the order of {@link String#compareTo}, which compares chars and not code points.</li>
+ *     <li>{@link Tuple} elements are prefixed with a type tag. Strings inside a tuple are terminated with 0x00,
+ *     and a 0x00 in the string itself is escaped as 0x00 0xFF.</li>
+ * </ul>
+ * These encodings differ from the ones in {@link BinarySerDes}, data written with one can't be read with the other.
+ */
+public final class OrderedBinarySerDes {
+    private static final OrderedLongSerDe LONGS = new OrderedLongSerDe();
+    private static final OrderedIntSerDe INTS = new OrderedIntSerDe();
+    private static final OrderedUuidSerDe UUIDS = new OrderedUuidSerDe();
+    private static final OrderedStringSerDe STRINGS = new OrderedStringSerDe();
+    private static final TupleSerDe TUPLES = new TupleSerDe();
+
+    private static final byte TERMINATOR = 0x00;
+    private static final byte ESCAPE = (byte) 0xFF;
+
+    private OrderedBinarySerDes() {
+    }
+
+    public static OrderedBinarySerDe<Long> longSerDe() {
+        return LONGS;
+    }
+
+    public static OrderedBinarySerDe<Integer> intSerDe() {
+        return INTS;
+    }
+
+    public static OrderedBinarySerDe<UUID> uuidSerDe() {
+        return UUIDS;
+    }
+
+    public static OrderedBinarySerDe<String> stringSerDe() {
+        return STRINGS;
+    }
+
+    public static OrderedBinarySerDe<Tuple> tupleSerDe() {
+        return TUPLES;
+    }
+
+    private static void writeLong(long value, ByteBuffer target) {
+        target.putLong(value ^ Long.MIN_VALUE);
+    }
+
+    private static long readLong(ByteBuffer source) {
+        return source.getLong() ^ Long.MIN_VALUE;
+    }
+
+    private static void writeUuid(UUID value, ByteBuffer target) {
+        writeLong(value.getMostSignificantBits(), target);
+        writeLong(value.getLeastSignificantBits(), target);
+    }
+
+    private static UUID readUuid(ByteBuffer source) {
+        return new UUID(readLong(source), readLong(source));
+    }
+
+    /**
+     * @param escapeZero escape 0x00 bytes as 0x00 0xFF, used when the string is followed by a terminator
+     */
+    private static void writeCesu8(String value, ByteBuffer target, boolean escapeZero) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == 0 && escapeZero) {
+                target.put(TERMINATOR);
+                target.put(ESCAPE);
+            } else if (c < 0x80) {
+                target.put((byte) c);
+            } else if (c < 0x800) {
+                target.put((byte) (0xC0 | (c >> 6)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                target.put((byte) (0xE0 | (c >> 12)));
+                target.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Decodes CESU-8 bytes until {@code end}, or until an unescaped terminator when {@code escapedZero} is set.
+     * The terminator itself is consumed.
+     */
+    private static String readCesu8(ByteBuffer source, int end, boolean escapedZero) {
+        StringBuilder builder = new StringBuilder();
+
+        while (source.position() < end) {
+            int b = source.get() & 0xFF;
+
+            if (b == 0 && escapedZero) {
+                if (source.position() < end && source.get(source.position()) == ESCAPE) {
+                    source.get();
+                    builder.append('\0');
+                    continue;
+                }
+                return builder.toString();
+            }
+
+            if (b < 0x80) {
+                builder.append((char) b);
+            } else if (b < 0xE0) {
+                builder.append((char) (((b & 0x1F) << 6) | (source.get() & 0x3F)));
+            } else {
+                builder.append((char) (((b & 0x0F) << 12) | ((source.get() & 0x3F) << 6) | (source.get() & 0x3F)));
+            }
+        }
+
+        if (escapedZero) {
+            throw new IllegalArgumentException("Unterminated string in tuple");
+        }
+        return builder.toString();
+    }
+
+    private static final class OrderedLongSerDe implements OrderedBinarySerDe<Long> {
+        @Override
+        public int serialize(Long input, ByteBuffer target) {
+            writeLong(input, target);
+            return Long.BYTES;
+        }
+
+        @Override
+        public Long deserialize(ByteBuffer source, int length) {
+            return readLong(source);
+        }
+    }
+
+    private static final class OrderedIntSerDe implements OrderedBinarySerDe<Integer> {
+        @Override
+        public int serialize(Integer input, ByteBuffer target) {
+            target.putInt(input ^ Integer.MIN_VALUE);
+            return Integer.BYTES;
+        }
+
+        @Override
+        public Integer deserialize(ByteBuffer source, int length) {
+            return source.getInt() ^ Integer.MIN_VALUE;
+        }
+    }
+
+    private static final class OrderedUuidSerDe implements OrderedBinarySerDe<UUID> {
+        @Override
+        public int serialize(UUID input, ByteBuffer target) {
+            writeUuid(input, target);
+            return 2 * Long.BYTES;
+        }
+
+        @Override
+        public UUID deserialize(ByteBuffer source, int length) {
+            return readUuid(source);
+        }
+    }
+
+    private static final class OrderedStringSerDe implements OrderedBinarySerDe<String> {
+        @Override
+        public int serialize(String input, ByteBuffer target) {
+            int start = target.position();
+            writeCesu8(input, target, false);
+            return target.position() - start;
+        }
+
+        @Override
+        public String deserialize(ByteBuffer source, int length) {
+            return readCesu8(source, source.position() + length, false);
+        }
+    }
+
+    private static final class TupleSerDe implements OrderedBinarySerDe<Tuple> {
+        @Override
+        public int serialize(Tuple input, ByteBuffer target) {
+            int start = target.position();
+
+            for (Object element : input.elements()) {
+                byte type = Tuple.typeOf(element);
+                target.put(type);
+
+                switch (element) {
+                    case Long value -> writeLong(value, target);
+                    case String value -> {
+                        writeCesu8(value, target, true);
+                        target.put(TERMINATOR);
+                    }
+                    case UUID value -> writeUuid(value, target);
+                    default -> throw new IllegalStateException();
+                }
+            }
+
+            return target.position() - start;
+        }
+
+        @Override
+        public Tuple deserialize(ByteBuffer source, int length) {
+            int end = source.position() + length;
+            List<Object> elements = new ArrayList<>();
+
+            while (source.position() < end) {
+                byte type = source.get();
+
+                elements.add(switch (type) {
+                    case Tuple.LONG -> readLong(source);
+                    case Tuple.STRING -> readCesu8(source, end, true);
+                    case Tuple.UUID_TYPE -> readUuid(source);
+                    default -> throw new IllegalArgumentException("Unknown tuple element type: " + type);
+                });
+            }
+
+            return new Tuple(elements);
+        }
+    }
+}
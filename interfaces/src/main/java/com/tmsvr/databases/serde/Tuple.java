@@ -0,0 +1,82 @@
+package com.tmsvr.databases.serde;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Composite key made of {@link Long}, {@link String} and {@link UUID} elements. Tuples are compared element by
+ * element, elements of different types by their type in this order, and a tuple sorts before every longer
+ * tuple it is a prefix of. {@link OrderedBinarySerDes#tupleSerDe()} encodes tuples so that their bytes sort
+ * the same way.
+ */
+public record Tuple(List<Object> elements) implements Comparable<Tuple> {
+    static final byte LONG = 0x01;
+    static final byte STRING = 0x02;
+    static final byte UUID_TYPE = 0x03;
+
+    public Tuple {
+        elements = List.copyOf(elements);
+        elements.forEach(Tuple::typeOf);
+    }
+
+    public static Tuple of(Object... elements) {
+        return new Tuple(List.of(elements));
+    }
+
+    public int size() {
+        return elements.size();
+    }
+
+    public Object get(int index) {
+        return elements.get(index);
+    }
+
+    public long getLong(int index) {
+        return (Long) elements.get(index);
+    }
+
+    public String getString(int index) {
+        return (String) elements.get(index);
+    }
+
+    public UUID getUuid(int index) {
+        return (UUID) elements.get(index);
+    }
+
+    @Override
+    public int compareTo(Tuple other) {
+        int common = Math.min(size(), other.size());
+
+        for (int i = 0; i < common; i++) {
+            int result = compareElements(elements.get(i), other.elements.get(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+
+        return Integer.compare(size(), other.size());
+    }
+
+    static byte typeOf(Object element) {
+        return switch (element) {
+            case Long _ -> LONG;
+            case String _ -> STRING;
+            case UUID _ -> UUID_TYPE;
+            default -> throw new IllegalArgumentException("Unsupported tuple element: " + element.getClass().getName());
+        };
+    }
+
+    private static int compareElements(Object a, Object b) {
+        int result = Byte.compare(typeOf(a), typeOf(b));
+        if (result != 0) {
+            return result;
+        }
+
+        return switch (a) {
+            case Long value -> value.compareTo((Long) b);
+            case String value -> value.compareTo((String) b);
+            case UUID value -> value.compareTo((UUID) b);
+            default -> throw new IllegalStateException();
+        };
+    }
+}
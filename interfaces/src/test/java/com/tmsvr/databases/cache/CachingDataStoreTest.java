@@ -0,0 +1,179 @@
+package com.tmsvr.databases.cache;
+
+import com.tmsvr.databases.CloseableIterator;
+import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.DataStore;
+import com.tmsvr.databases.ScanDirection;
+import com.tmsvr.databases.WriteBatch;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingDataStoreTest {
+
+    private final CountingStore store = new CountingStore();
+    private final CachingDataStore<String, String> cached = new CachingDataStore<>(store, 100);
+
+    @Test
+    void testRepeatedGetIsServedFromCache() throws IOException {
+        store.put("key", "value");
+
+        assertEquals(Optional.of("value"), cached.get("key"));
+        assertEquals(Optional.of("value"), cached.get("key"));
+
+        assertEquals(1, store.gets.get());
+        assertEquals(1, cached.getHits());
+        assertEquals(1, cached.getMisses());
+    }
+
+    @Test
+    void testMissingKeyIsCached() throws IOException {
+        assertEquals(Optional.empty(), cached.get("missing"));
+        assertEquals(Optional.empty(), cached.get("missing"));
+
+        assertEquals(1, store.gets.get());
+    }
+
+    @Test
+    void testWritesInvalidateCachedValues() throws IOException {
+        cached.put("key", "value1");
+        assertEquals(Optional.of("value1"), cached.get("key"));
+
+        cached.put("key", "value2");
+        assertEquals(Optional.of("value2"), cached.get("key"));
+
+        cached.delete("key");
+        assertEquals(Optional.empty(), cached.get("key"));
+
+        cached.write(new WriteBatch<String, String>().put("key", "value3"));
+        assertEquals(Optional.of("value3"), cached.get("key"));
+    }
+
+    @Test
+    void testGetAllLooksUpOnlyKeysNotCached() throws IOException {
+        store.put("key1", "value1");
+        store.put("key2", "value2");
+        cached.get("key1");
+        cached.get("missing");
+
+        Map<String, String> values = cached.getAll(List.of("key1", "key2", "missing"));
+
+        assertEquals(Map.of("key1", "value1", "key2", "value2"), values);
+        assertEquals(List.of(List.of("key2")), store.multiGets);
+        assertEquals(Map.of("key2", "value2"), cached.getAll(List.of("key2")));
+        assertEquals(1, store.multiGets.size());
+    }
+
+    @Test
+    void testCacheStaysWithinMaximumSize() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            cached.get("key" + i);
+        }
+
+        assertTrue(cached.getSize() <= 100);
+    }
+
+    @Test
+    void testConcurrentReadsAndWritesEndWithLatestValue() throws Exception {
+        ConcurrentSkipListMap<String, String> data = new ConcurrentSkipListMap<>();
+        CachingDataStore<String, String> concurrent = new CachingDataStore<>(new CountingStore(data), 10);
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            List<Future<?>> futures = List.of(
+                    executor.submit(() -> {
+                        for (int i = 0; i < 10_000; i++) {
+                            concurrent.put("key" + (i % 5), "value" + i);
+                        }
+                        return null;
+                    }),
+                    executor.submit(() -> {
+                        for (int i = 0; i < 10_000; i++) {
+                            concurrent.get("key" + (i % 5));
+                        }
+                        return null;
+                    }),
+                    executor.submit(() -> {
+                        for (int i = 0; i < 10_000; i++) {
+                            concurrent.getAll(List.of("key0", "key1", "key2", "key3", "key4"));
+                        }
+                        return null;
+                    }));
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        for (int key = 0; key < 5; key++) {
+            assertEquals(Optional.ofNullable(data.get("key" + key)), concurrent.get("key" + key));
+        }
+    }
+
+    /**
+     * Store over a map that counts the lookups reaching it.
+     */
+    private static class CountingStore implements DataStore<String, String> {
+        private final NavigableMap<String, String> data;
+        private final AtomicInteger gets = new AtomicInteger();
+        private final List<List<String>> multiGets = new CopyOnWriteArrayList<>();
+
+        CountingStore() {
+            this(new TreeMap<>());
+        }
+
+        CountingStore(NavigableMap<String, String> data) {
+            this.data = data;
+        }
+
+        @Override
+        public void put(String key, String value) {
+            data.put(key, value);
+        }
+
+        @Override
+        public Optional<String> get(String key) {
+            gets.incrementAndGet();
+            return Optional.ofNullable(data.get(key));
+        }
+
+        @Override
+        public Map<String, String> getAll(Collection<String> keys) throws IOException {
+            multiGets.add(List.copyOf(keys));
+            return DataStore.super.getAll(keys);
+        }
+
+        @Override
+        public void delete(String key) {
+            data.remove(key);
+        }
+
+        @Override
+        public void write(WriteBatch<String, String> batch) {
+            for (DataRecord<String, String> record : batch.records()) {
+                if (record.value() == null) {
+                    data.remove(record.key());
+                } else {
+                    data.put(record.key(), record.value());
+                }
+            }
+        }
+
+        @Override
+        public CloseableIterator<DataRecord<String, String>> scan(String fromKey, String toKey, ScanDirection direction) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
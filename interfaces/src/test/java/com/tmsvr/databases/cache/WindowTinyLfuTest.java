@@ -0,0 +1,95 @@
+package com.tmsvr.databases.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WindowTinyLfuTest {
+
+    @Test
+    void testPutAndGet() {
+        WindowTinyLfu<String, String> cache = new WindowTinyLfu<>(10);
+
+        assertNull(cache.get("key"));
+        cache.put("key", "value1");
+        assertEquals("value1", cache.get("key"));
+
+        cache.put("key", "value2");
+        assertEquals("value2", cache.get("key"));
+
+        cache.remove("key");
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testSizeIsBounded() {
+        WindowTinyLfu<Integer, Integer> cache = new WindowTinyLfu<>(100);
+
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(i, i);
+            assertTrue(cache.size() <= 100);
+        }
+    }
+
+    @Test
+    void testZeroSizeHoldsNothing() {
+        WindowTinyLfu<String, String> cache = new WindowTinyLfu<>(0);
+
+        cache.put("key", "value");
+
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    void testFrequentKeysSurviveAScan() {
+        WindowTinyLfu<Integer, Integer> cache = new WindowTinyLfu<>(100);
+        for (int round = 0; round < 5; round++) {
+            for (int hot = 0; hot < 50; hot++) {
+                if (cache.get(hot) == null) {
+                    cache.put(hot, hot);
+                }
+            }
+        }
+
+        // Keys read once, far more of them than the cache holds, while the hot keys are still read now and then
+        for (int scanned = 1_000; scanned < 11_000; scanned++) {
+            if (scanned % 500 == 0) {
+                for (int hot = 0; hot < 50; hot++) {
+                    cache.get(hot);
+                }
+            }
+            if (cache.get(scanned) == null) {
+                cache.put(scanned, scanned);
+            }
+        }
+
+        int survived = 0;
+        for (int hot = 0; hot < 50; hot++) {
+            if (cache.get(hot) != null) {
+                survived++;
+            }
+        }
+        assertEquals(50, survived);
+    }
+
+    @Test
+    void testSketchCountsAndAges() {
+        FrequencySketch<String> sketch = new FrequencySketch<>(16);
+
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("hot");
+        }
+        sketch.increment("warm");
+
+        assertEquals(15, sketch.frequency("hot"));
+        assertTrue(sketch.frequency("warm") >= 1);
+        assertEquals(0, sketch.frequency("cold"), "Collision with so few keys");
+
+        // Enough other keys to reach the sample size halves every counter
+        for (int i = 0; i < 160; i++) {
+            sketch.increment("other" + i);
+        }
+        assertTrue(sketch.frequency("hot") < 15);
+    }
+}
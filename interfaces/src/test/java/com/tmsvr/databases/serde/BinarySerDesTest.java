@@ -0,0 +1,111 @@
+package com.tmsvr.databases.serde;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinarySerDesTest {
+
+    @Test
+    void testStringRoundTrip() {
+        BinarySerDe<String> serDe = BinarySerDes.stringSerDe();
+
+        for (String value : new String[]{"", "key1", "\u00E1rv\u00EDzt\u0171r\u0151 t\u00FCk\u00F6rf\u00FAr\u00F3g\u00E9p", "\u65E5\u672C\u8A9E", "emoji \uD83D\uDE00", "with::separator"}) {
+            byte[] bytes = serDe.toBytes(value);
+
+            assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), bytes);
+            assertEquals(value, serDe.fromBytes(bytes));
+        }
+    }
+
+    @Test
+    void testUnpairedSurrogateIsReplaced() {
+        String value = "a\uD83Db";
+
+        assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), BinarySerDes.stringSerDe().toBytes(value));
+    }
+
+    @Test
+    void testStringIntoDirectBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+
+        int length = BinarySerDes.stringSerDe().serialize("h\u00E9llo", buffer);
+        buffer.flip();
+
+        assertEquals(6, length);
+        assertEquals("h\u00E9llo", BinarySerDes.stringSerDe().deserialize(buffer, length));
+    }
+
+    @Test
+    void testOverflowIsReported() {
+        assertThrows(BufferOverflowException.class, () -> BinarySerDes.stringSerDe().serialize("too long", ByteBuffer.allocate(4)));
+        assertThrows(BufferOverflowException.class, () -> BinarySerDes.longSerDe().serialize(1L, ByteBuffer.allocate(4)));
+    }
+
+    @Test
+    void testLargeValue() {
+        String value = "x".repeat(10_000);
+
+        assertEquals(value, BinarySerDes.stringSerDe().fromBytes(BinarySerDes.stringSerDe().toBytes(value)));
+    }
+
+    @Test
+    void testNumbersAndUuidRoundTrip() {
+        UUID uuid = UUID.randomUUID();
+
+        assertEquals(Long.MIN_VALUE, BinarySerDes.longSerDe().fromBytes(BinarySerDes.longSerDe().toBytes(Long.MIN_VALUE)));
+        assertEquals(-42, BinarySerDes.intSerDe().fromBytes(BinarySerDes.intSerDe().toBytes(-42)));
+        assertEquals(uuid, BinarySerDes.uuidSerDe().fromBytes(BinarySerDes.uuidSerDe().toBytes(uuid)));
+
+        assertEquals(8, BinarySerDes.longSerDe().toBytes(1L).length);
+        assertEquals(4, BinarySerDes.intSerDe().toBytes(1).length);
+        assertEquals(16, BinarySerDes.uuidSerDe().toBytes(uuid).length);
+    }
+
+    @Test
+    void testBytesRoundTrip() {
+        byte[] value = {0, 1, -1, 127, -128};
+
+        assertArrayEquals(value, BinarySerDes.bytesSerDe().fromBytes(BinarySerDes.bytesSerDe().toBytes(value)));
+    }
+
+    @Test
+    void testMemorySegment() {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment segment = arena.allocate(64);
+
+            int length = BinarySerDes.stringSerDe().serialize("segment", segment, 10);
+            BinarySerDes.longSerDe().serialize(99L, segment, 10 + length);
+
+            assertEquals("segment", BinarySerDes.stringSerDe().deserialize(segment, 10, length));
+            assertEquals(99L, BinarySerDes.longSerDe().deserialize(segment, 10 + length, Long.BYTES));
+        }
+    }
+
+    @Test
+    void testFromStringSerDe() {
+        BinarySerDe<Integer> serDe = BinarySerDes.fromStringSerDe(new SerDe<>() {
+            @Override
+            public Integer deserialize(String input) {
+                return Integer.parseInt(input);
+            }
+
+            @Override
+            public String serialize(Integer input) {
+                return input.toString();
+            }
+        });
+
+        assertArrayEquals("1234".getBytes(StandardCharsets.UTF_8), serDe.toBytes(1234));
+        assertEquals(1234, serDe.fromBytes(serDe.toBytes(1234)));
+    }
+}
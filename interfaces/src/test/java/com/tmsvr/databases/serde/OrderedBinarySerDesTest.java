@@ -0,0 +1,113 @@
+package com.tmsvr.databases.serde;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OrderedBinarySerDesTest {
+    private final Random random = new Random(42);
+
+    @Test
+    void testLongOrder() {
+        List<Long> values = new ArrayList<>(List.of(Long.MIN_VALUE, -1L, 0L, 1L, 255L, 256L, Long.MAX_VALUE));
+        for (int i = 0; i < 1000; i++) {
+            values.add(random.nextLong());
+        }
+
+        assertOrderPreserved(OrderedBinarySerDes.longSerDe(), values);
+    }
+
+    @Test
+    void testIntOrder() {
+        List<Integer> values = new ArrayList<>(List.of(Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE));
+        for (int i = 0; i < 1000; i++) {
+            values.add(random.nextInt());
+        }
+
+        assertOrderPreserved(OrderedBinarySerDes.intSerDe(), values);
+    }
+
+    @Test
+    void testUuidOrder() {
+        List<UUID> values = new ArrayList<>(List.of(new UUID(-1, 1), new UUID(1, -1), new UUID(0, 0)));
+        for (int i = 0; i < 1000; i++) {
+            values.add(UUID.randomUUID());
+        }
+
+        assertOrderPreserved(OrderedBinarySerDes.uuidSerDe(), values);
+    }
+
+    @Test
+    void testStringOrder() {
+        // A supplementary character sorts before U+FFFF in String order but after it in code point order
+        List<String> values = new ArrayList<>(List.of("", "a", "a\0", "ab", "b", "\u00E9", "\uFFFF", "\uD83D\uDE00", "\uD83D", "key10", "key9"));
+        for (int i = 0; i < 1000; i++) {
+            values.add(randomString());
+        }
+
+        assertOrderPreserved(OrderedBinarySerDes.stringSerDe(), values);
+    }
+
+    @Test
+    void testTupleOrder() {
+        UUID uuid = UUID.randomUUID();
+        List<Tuple> values = new ArrayList<>(List.of(
+                Tuple.of(), Tuple.of(-5L), Tuple.of(-5L, "x"), Tuple.of(3L), Tuple.of("a"), Tuple.of("a", 1L),
+                Tuple.of("a\0", 1L), Tuple.of("a\0\0"), Tuple.of("ab"), Tuple.of(uuid), Tuple.of("user", uuid, 7L)));
+        for (int i = 0; i < 1000; i++) {
+            values.add(Tuple.of(randomString(), (long) random.nextInt(5) - 2, randomString()));
+        }
+
+        assertOrderPreserved(OrderedBinarySerDes.tupleSerDe(), values);
+    }
+
+    @Test
+    void testUnsupportedTupleElement() {
+        assertThrows(IllegalArgumentException.class, () -> Tuple.of("a", 1.5));
+    }
+
+    @Test
+    void testSegmentComparison() {
+        byte[] a = {1, 2, 3};
+        byte[] b = {1, 2, (byte) 0x80};
+        byte[] prefix = {1, 2};
+
+        assertEquals(-1, Integer.signum(ByteKeys.compare(MemorySegment.ofArray(a), MemorySegment.ofArray(b))));
+        assertEquals(1, Integer.signum(ByteKeys.compare(MemorySegment.ofArray(a), MemorySegment.ofArray(prefix))));
+        assertEquals(-1, Integer.signum(ByteKeys.compare(MemorySegment.ofArray(prefix), MemorySegment.ofArray(a))));
+        assertEquals(0, ByteKeys.compare(MemorySegment.ofArray(a), MemorySegment.ofArray(a.clone())));
+    }
+
+    private <T extends Comparable<? super T>> void assertOrderPreserved(OrderedBinarySerDe<T> serDe, List<T> values) {
+        List<byte[]> encoded = values.stream().map(serDe::toBytes).toList();
+
+        for (int i = 0; i < values.size(); i++) {
+            assertEquals(values.get(i), serDe.fromBytes(encoded.get(i)));
+
+            for (int j = 0; j < values.size(); j++) {
+                T a = values.get(i);
+                T b = values.get(j);
+                int expected = Integer.signum(a.compareTo(b));
+
+                assertEquals(expected, Integer.signum(ByteKeys.compare(encoded.get(i), encoded.get(j))),
+                        () -> "Order differs for " + a + " and " + b);
+            }
+        }
+    }
+
+    private String randomString() {
+        char[] alphabet = {'\0', 'a', 'b', '\u00E9', '\u20AC', '\uFFFF', '\uD83D', '\uDE00'};
+        char[] chars = new char[random.nextInt(4)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = alphabet[random.nextInt(alphabet.length)];
+        }
+        return new String(chars);
+    }
+}
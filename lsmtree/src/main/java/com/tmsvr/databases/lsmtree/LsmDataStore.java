@@ -1,64 +1,221 @@
 package com.tmsvr.databases.lsmtree;
 
+import com.tmsvr.databases.CloseableIterator;
 import com.tmsvr.databases.DataRecord;
 import com.tmsvr.databases.DataStore;
+import com.tmsvr.databases.ScanDirection;
+import com.tmsvr.databases.WriteBatch;
 import com.tmsvr.databases.lsmtree.commitlog.CommitLog;
+import com.tmsvr.databases.lsmtree.commitlog.CommitLogOptions;
 import com.tmsvr.databases.lsmtree.commitlog.DefaultCommitLog;
 import com.tmsvr.databases.lsmtree.memtable.Memtable;
-import com.tmsvr.databases.lsmtree.sstable.LsmSerDe;
+import com.tmsvr.databases.lsmtree.sstable.MergingIterator;
 import com.tmsvr.databases.lsmtree.sstable.SSTableManager;
+import com.tmsvr.databases.lsmtree.sstable.SSTableOptions;
+import com.tmsvr.databases.serde.BinarySerDe;
+import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Log-structured merge tree store, safe to use from many threads.
+ * <p>
+ * Writes go to the active memtable and its own commit log segment. Once the active memtable is full it is
+ * rotated: it becomes immutable, a fresh memtable and segment take its place, and a background thread writes
+ * it to an SSTable. Immutable memtables stay visible to reads until their SSTable is published, then their
+ * segment is recycled for a later memtable. The segment of a rotated memtable is forced to disk first, so only
+ * the active segment can have records that are not durable yet, see {@link CommitLogOptions#durability()}.
+ * If the flushes fall {@link #MAX_IMMUTABLE_MEMTABLES} memtables behind, rotation waits for them, which is the
+ * only time a write waits for the disk.
+ * <p>
+ * Reads don't lock: they look at the active memtable, the immutable ones from the newest and then the current
+ * list of SSTables. Writes take the shared side of {@link #rotationLock}, so they run concurrently with each
+ * other, and are ordered by the sequence numbers of the commit log. Rotation takes the exclusive side for the
+ * time of the switch.
+ */
+@Slf4j
 public class LsmDataStore<K extends Comparable<K>, V> implements DataStore<K, V> {
     public static int FLUSH_TO_DISK_LIMIT = 5;
+    static final int MAX_IMMUTABLE_MEMTABLES = 2;
 
-    private final CommitLog<K,V> commitLog;
-    private final Memtable<K, V> memtable;
+    private final BinarySerDe<K> keySerDe;
+    private final BinarySerDe<V> valueSerDe;
     private final SSTableManager<K, V> ssTableManager;
+    private final CommitLogOptions commitLogOptions;
+    private final AtomicReference<Memtables<K, V>> memtables;
+    private final ReadWriteLock rotationLock = new ReentrantReadWriteLock();
+    private final Semaphore immutableSlots;
+    private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("lsm-flush").daemon().factory());
+    private long nextSegmentId;
+    private volatile Exception flushError;
 
-    public LsmDataStore(LsmSerDe<K> keySerDe, LsmSerDe<V> valueSerDe, int memtableSize) throws IOException {
+    public LsmDataStore(BinarySerDe<K> keySerDe, BinarySerDe<V> valueSerDe, int memtableSize) throws IOException {
+        this(keySerDe, valueSerDe, memtableSize, SSTableOptions.defaults());
+    }
+
+    public LsmDataStore(BinarySerDe<K> keySerDe, BinarySerDe<V> valueSerDe, int memtableSize, SSTableOptions ssTableOptions) throws IOException {
+        this(keySerDe, valueSerDe, memtableSize, ssTableOptions, CommitLogOptions.defaults());
+    }
+
+    public LsmDataStore(BinarySerDe<K> keySerDe, BinarySerDe<V> valueSerDe, int memtableSize, SSTableOptions ssTableOptions,
+                        CommitLogOptions commitLogOptions) throws IOException {
         FLUSH_TO_DISK_LIMIT = memtableSize;
-        this.commitLog = new DefaultCommitLog<>(keySerDe, valueSerDe);
+        this.keySerDe = keySerDe;
+        this.valueSerDe = valueSerDe;
+        this.commitLogOptions = commitLogOptions;
+
+        // Every segment left by the last run is replayed into an immutable memtable, flushed like a rotated one
+        List<MemtableWithLog<K, V>> recovered = new ArrayList<>();
+        long nextSequence = 0;
+        for (Path segment : DefaultCommitLog.findSegments()) {
+            CommitLog<K, V> commitLog = new DefaultCommitLog<>(segment, keySerDe, valueSerDe, commitLogOptions, nextSequence);
+            nextSegmentId = Math.max(nextSegmentId, DefaultCommitLog.segmentId(segment) + 1);
 
-        if (this.commitLog.getSize() > 0) {
-            this.memtable = new Memtable<>(this.commitLog.readCommitLog());
-        } else {
-            this.memtable = new Memtable<>();
+            Memtable<K, V> memtable = new Memtable<>();
+            if (commitLog.replay(memtable::put) > 0) {
+                recovered.addFirst(new MemtableWithLog<>(memtable, commitLog));
+            } else {
+                commitLog.recycle();
+            }
+            nextSequence = commitLog.getNextSequence();
         }
 
-        ssTableManager = new SSTableManager<>(keySerDe, valueSerDe);
+        this.memtables = new AtomicReference<>(new Memtables<>(newMemtable(nextSequence), List.copyOf(recovered)));
+        this.immutableSlots = new Semaphore(MAX_IMMUTABLE_MEMTABLES - recovered.size());
+
+        ssTableManager = new SSTableManager<>(keySerDe, valueSerDe, ssTableOptions);
         ssTableManager.readTablesFromFile();
+
+        for (MemtableWithLog<K, V> immutable : recovered.reversed()) {
+            flushExecutor.execute(() -> flushImmutable(immutable));
+        }
     }
 
     LsmDataStore(CommitLog<K,V> commitLog, Memtable<K, V> memtable, SSTableManager<K, V> ssTableManager) {
-        this.commitLog = commitLog;
-        this.memtable = memtable;
+        this.keySerDe = null;
+        this.valueSerDe = null;
+        this.commitLogOptions = null;
+        this.memtables = new AtomicReference<>(new Memtables<>(new MemtableWithLog<>(memtable, commitLog), List.of()));
+        this.immutableSlots = new Semaphore(MAX_IMMUTABLE_MEMTABLES);
         this.ssTableManager = ssTableManager;
     }
 
     @Override
     public void put(K key, V value) throws IOException {
+        throwIfFlushFailed();
         DataRecord<K, V> dataRecord = new DataRecord<>(key, value);
-        commitLog.append(dataRecord);
-        memtable.put(dataRecord);
+        Memtable<K, V> memtable;
+
+        rotationLock.readLock().lock();
+        try {
+            MemtableWithLog<K, V> active = memtables.get().active();
+            long sequence = active.commitLog().append(dataRecord);
+            active.memtable().put(dataRecord, sequence);
+            memtable = active.memtable();
+        } finally {
+            rotationLock.readLock().unlock();
+        }
 
         if (memtable.getSize() > FLUSH_TO_DISK_LIMIT) {
-            flush();
+            rotateIfFull(memtable);
         }
     }
 
+    /**
+     * Writes the batch to the commit log as a single record, so it is forced to disk at most once and recovered
+     * as a whole or not at all, then applies it to the active memtable. The whole batch lands in the same
+     * memtable, as rotation waits for it. Readers don't lock, they may see part of a batch while it is applied.
+     */
     @Override
-    public Optional<V> get(K key) {
-        return Optional.ofNullable(memtable.get(key))
-                .or(() -> {
-                    try {
-                        return ssTableManager.findValue(key);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                });
+    public void write(WriteBatch<K, V> batch) throws IOException {
+        throwIfFlushFailed();
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<DataRecord<K, V>> records = batch.records();
+        Memtable<K, V> memtable;
+
+        rotationLock.readLock().lock();
+        try {
+            MemtableWithLog<K, V> active = memtables.get().active();
+            long sequence = active.commitLog().append(records);
+            for (DataRecord<K, V> dataRecord : records) {
+                active.memtable().put(dataRecord, sequence++);
+            }
+            memtable = active.memtable();
+        } finally {
+            rotationLock.readLock().unlock();
+        }
+
+        if (memtable.getSize() > FLUSH_TO_DISK_LIMIT) {
+            rotateIfFull(memtable);
+        }
+    }
+
+    @Override
+    public Optional<V> get(K key) throws IOException {
+        Memtables<K, V> current = memtables.get();
+
+        DataRecord<K, V> inMemory = current.active().memtable().getRecord(key);
+        for (int i = 0; inMemory == null && i < current.immutables().size(); i++) {
+            inMemory = current.immutables().get(i).memtable().getRecord(key);
+        }
+
+        if (inMemory != null) {
+            // A deleted key in a memtable hides the older values in the SSTables
+            return Optional.ofNullable(inMemory.value());
+        }
+
+        return ssTableManager.findValue(key);
+    }
+
+    /**
+     * Resolves what it can from the memtables like {@link #get}, and looks up the other keys in the SSTables
+     * together, see {@link SSTableManager#findValues}.
+     */
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws IOException {
+        Memtables<K, V> current = memtables.get();
+        Map<K, V> values = new HashMap<>();
+        List<K> remaining = new ArrayList<>();
+
+        for (K key : keys) {
+            DataRecord<K, V> inMemory = current.active().memtable().getRecord(key);
+            for (int i = 0; inMemory == null && i < current.immutables().size(); i++) {
+                inMemory = current.immutables().get(i).memtable().getRecord(key);
+            }
+
+            if (inMemory == null) {
+                remaining.add(key);
+            } else if (inMemory.value() != null) {
+                values.put(key, inMemory.value());
+            }
+        }
+
+        if (!remaining.isEmpty()) {
+            values.putAll(ssTableManager.findValues(remaining));
+        }
+        return values;
     }
 
     @Override
@@ -66,9 +223,215 @@ public class LsmDataStore<K extends Comparable<K>, V> implements DataStore<K, V>
         put(key, null);
     }
 
+    /**
+     * Merges the memtables and the SSTables the way {@link #get} looks at them, the newest record of a key wins
+     * and deleted keys are skipped.
+     */
+    @Override
+    public CloseableIterator<DataRecord<K, V>> scan(K fromKey, K toKey, ScanDirection direction) throws IOException {
+        if (fromKey != null && toKey != null && fromKey.compareTo(toKey) >= 0) {
+            return CloseableIterator.empty();
+        }
+
+        // The memtables are taken first: a flushed memtable leaves the list only after its SSTable is published
+        Memtables<K, V> current = memtables.get();
+        CloseableIterator<DataRecord<K, V>> onDisk = ssTableManager.scan(fromKey, toKey, direction);
+
+        try {
+            List<Iterator<DataRecord<K, V>>> inputs = new ArrayList<>(current.immutables().size() + 2);
+            inputs.add(onDisk);
+            for (MemtableWithLog<K, V> immutable : current.immutables().reversed()) {
+                inputs.add(immutable.memtable().iterator(fromKey, toKey, direction));
+            }
+            inputs.add(current.active().memtable().iterator(fromKey, toKey, direction));
+
+            Comparator<DataRecord<K, V>> order = direction == ScanDirection.FORWARD ? Comparator.naturalOrder()
+                    : Comparator.reverseOrder();
+            return CloseableIterator.of(withoutDeleted(new MergingIterator<>(inputs, order)), onDisk::close);
+        } catch (RuntimeException e) {
+            onDisk.close();
+            throw e;
+        }
+    }
+
+    private static <K extends Comparable<K>, V> Iterator<DataRecord<K, V>> withoutDeleted(Iterator<DataRecord<K, V>> records) {
+        return new Iterator<>() {
+            private DataRecord<K, V> pending;
+
+            @Override
+            public boolean hasNext() {
+                while (pending == null && records.hasNext()) {
+                    DataRecord<K, V> record = records.next();
+                    if (record.value() != null) {
+                        pending = record;
+                    }
+                }
+                return pending != null;
+            }
+
+            @Override
+            public DataRecord<K, V> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                DataRecord<K, V> next = pending;
+                pending = null;
+                return next;
+            }
+        };
+    }
+
+    /**
+     * Rotates the active memtable and waits until every immutable memtable is written to an SSTable.
+     */
     public void flush() throws IOException {
-        ssTableManager.flush(memtable.getAsMap());
-        memtable.clear();
-        commitLog.clear();
+        rotationLock.writeLock().lock();
+        try {
+            if (memtables.get().active().memtable().getSize() > 0) {
+                rotate();
+            }
+        } finally {
+            rotationLock.writeLock().unlock();
+        }
+
+        try {
+            // The executor has a single thread, this runs after every flush submitted before
+            flushExecutor.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the flush");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+
+        throwIfFlushFailed();
+    }
+
+    /**
+     * Several writers can find the memtable full at the same time, only the first one rotates it.
+     */
+    private void rotateIfFull(Memtable<K, V> full) throws IOException {
+        rotationLock.writeLock().lock();
+        try {
+            if (memtables.get().active().memtable() == full) {
+                rotate();
+            }
+        } finally {
+            rotationLock.writeLock().unlock();
+        }
+    }
+
+    private void rotate() throws IOException {
+        try {
+            immutableSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a memtable flush");
+        }
+
+        MemtableWithLog<K, V> frozen = memtables.get().active();
+        MemtableWithLog<K, V> fresh;
+        try {
+            frozen.commitLog().sync();
+            // No append runs during rotation, the new segment numbers on from the last record of the old one
+            fresh = newMemtable(frozen.commitLog().getNextSequence());
+        } catch (IOException e) {
+            immutableSlots.release();
+            throw e;
+        }
+
+        memtables.updateAndGet(current -> current.rotate(fresh));
+        flushExecutor.execute(() -> flushImmutable(frozen));
+    }
+
+    /**
+     * @return every write with a lower sequence number is forced to disk
+     */
+    public long getDurableSequence() {
+        return memtables.get().active().commitLog().getDurableSequence();
+    }
+
+    /**
+     * Forces every write so far to disk, for the durability modes that don't do it on every write.
+     *
+     * @return the durable sequence number after the force
+     */
+    public long sync() throws IOException {
+        rotationLock.readLock().lock();
+        try {
+            return memtables.get().active().commitLog().sync();
+        } finally {
+            rotationLock.readLock().unlock();
+        }
+    }
+
+    private void flushImmutable(MemtableWithLog<K, V> immutable) {
+        try {
+            // The SSTable is published before the memtable disappears, a read always finds the keys in one of them
+            ssTableManager.flush(immutable.memtable().getAsMap());
+            memtables.updateAndGet(current -> current.withoutImmutable(immutable));
+            immutable.commitLog().recycle();
+        } catch (Exception e) {
+            log.error("Flushing memtable failed, the store does not accept writes anymore", e);
+            flushError = e;
+        } finally {
+            immutableSlots.release();
+        }
+    }
+
+    private MemtableWithLog<K, V> newMemtable(long firstSequence) throws IOException {
+        Path segment = DefaultCommitLog.segmentPath(nextSegmentId++);
+        return new MemtableWithLog<>(new Memtable<>(), new DefaultCommitLog<>(segment, keySerDe, valueSerDe,
+                commitLogOptions, firstSequence));
+    }
+
+    private void throwIfFlushFailed() throws IOException {
+        Exception error = flushError;
+        if (error != null) {
+            throw new IOException("A background flush failed", error);
+        }
+    }
+
+    /**
+     * Waits for the running flushes, then closes the commit logs and the open SSTables. The active memtable is
+     * not flushed, it is recovered from its commit log on the next start.
+     */
+    @Override
+    public void close() throws IOException {
+        rotationLock.writeLock().lock();
+        try {
+            flushExecutor.close();
+
+            Memtables<K, V> current = memtables.get();
+            current.active().commitLog().close();
+            for (MemtableWithLog<K, V> immutable : current.immutables()) {
+                immutable.commitLog().close();
+            }
+
+            ssTableManager.close();
+        } finally {
+            rotationLock.writeLock().unlock();
+        }
+    }
+
+    private record MemtableWithLog<K extends Comparable<K>, V>(Memtable<K, V> memtable, CommitLog<K, V> commitLog) {
+    }
+
+    /**
+     * @param immutables rotated memtables waiting for their flush, from the newest to the oldest
+     */
+    private record Memtables<K extends Comparable<K>, V>(MemtableWithLog<K, V> active,
+                                                         List<MemtableWithLog<K, V>> immutables) {
+
+        Memtables<K, V> rotate(MemtableWithLog<K, V> fresh) {
+            List<MemtableWithLog<K, V>> rotated = new ArrayList<>(immutables.size() + 1);
+            rotated.add(active);
+            rotated.addAll(immutables);
+            return new Memtables<>(fresh, List.copyOf(rotated));
+        }
+
+        Memtables<K, V> withoutImmutable(MemtableWithLog<K, V> flushed) {
+            return new Memtables<>(active, immutables.stream().filter(immutable -> immutable != flushed).toList());
+        }
     }
 }
@@ -2,15 +2,68 @@ package com.tmsvr.databases.lsmtree.commitlog;
 
 import com.tmsvr.databases.DataRecord;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.List;
+import java.util.function.ObjLongConsumer;
 
-public interface CommitLog<K extends Comparable<K>, V> {
-    void append(DataRecord<K,V> entry) throws IOException;
+public interface CommitLog<K extends Comparable<K>, V> extends Closeable {
+    /**
+     * Appends the record to the log, safe to call from many threads at once.
+     *
+     * @return the sequence number of the record, increasing in the order the records are in the log
+     */
+    long append(DataRecord<K,V> entry) throws IOException;
 
-    List<DataRecord<K,V>> readCommitLog() throws IOException;
+    /**
+     * Appends the records as one unit: after a crash either all of them are replayed or none.
+     *
+     * @return the sequence number of the first record, the others follow it in order
+     */
+    long append(List<DataRecord<K,V>> batch) throws IOException;
 
+    /**
+     * Streams the records of the log to the consumer with their sequence numbers, in the order they were
+     * appended. Stops at the first record that was not fully written, the log continues after the last good one.
+     *
+     * @return the number of records replayed
+     */
+    long replay(ObjLongConsumer<DataRecord<K,V>> consumer) throws IOException;
+
+    /**
+     * @return the sequence number the next appended record gets
+     */
+    long getNextSequence();
+
+    /**
+     * @return every record with a lower sequence number is forced to disk and survives a crash of the machine.
+     * It follows the appends with {@link CommitLogOptions.Durability#GROUP_SYNC} and
+     * {@link CommitLogOptions.Durability#SYNC_EVERY_WRITE}, and trails them in the other modes.
+     */
+    long getDurableSequence();
+
+    /**
+     * Forces every record written so far to disk.
+     *
+     * @return the durable sequence number after the force
+     */
+    long sync() throws IOException;
+
+    /**
+     * @return the number of records appended or replayed, the file is not read for it
+     */
     long getSize();
 
     void clear() throws IOException;
+
+    /**
+     * Closes the log and removes its file, once every record of it is safely stored somewhere else.
+     */
+    void delete() throws IOException;
+
+    /**
+     * Like {@link #delete()}, but the file may be kept for a later log to reuse, so that log does not have to
+     * allocate it again.
+     */
+    void recycle() throws IOException;
 }
@@ -0,0 +1,69 @@
+package com.tmsvr.databases.lsmtree.commitlog;
+
+/**
+ * Settings of the commit log segments of a store.
+ *
+ * @param segmentSize        bytes allocated up front for every new segment file, 0 to let the file grow with the
+ *                           writes. A segment that outgrows it is extended by the same size again.
+ * @param durability         when an append waits for its record to be forced to disk
+ * @param syncIntervalMillis time between two forces with {@link Durability#PERIODIC_SYNC}
+ */
+public record CommitLogOptions(long segmentSize, Durability durability, long syncIntervalMillis) {
+    public static final long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100;
+
+    public CommitLogOptions {
+        if (segmentSize < 0) {
+            throw new IllegalArgumentException("Segment size must not be negative: " + segmentSize);
+        }
+        if (syncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Sync interval must be positive: " + syncIntervalMillis);
+        }
+    }
+
+    public static CommitLogOptions defaults() {
+        return new CommitLogOptions(DEFAULT_SEGMENT_SIZE, Durability.GROUP_SYNC, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    public CommitLogOptions withSegmentSize(long segmentSize) {
+        return new CommitLogOptions(segmentSize, durability, syncIntervalMillis);
+    }
+
+    public CommitLogOptions withDurability(Durability durability) {
+        return new CommitLogOptions(segmentSize, durability, syncIntervalMillis);
+    }
+
+    /**
+     * @return options with {@link Durability#PERIODIC_SYNC} every given milliseconds
+     */
+    public CommitLogOptions withPeriodicSync(long syncIntervalMillis) {
+        return new CommitLogOptions(segmentSize, Durability.PERIODIC_SYNC, syncIntervalMillis);
+    }
+
+    /**
+     * Every mode writes the record to the file before the append returns, so a crash of the process loses
+     * nothing. They differ in what a crash of the machine can lose, see {@link CommitLog#getDurableSequence()}.
+     */
+    public enum Durability {
+        /**
+         * Every record is written and forced on its own before its append returns. The slowest mode, one force
+         * per record no matter how many writers there are.
+         */
+        SYNC_EVERY_WRITE,
+        /**
+         * Records queued by concurrent writers are written and forced together, an append returns once its
+         * record is forced. Nothing appended is lost, and under load one force covers many writers.
+         */
+        GROUP_SYNC,
+        /**
+         * Appends return once the record is written, a background task forces the file every
+         * {@link #syncIntervalMillis()}. A crash loses at most the records of the last interval.
+         */
+        PERIODIC_SYNC,
+        /**
+         * Appends return once the record is written, the file is forced only when the memtable rotates, the log
+         * is closed or {@link CommitLog#sync()} is called. The OS decides when everything else reaches the disk.
+         */
+        OS_BUFFERED
+    }
+}
@@ -1,87 +1,581 @@
 package com.tmsvr.databases.lsmtree.commitlog;
 
 import com.tmsvr.databases.DataRecord;
-import com.tmsvr.databases.lsmtree.sstable.LsmSerDe;
-import com.tmsvr.databases.serde.SerDe;
+import com.tmsvr.databases.lsmtree.commitlog.CommitLogOptions.Durability;
+import com.tmsvr.databases.lsmtree.sstable.RecordSerializer;
+import com.tmsvr.databases.lsmtree.util.GrowingBuffer;
+import com.tmsvr.databases.serde.BinarySerDe;
 import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
 import java.util.stream.Stream;
+import java.util.zip.CRC32C;
 
-import static com.tmsvr.databases.lsmtree.sstable.LsmSerDe.SEPARATOR;
-
+/**
+ * Commit log in a single file. A store keeps one log segment per memtable, see {@link #segmentPath(long)}.
+ * <p>
+ * The file starts with {@link #FORMAT_MAGIC} and a random salt, followed by one frame per record: payload length
+ * (int), CRC32C (int) of the salt, the sequence number and the payload, sequence number (long) and the record in
+ * the {@link RecordSerializer} layout as payload. Replay stops at the first frame that is cut short or fails its
+ * checksum, appends continue from there. Files written before the framing have no magic, they can still be
+ * replayed but not appended to.
+ * <p>
+ * A {@link #append(List) batch} is a single frame with {@link #BATCH_FLAG} set in its length. Its payload is
+ * the number of records (int) followed by the records, they take the sequence numbers from the one of the
+ * frame on. The checksum covers the whole batch, so replay gets either every record of it or none.
+ * <p>
+ * New segment files are allocated to {@link CommitLogOptions#segmentSize()} up front and written with positional
+ * writes, so an append does not change the size of the file. A segment that runs out of allocated space, as a
+ * memtable of large values makes it, is extended by whole segment sizes at once. A flushed segment is
+ * {@link #recycle() recycled} instead of deleted: it gets a new salt, which makes its old frames fail the
+ * checksum, and the next segment takes the file over.
+ * <p>
+ * Appends use group commit. A writer queues its record and waits; if no write is in progress it becomes the
+ * leader, stamps the sequence numbers and checksums of every queued record, writes them with one gathering
+ * write, forces the file once and wakes up the writers of the batch. Records queued meanwhile go out in the next
+ * batch, so under load one force covers many writers while a single writer still gets a force per record.
+ * The {@link CommitLogOptions.Durability durability} of the log decides whether the leader forces the file
+ * after the write and how many records it takes; in every mode an append returns once its record is written.
+ * <p>
+ * Sequence numbers are handed out in queue order, which is also the order of the records in the file. A log
+ * that has records from an earlier run has to be replayed before appending to it, new records continue after
+ * the last replayed sequence number.
+ */
 @Slf4j
 public class DefaultCommitLog<K extends Comparable<K>, V> implements CommitLog<K, V> {
-    static final int FLUSH_THRESHOLD = 100;
-    static final String FILE_PATH = "commit-log.txt";
-    private final SerDe<K> keySerDe;
-    private final SerDe<V> valueSerDe;
-    private long size;
-    private FileChannel fileChannel;
-    private int writeCount;
-
-    public DefaultCommitLog(LsmSerDe<K> keySerDe, LsmSerDe<V> valueSerDe) throws IOException {
-        this.keySerDe = keySerDe;
-        this.valueSerDe = valueSerDe;
+    static final String FILE_PATH = "commit-log.wal";
+    // Text log of the versions before the binary format, this version can't replay it
+    static final String TEXT_FILE_PATH = "commit-log.txt";
+    static final long FORMAT_MAGIC = 0x4C534D57414C0002L; // "LSMWAL" and format version 2
+    private static final long FORMAT_MAGIC_V1 = 0x4C534D57414C0001L; // no salt, the file grows with the writes
+    static final int FILE_HEADER_SIZE = Long.BYTES + Long.BYTES;
+    static final int FRAME_HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES;
+    static final int BATCH_FLAG = 0x80000000;
+    static final int MAX_RECYCLED_SEGMENTS = 4;
+    private static final int CHECKSUM_OFFSET = Integer.BYTES;
+    private static final int SEQUENCE_OFFSET = CHECKSUM_OFFSET + Integer.BYTES;
+    private static final String SEGMENT_PREFIX = "commit-log-";
+    private static final String RECYCLED_PREFIX = "commit-log-free-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final int RECORD_BUFFER_SIZE = 256;
+    private static final int REPLAY_BUFFER_SIZE = 64 * 1024;
+    private static final ScheduledThreadPoolExecutor SYNC_SCHEDULER = createSyncScheduler();
+
+    private final Path file;
+    private final RecordSerializer<K, V> serializer;
+    private final CommitLogOptions options;
+    private final CRC32C checksum = new CRC32C();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchWritten = lock.newCondition();
+    private final List<ByteBuffer> queue = new ArrayList<>();
+    private boolean writing;
+    private boolean legacyFormat;
+    private boolean replayNeeded;
+    private byte[] salt;
+    private long dataStart;
+    // Size of the file, only the leader of a batch extends it
+    private long allocatedSize;
+    private long nextSequence;
+    private long writtenSequence;
+    private long durableSequence;
+    private IOException failure;
+    private volatile long size;
+    private final FileChannel fileChannel;
+    private final ScheduledFuture<?> syncTask;
+
+    public DefaultCommitLog(BinarySerDe<K> keySerDe, BinarySerDe<V> valueSerDe) throws IOException {
+        this(Paths.get(FILE_PATH), keySerDe, valueSerDe);
+    }
+
+    public DefaultCommitLog(Path file, BinarySerDe<K> keySerDe, BinarySerDe<V> valueSerDe) throws IOException {
+        this(file, keySerDe, valueSerDe, CommitLogOptions.defaults(), 0);
+    }
+
+    /**
+     * Opens the log in the file. If the file does not exist yet it takes over a recycled segment, or is created
+     * and allocated to the segment size.
+     *
+     * @param firstSequence sequence number of the first record appended, so numbering can continue across
+     *                      segments
+     */
+    public DefaultCommitLog(Path file, BinarySerDe<K> keySerDe, BinarySerDe<V> valueSerDe, CommitLogOptions options,
+                            long firstSequence) throws IOException {
+        this.file = file;
+        this.serializer = new RecordSerializer<>(keySerDe, valueSerDe);
+        this.options = options;
         this.size = 0;
-        this.writeCount = 0;
-
-        fileChannel = FileChannel.open(
-                Paths.get(FILE_PATH),
-                StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.APPEND,
-                StandardOpenOption.DSYNC
-        );
-
-        if (Files.exists(Paths.get(FILE_PATH))) {
-            size = countLinesInLog();
+        this.nextSequence = firstSequence;
+        this.writtenSequence = firstSequence;
+        this.durableSequence = firstSequence;
+
+        boolean recycled = !Files.exists(file) && takeRecycled(file);
+        fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (!readFileHeader()) {
+            // New file, or a crash before the header was on disk; no record can be in it
+            writeFileHeader();
+            preallocate(options.segmentSize());
+        } else if (recycled) {
+            fileChannel.position(dataStart);
+        } else {
+            replayNeeded = true;
+        }
+        allocatedSize = fileChannel.size();
+
+        syncTask = options.durability() == Durability.PERIODIC_SYNC
+                ? SYNC_SCHEDULER.scheduleWithFixedDelay(this::syncInBackground, options.syncIntervalMillis(),
+                        options.syncIntervalMillis(), TimeUnit.MILLISECONDS)
+                : null;
+    }
+
+    private static ScheduledThreadPoolExecutor createSyncScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+                Thread.ofPlatform().name("commit-log-sync").daemon().factory());
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * @return false if the file is too short to have a header
+     */
+    private boolean readFileHeader() throws IOException {
+        long fileSize = fileChannel.size();
+        if (fileSize < Long.BYTES) {
+            return false;
+        }
+
+        // A file of the older formats may be shorter than the header
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.limit((int) Math.min(fileSize, FILE_HEADER_SIZE));
+        while (header.hasRemaining()) {
+            fileChannel.read(header, header.position());
+        }
+
+        long magic = header.getLong(0);
+        if (magic == FORMAT_MAGIC) {
+            if (fileSize < FILE_HEADER_SIZE) {
+                return false;
+            }
+            salt = new byte[Long.BYTES];
+            header.get(Long.BYTES, salt);
+            dataStart = FILE_HEADER_SIZE;
+        } else if (magic == FORMAT_MAGIC_V1) {
+            salt = new byte[0];
+            dataStart = Long.BYTES;
         } else {
-            createFile();
+            legacyFormat = true;
         }
+        return true;
     }
 
-    private void createFile() throws IOException {
-        Files.createFile(Paths.get(FILE_PATH));
+    /**
+     * Starts the file over with a new salt: every frame already in it fails its checksum from now on.
+     */
+    private void writeFileHeader() throws IOException {
+        long newSalt = ThreadLocalRandom.current().nextLong();
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putLong(FORMAT_MAGIC).putLong(newSalt).flip();
+        while (header.hasRemaining()) {
+            fileChannel.write(header, header.position());
+        }
+        fileChannel.force(true);
+
+        salt = new byte[Long.BYTES];
+        header.get(Long.BYTES, salt);
+        dataStart = FILE_HEADER_SIZE;
+        legacyFormat = false;
+        replayNeeded = false;
+        fileChannel.position(dataStart);
     }
 
-    private long countLinesInLog() throws IOException {
-        try (Stream<String> lines = Files.lines(Paths.get(FILE_PATH))) {
-            return lines.count();
+    /**
+     * Fills the file with zeros up to the given size. Zeros end the replay like a torn frame, and the blocks
+     * they take are overwritten in place later.
+     */
+    private void preallocate(long fileSize) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate(REPLAY_BUFFER_SIZE);
+        long position = fileChannel.size();
+
+        while (position < fileSize) {
+            zeros.clear().limit((int) Math.min(zeros.capacity(), fileSize - position));
+            position += fileChannel.write(zeros, position);
         }
+        fileChannel.force(true);
+        allocatedSize = Math.max(allocatedSize, position);
     }
 
-    private String entryToString(DataRecord<K, V> entry) {
-        return keySerDe.serialize(entry.key()) + SEPARATOR + valueSerDe.serialize(entry.value()) + System.lineSeparator();
+    /**
+     * Extends the file by as many segment sizes as the bytes about to be written need, so a segment written past
+     * its allocation still gets its size changed once per segment size instead of with every write. Without a
+     * segment size the file grows with the writes. Only the leader of a batch calls it.
+     */
+    private void ensureAllocated(long end) throws IOException {
+        long step = options.segmentSize();
+        if (step == 0 || end <= allocatedSize) {
+            return;
+        }
+        preallocate(allocatedSize + (end - allocatedSize + step - 1) / step * step);
+    }
+
+    @Override
+    public long append(DataRecord<K, V> entry) throws IOException {
+        // Length is known now, the sequence number and checksum are filled in by the leader of the batch
+        GrowingBuffer buffer = new GrowingBuffer(RECORD_BUFFER_SIZE);
+        buffer.putInt(0);
+        buffer.putInt(0);
+        buffer.putLong(0);
+        serializer.write(entry.key(), entry.value(), buffer);
+        ByteBuffer frame = buffer.flip();
+        frame.putInt(0, frame.limit() - FRAME_HEADER_SIZE);
+
+        return enqueue(frame, 1);
     }
 
     @Override
-    public void append(DataRecord<K, V> entry) throws IOException {
-        byte[] data = entryToString(entry).getBytes();
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        fileChannel.write(buffer);
+    public long append(List<DataRecord<K, V>> batch) throws IOException {
+        if (batch.size() == 1) {
+            return append(batch.getFirst());
+        }
+        if (batch.isEmpty()) {
+            return getNextSequence();
+        }
 
-        writeCount++;
-        if (writeCount >= FLUSH_THRESHOLD) {
-            fileChannel.force(false);  // Metadata updates not forced (faster)
-            writeCount = 0;
+        GrowingBuffer buffer = new GrowingBuffer(RECORD_BUFFER_SIZE * batch.size());
+        buffer.putInt(0);
+        buffer.putInt(0);
+        buffer.putLong(0);
+        buffer.putInt(batch.size());
+        for (DataRecord<K, V> entry : batch) {
+            serializer.write(entry.key(), entry.value(), buffer);
+        }
+        ByteBuffer frame = buffer.flip();
+        frame.putInt(0, (frame.limit() - FRAME_HEADER_SIZE) | BATCH_FLAG);
+
+        return enqueue(frame, batch.size());
+    }
+
+    /**
+     * Queues the frame and waits until a leader wrote it, see the group commit above.
+     *
+     * @return the sequence number of the first record of the frame
+     */
+    private long enqueue(ByteBuffer frame, int records) throws IOException {
+        lock.lock();
+        try {
+            throwIfFailed();
+            if (legacyFormat) {
+                throw new IOException("Commit log in the format before record framing can't be appended to: " + file);
+            }
+            if (replayNeeded) {
+                throw new IOException("Commit log has to be replayed before appending to it: " + file);
+            }
+
+            long sequence = nextSequence;
+            nextSequence += records;
+            queue.add(frame);
+            size += records;
+
+            while (writtenSequence < sequence + records) {
+                if (writing) {
+                    batchWritten.awaitUninterruptibly();
+                    throwIfFailed();
+                } else {
+                    writeBatch();
+                }
+            }
+
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the queued records, only the first one with {@link Durability#SYNC_EVERY_WRITE}, and forces them
+     * if the durability asks for it. Called with the lock held, the lock is released during the I/O so writers
+     * can queue the next batch.
+     */
+    private void writeBatch() throws IOException {
+        Durability durability = options.durability();
+        List<ByteBuffer> taken = durability == Durability.SYNC_EVERY_WRITE ? queue.subList(0, 1) : queue;
+        ByteBuffer[] batch = taken.toArray(ByteBuffer[]::new);
+        taken.clear();
+        // The queue holds the sequence numbers after the last written one, in order
+        long sequence = writtenSequence;
+        long batchEnd = sequence;
+        for (ByteBuffer frame : batch) {
+            batchEnd += recordCount(frame);
+        }
+        boolean force = durability == Durability.SYNC_EVERY_WRITE || durability == Durability.GROUP_SYNC;
+        writing = true;
+        lock.unlock();
+
+        IOException error = null;
+        try {
+            long remaining = 0;
+            for (ByteBuffer frame : batch) {
+                seal(frame, sequence);
+                sequence += recordCount(frame);
+                remaining += frame.remaining();
+            }
+            // The channel position is the end of the last frame, the write overwrites preallocated space
+            ensureAllocated(fileChannel.position() + remaining);
+            while (remaining > 0) {
+                remaining -= fileChannel.write(batch);
+            }
+            if (force) {
+                fileChannel.force(false);  // Metadata updates not forced (faster)
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+            writing = false;
+            if (error == null) {
+                writtenSequence = batchEnd;
+                if (force) {
+                    durableSequence = batchEnd;
+                }
+            } else {
+                // The file may end with part of the batch, nothing can be appended after it anymore
+                failure = error;
+            }
+            batchWritten.signalAll();
+        }
+
+        throwIfFailed();
+    }
+
+    private static int recordCount(ByteBuffer frame) {
+        return (frame.getInt(0) & BATCH_FLAG) == 0 ? 1 : frame.getInt(FRAME_HEADER_SIZE);
+    }
+
+    /**
+     * Stamps the sequence number into the frame and the checksum over the salt, the sequence number and the
+     * payload. Only the leader of a batch calls it.
+     */
+    private void seal(ByteBuffer frame, long sequence) {
+        frame.putLong(SEQUENCE_OFFSET, sequence);
+        checksum.reset();
+        checksum.update(salt);
+        checksum.update(frame.slice(SEQUENCE_OFFSET, frame.limit() - SEQUENCE_OFFSET));
+        frame.putInt(CHECKSUM_OFFSET, (int) checksum.getValue());
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("Commit log write failed earlier: " + file, failure);
+        }
+    }
+
+    /**
+     * Waits until no batch is being written. Called with the lock held.
+     */
+    private void awaitWrites() {
+        while (writing) {
+            batchWritten.awaitUninterruptibly();
         }
-        size++;
     }
 
     @Override
-    public List<DataRecord<K, V>> readCommitLog() throws IOException {
-        return Files.readAllLines(Paths.get(FILE_PATH))
-                .stream()
-                .map(line -> {
-                    String[] split = line.split(SEPARATOR);
-                    return new DataRecord<>(keySerDe.deserialize(split[0]), valueSerDe.deserialize(split[1]));
-                }).toList();
+    public long replay(ObjLongConsumer<DataRecord<K, V>> consumer) throws IOException {
+        lock.lock();
+        try {
+            awaitWrites();
+            long replayed = legacyFormat ? replayLegacy(consumer) : replayFrames(consumer);
+            size = replayed;
+            writtenSequence = nextSequence;
+            durableSequence = nextSequence;
+            replayNeeded = false;
+            return replayed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the file frame by frame, so replay needs memory for one record only, and moves the write position
+     * after the last good frame. Called with the lock held.
+     */
+    private long replayFrames(ObjLongConsumer<DataRecord<K, V>> consumer) throws IOException {
+        long fileSize = fileChannel.size();
+        long validEnd = dataStart;
+        long replayed = 0;
+        CRC32C frameChecksum = new CRC32C();
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        byte[] payload = new byte[RECORD_BUFFER_SIZE];
+
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream, REPLAY_BUFFER_SIZE))) {
+            in.skipNBytes(dataStart);
+
+            while (validEnd + FRAME_HEADER_SIZE <= fileSize) {
+                in.readFully(header.array());
+                boolean batch = (header.getInt(0) & BATCH_FLAG) != 0;
+                int length = header.getInt(0) & ~BATCH_FLAG;
+                long sequence = header.getLong(SEQUENCE_OFFSET);
+
+                // A length running past the end of the file is a torn or corrupt frame, don't allocate for it
+                if (length < 0 || length > fileSize - validEnd - FRAME_HEADER_SIZE) {
+                    break;
+                }
+                if (payload.length < length) {
+                    payload = new byte[length];
+                }
+                in.readFully(payload, 0, length);
+
+                frameChecksum.reset();
+                frameChecksum.update(salt);
+                frameChecksum.update(header.array(), SEQUENCE_OFFSET, Long.BYTES);
+                frameChecksum.update(payload, 0, length);
+                if ((int) frameChecksum.getValue() != header.getInt(CHECKSUM_OFFSET)) {
+                    break;
+                }
+
+                List<DataRecord<K, V>> records = readPayload(ByteBuffer.wrap(payload, 0, length), batch);
+                if (records == null) {
+                    break;
+                }
+
+                for (int i = 0; i < records.size(); i++) {
+                    consumer.accept(records.get(i), sequence + i);
+                }
+                nextSequence = Math.max(nextSequence, sequence + records.size());
+                validEnd += FRAME_HEADER_SIZE + length;
+                replayed += records.size();
+            }
+        } catch (EOFException e) {
+            // The file got shorter while reading, what was read so far stays valid
+        }
+
+        // Past the last good frame there are zeros, frames of an earlier use of the file or a torn frame; they
+        // look the same, so there is nothing to warn about. New frames overwrite them.
+        log.debug("Replayed {} records of commit log {}, appending from byte {}", replayed, file, validEnd);
+        fileChannel.position(validEnd);
+
+        return replayed;
+    }
+
+    /**
+     * @return the records of a frame, or null if the payload does not hold them all
+     */
+    private List<DataRecord<K, V>> readPayload(ByteBuffer payload, boolean batch) {
+        if (batch && payload.remaining() < Integer.BYTES) {
+            return null;
+        }
+
+        int count = batch ? payload.getInt() : 1;
+        if (count < 0 || count > payload.remaining()) {
+            return null;
+        }
+
+        List<DataRecord<K, V>> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            DataRecord<K, V> dataRecord = serializer.read(payload);
+            if (dataRecord == null) {
+                return null;
+            }
+            records.add(dataRecord);
+        }
+        return records;
+    }
+
+    /**
+     * Reads a file written before the framing: plain records, numbered in file order. Called with the lock held.
+     */
+    private long replayLegacy(ObjLongConsumer<DataRecord<K, V>> consumer) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        long replayed = 0;
+
+        DataRecord<K, V> dataRecord;
+        while ((dataRecord = serializer.read(data)) != null) {
+            consumer.accept(dataRecord, nextSequence++);
+            replayed++;
+        }
+
+        if (data.hasRemaining()) {
+            log.warn("Commit log {} ends with an incomplete record, ignoring the last {} bytes", file, data.remaining());
+        }
+
+        return replayed;
+    }
+
+    @Override
+    public long getNextSequence() {
+        lock.lock();
+        try {
+            return nextSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getDurableSequence() {
+        lock.lock();
+        try {
+            return durableSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long sync() throws IOException {
+        long written;
+        lock.lock();
+        try {
+            throwIfFailed();
+            if (writtenSequence == durableSequence) {
+                return durableSequence;
+            }
+            written = writtenSequence;
+        } finally {
+            lock.unlock();
+        }
+
+        // Writers go on meanwhile, the force covers at least what was written before it started
+        fileChannel.force(false);
+
+        lock.lock();
+        try {
+            durableSequence = Math.max(durableSequence, written);
+            return durableSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void syncInBackground() {
+        try {
+            sync();
+        } catch (IOException e) {
+            if (fileChannel.isOpen()) {
+                log.error("Periodic sync of commit log {} failed", file, e);
+            }
+        }
     }
 
     @Override
@@ -89,19 +583,145 @@ public class DefaultCommitLog<K extends Comparable<K>, V> implements CommitLog<K
         return size;
     }
 
+    /**
+     * Starts the log over in the same file, the file keeps its size.
+     */
     @Override
     public void clear() throws IOException {
-        fileChannel.force(true);
-        fileChannel.close();
-        Files.deleteIfExists(Paths.get(FILE_PATH));
-        createFile();
-        size = 0;
-        writeCount = 0;
-        fileChannel = FileChannel.open(
-                Paths.get(FILE_PATH),
-                StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.APPEND
-        );
+        lock.lock();
+        try {
+            awaitWrites();
+            writeFileHeader();
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete() throws IOException {
+        cancelSyncTask();
+        lock.lock();
+        try {
+            awaitWrites();
+            fileChannel.close();
+            Files.deleteIfExists(file);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Empties the file and moves it to the recycled segments, or deletes it if there are
+     * {@value #MAX_RECYCLED_SEGMENTS} already.
+     */
+    @Override
+    public void recycle() throws IOException {
+        cancelSyncTask();
+        lock.lock();
+        try {
+            awaitWrites();
+            if (findRecycled(file).size() >= MAX_RECYCLED_SEGMENTS) {
+                fileChannel.close();
+                Files.deleteIfExists(file);
+                return;
+            }
+
+            // The file is empty before it is renamed, a crash in between leaves a log with nothing to replay
+            writeFileHeader();
+            fileChannel.close();
+            Files.move(file, file.resolveSibling(RECYCLED_PREFIX + UUID.randomUUID() + SEGMENT_SUFFIX),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        cancelSyncTask();
+        lock.lock();
+        try {
+            awaitWrites();
+            if (fileChannel.isOpen()) {
+                fileChannel.force(true);
+                fileChannel.close();
+                durableSequence = writtenSequence;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void cancelSyncTask() {
+        if (syncTask != null) {
+            syncTask.cancel(false);
+        }
+    }
+
+    /**
+     * Renames a recycled segment next to the target to the target.
+     *
+     * @return false if there was no recycled segment to take
+     */
+    private static boolean takeRecycled(Path target) throws IOException {
+        for (Path recycled : findRecycled(target)) {
+            try {
+                Files.move(recycled, target, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } catch (NoSuchFileException e) {
+                // Taken by someone else meanwhile, try the next one
+            }
+        }
+        return false;
+    }
+
+    private static List<Path> findRecycled(Path segment) throws IOException {
+        Path directory = segment.toAbsolutePath().getParent();
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(path -> path.getFileName().toString().startsWith(RECYCLED_PREFIX))
+                    .toList();
+        }
+    }
+
+    /**
+     * @return the file of the log segment with the given id, ids order the segments from the oldest to the newest
+     */
+    public static Path segmentPath(long id) {
+        return Paths.get(SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @return the id of a segment file, -1 for the single log file of older versions which predates every segment
+     */
+    public static long segmentId(Path segment) {
+        String name = segment.getFileName().toString();
+        if (name.equals(FILE_PATH)) {
+            return -1;
+        }
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * @return the log segments in the working directory, from the oldest to the newest; recycled segments are
+     * not part of the log
+     * @throws IOException also if the text log of a version before the binary format is found, starting without
+     *                     its records would lose them
+     */
+    public static List<Path> findSegments() throws IOException {
+        if (Files.exists(Paths.get(TEXT_FILE_PATH))) {
+            throw new IOException("Commit log in the text format of a former version found: " + TEXT_FILE_PATH
+                    + ", its records can't be replayed. Flush them with that version first, or remove the file");
+        }
+        try (Stream<Path> files = Files.list(Path.of("."))) {
+            return files
+                    .filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.equals(FILE_PATH) || name.matches(SEGMENT_PREFIX + "\\d+\\" + SEGMENT_SUFFIX);
+                    })
+                    .sorted(Comparator.comparingLong(DefaultCommitLog::segmentId))
+                    .toList();
+        }
     }
 }
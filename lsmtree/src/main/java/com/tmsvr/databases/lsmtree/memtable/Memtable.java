@@ -1,40 +1,145 @@
 package com.tmsvr.databases.lsmtree.memtable;
 
 import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.ScanDirection;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Sorted in-memory table of the latest writes, backed by a {@link ConcurrentSkipListMap} so any number of threads
+ * can read and write it without locking.
+ * <p>
+ * Every record is stored with the sequence number the commit log gave it. When writers of the same key race, the
+ * record with the higher sequence number wins no matter which one reaches the memtable first, so the memtable
+ * always agrees with the order of the log. A deleted key is kept as a record with a null value.
+ */
 public class Memtable<K extends Comparable<K>, V> {
-    private final Map<K, V> dataMap;
+    private final ConcurrentNavigableMap<K, Entry<K, V>> dataMap;
+    private final LongAdder size;
 
     public Memtable() {
-        this.dataMap = new TreeMap<>();
+        this.dataMap = new ConcurrentSkipListMap<>();
+        this.size = new LongAdder();
     }
 
+    /**
+     * @param records records in the order they were written, later ones overwrite earlier ones
+     */
     public Memtable(List<DataRecord<K, V>> records) {
-        this.dataMap = new TreeMap<>();
-        records.forEach(record -> dataMap.put(record.key(), record.value()));
+        this();
+        for (int i = 0; i < records.size(); i++) {
+            put(records.get(i), i);
+        }
     }
 
+    /**
+     * Stores the record unconditionally, for callers that write from a single thread.
+     */
     public void put(DataRecord<K, V> record) {
-        dataMap.put(record.key(), record.value());
+        if (dataMap.put(record.key(), new Entry<>(record, Long.MIN_VALUE)) == null) {
+            size.increment();
+        }
     }
 
+    /**
+     * Stores the record unless the memtable already has a record of the key with a higher sequence number.
+     */
+    public void put(DataRecord<K, V> record, long sequence) {
+        Entry<K, V> entry = new Entry<>(record, sequence);
+        Entry<K, V> current = dataMap.putIfAbsent(record.key(), entry);
+
+        if (current == null) {
+            size.increment();
+            return;
+        }
+
+        // Keys are only removed by clear, so the entry can't disappear while we try to replace it
+        while (current.sequence() < sequence && !dataMap.replace(record.key(), current, entry)) {
+            current = dataMap.get(record.key());
+        }
+    }
+
+    /**
+     * @return the value of the key, null if the key is not in the memtable or it is deleted
+     */
     public V get(K key) {
-        return dataMap.get(key);
+        DataRecord<K, V> dataRecord = getRecord(key);
+        return dataRecord == null ? null : dataRecord.value();
     }
 
+    /**
+     * @return the record of the key with a null value if the key is deleted, or null if the key is not in the
+     * memtable
+     */
+    public DataRecord<K, V> getRecord(K key) {
+        Entry<K, V> entry = dataMap.get(key);
+        return entry == null ? null : entry.record();
+    }
+
+    /**
+     * @return a sorted copy of the memtable, deleted keys have null values
+     */
     public Map<K, V> getAsMap() {
-        return dataMap;
+        Map<K, V> copy = new TreeMap<>();
+        for (Entry<K, V> entry : dataMap.values()) {
+            copy.put(entry.record().key(), entry.record().value());
+        }
+        return copy;
+    }
+
+    /**
+     * @param from first key of the range, or null to start at the smallest key
+     * @param to   first key after the range, or null to go to the largest key
+     * @return the records of the key range in the given direction, deleted keys have null values. The iterator
+     * is weakly consistent: it sees some of the writes made while it runs and never fails because of them.
+     */
+    public Iterator<DataRecord<K, V>> iterator(K from, K to, ScanDirection direction) {
+        NavigableMap<K, Entry<K, V>> range = dataMap;
+        if (from != null && to != null) {
+            range = dataMap.subMap(from, true, to, false);
+        } else if (from != null) {
+            range = dataMap.tailMap(from, true);
+        } else if (to != null) {
+            range = dataMap.headMap(to, false);
+        }
+
+        if (direction == ScanDirection.REVERSE) {
+            range = range.descendingMap();
+        }
+
+        Iterator<Entry<K, V>> entries = range.values().iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public DataRecord<K, V> next() {
+                return entries.next().record();
+            }
+        };
     }
 
     public long getSize() {
-        return dataMap.size();
+        return size.sum();
     }
 
+    /**
+     * Not atomic with concurrent writes, the caller has to make sure nothing is written while clearing.
+     */
     public void clear() {
         dataMap.clear();
+        size.reset();
+    }
+
+    private record Entry<K extends Comparable<K>, V>(DataRecord<K, V> record, long sequence) {
     }
 }
@@ -1,54 +1,268 @@
 package com.tmsvr.databases.lsmtree.sstable;
 
 import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.ScanDirection;
+import com.tmsvr.databases.serde.ByteKeys;
+import com.tmsvr.databases.serde.OrderedBinarySerDe;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
 
 public abstract class AbstractCompactor<K extends Comparable<K>, V> implements Compactor<K, V> {
+    private static final Comparator<RawRecord> RAW_KEY_ORDER = (a, b) -> ByteKeys.compare(a.key(), b.key());
+    private static final int COMPACTION_THRESHOLD = 5;
+    private static final long MIN_SUBCOMPACTION_BYTES = 1024 * 1024;
+    private static final ForkJoinPool SUBCOMPACTION_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("lsm-subcompaction-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+
+    /**
+     * Picks the newest run of level 0 tables no other compaction works on, so concurrent compactions never share
+     * a table. Nothing is picked if the run has fewer than two tables.
+     */
+    @Override
+    public Compaction<K, V> pick(Levels<K, V> levels, Set<SSTable<K, V>> compacting) {
+        List<SSTable<K, V>> tables = levels.level(0);
+        int start = 0;
+        for (int i = 0; i < tables.size(); i++) {
+            if (compacting.contains(tables.get(i))) {
+                start = i + 1;
+            }
+        }
+
+        if (tables.size() - start < 2) {
+            return null;
+        }
+        return new Compaction<>(List.copyOf(tables.subList(start, tables.size())), 0);
+    }
+
+    /**
+     * @return true after every {@value #COMPACTION_THRESHOLD} + 1 flushes
+     */
+    @Override
+    public boolean isDue(Levels<K, V> levels, int newTables) {
+        return newTables > COMPACTION_THRESHOLD;
+    }
+
+    /**
+     * Merges two tables, on equal keys the record of the newer table wins.
+     */
     SSTable<K, V> merge(SSTable<K, V> olderTable, SSTable<K, V> newerTable) throws IOException {
-        List<DataRecord<K, V>> result = new ArrayList<>();
-
-        List<DataRecord<K, V>> oldLines = olderTable.getAllLines();
-        List<DataRecord<K, V>> newLines = newerTable.getAllLines();
-
-        int i = 0;
-        int j = 0;
-
-        while (true) {
-            DataRecord<K, V> nextValue;
-
-            if (i < oldLines.size() && j < newLines.size()) {
-                int comparisonResult = oldLines.get(i).key().compareTo(newLines.get(j).key());
-
-                if (comparisonResult < 0) {
-                    nextValue = oldLines.get(i);
-                    i++;
-                } else if (comparisonResult > 0) {
-                    nextValue = newLines.get(j);
-                    j++;
-                } else {
-                    nextValue = newLines.get(j);
-                    i++;
-                    j++;
-                }
-            } else if (i < oldLines.size()) {
-                nextValue = oldLines.get(i);
-                i++;
-            } else if (j < newLines.size()){
-                nextValue = newLines.get(j);
-                j++;
-            } else {
-                break;
-            }
-
-            result.add(nextValue);
-        }
-
-        SSTable<K, V> newTable = new SSTable<>("sstable-" + UUID.randomUUID(), olderTable.getKeySerDe(), olderTable.getValueSerDe());
-        newTable.write(result);
+        return merge(List.of(olderTable, newerTable));
+    }
+
+    /**
+     * Merges any number of tables in a single pass, so every record is written once no matter how many tables
+     * there are. The tables are ordered from the oldest to the newest, on equal keys the record of the newest
+     * table wins. The records are streamed from the inputs to the output, see
+     * {@link #mergedRecords(List, byte[], byte[])}.
+     * <p>
+     * Tables with key ranges that don't overlap, like the flushes of increasing keys, have nothing to merge:
+     * their data blocks are concatenated in key order without decoding a record.
+     */
+    SSTable<K, V> merge(List<SSTable<K, V>> tables) throws IOException {
+        SSTable<K, V> newTable = newTable(tables.getFirst());
+        List<SSTable<K, V>> disjoint = disjointInKeyOrder(tables);
+
+        if (disjoint != null) {
+            newTable.writeConcatenation(disjoint);
+        } else {
+            newTable.writeRaw(mergedRecords(tables, null, null));
+        }
         return newTable;
     }
+
+    /**
+     * @return the tables in the order of their keys if their key ranges don't overlap, or null if they do or a
+     * table has no known range
+     */
+    static <K extends Comparable<K>, V> List<SSTable<K, V>> disjointInKeyOrder(List<SSTable<K, V>> tables) {
+        for (SSTable<K, V> table : tables) {
+            if (table.getFirstKey() == null) {
+                return null;
+            }
+        }
+
+        Comparator<byte[]> keyOrder = tables.getFirst().getKeyOrder();
+        List<SSTable<K, V>> sorted = new ArrayList<>(tables);
+        sorted.sort(Comparator.comparing(SSTable::getFirstKey, keyOrder));
+
+        for (int i = 1; i < sorted.size(); i++) {
+            if (keyOrder.compare(sorted.get(i - 1).getLastKey(), sorted.get(i).getFirstKey()) >= 0) {
+                return null;
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Merges the tables like {@link #merge(List)}, but starts a new output table whenever the records written to
+     * the current one reach {@code maxTableBytes}. The outputs are in key order and their key ranges don't
+     * overlap. Nothing is written if the tables are empty.
+     * <p>
+     * Large inputs are split into key ranges at block boundaries, see {@link #splitPoints(List)}, and the ranges
+     * are merged in parallel into outputs of their own. The outputs are only returned once every range is done,
+     * if one fails the outputs of the others are deleted.
+     */
+    List<SSTable<K, V>> merge(List<SSTable<K, V>> tables, long maxTableBytes) throws IOException {
+        List<byte[]> splits = splitPoints(tables);
+        if (splits.isEmpty()) {
+            return mergeRange(tables, null, null, maxTableBytes);
+        }
+
+        List<Callable<List<SSTable<K, V>>>> ranges = new ArrayList<>(splits.size() + 1);
+        for (int i = 0; i <= splits.size(); i++) {
+            byte[] from = i == 0 ? null : splits.get(i - 1);
+            byte[] to = i == splits.size() ? null : splits.get(i);
+            ranges.add(() -> mergeRange(tables, from, to, maxTableBytes));
+        }
+
+        List<SSTable<K, V>> outputs = new ArrayList<>();
+        IOException failure = null;
+        for (Future<List<SSTable<K, V>>> range : SUBCOMPACTION_POOL.invokeAll(ranges)) {
+            try {
+                outputs.addAll(range.get());
+            } catch (ExecutionException e) {
+                failure = e.getCause() instanceof IOException io ? io : new IOException("Subcompaction failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new IOException("Interrupted while waiting for a subcompaction", e);
+            }
+        }
+
+        if (failure != null) {
+            outputs.forEach(SSTable::retire);
+            throw failure;
+        }
+        return outputs;
+    }
+
+    /**
+     * @return keys that split the tables into at most {@link SSTableOptions#subcompactions()} ranges with about
+     * the same number of blocks, at least {@value #MIN_SUBCOMPACTION_BYTES} bytes each. Empty if the tables are
+     * not worth splitting.
+     */
+    static <K extends Comparable<K>, V> List<byte[]> splitPoints(List<SSTable<K, V>> tables) {
+        SSTable<K, V> first = tables.getFirst();
+        long bytes = 0;
+        for (SSTable<K, V> table : tables) {
+            bytes += table.getDiskSize();
+        }
+
+        int ranges = (int) Math.min(first.getOptions().subcompactions(), bytes / MIN_SUBCOMPACTION_BYTES);
+        if (ranges < 2) {
+            return List.of();
+        }
+
+        List<byte[]> boundaries = new ArrayList<>();
+        for (SSTable<K, V> table : tables) {
+            boundaries.addAll(table.getBlockFirstKeys());
+        }
+        boundaries.sort(first.getKeyOrder());
+
+        List<byte[]> splits = new ArrayList<>(ranges - 1);
+        for (int i = 1; i < ranges && !boundaries.isEmpty(); i++) {
+            byte[] split = boundaries.get(i * boundaries.size() / ranges);
+            if (splits.isEmpty() || first.getKeyOrder().compare(splits.getLast(), split) < 0) {
+                splits.add(split);
+            }
+        }
+        return splits;
+    }
+
+    private static <K extends Comparable<K>, V> List<SSTable<K, V>> mergeRange(List<SSTable<K, V>> tables, byte[] from,
+                                                                              byte[] to, long maxTableBytes) throws IOException {
+        Iterator<RawRecord> merged = mergedRecords(tables, from, to);
+        List<SSTable<K, V>> outputs = new ArrayList<>();
+
+        try {
+            while (merged.hasNext()) {
+                SSTable<K, V> output = newTable(tables.getFirst());
+                outputs.add(output);
+                output.writeRaw(limit(merged, maxTableBytes));
+            }
+        } catch (IOException | RuntimeException e) {
+            outputs.forEach(SSTable::retire);
+            throw e;
+        }
+
+        return outputs;
+    }
+
+    /**
+     * K-way merge of the records of the tables, read block by block and written as they come out of the merge,
+     * so a compaction holds a few blocks per input in memory instead of the tables. If the keys have an
+     * order-preserving encoding the records are merged in serialized form, neither keys nor values are
+     * deserialized. A null bound leaves the range open on that side. The reads don't fill the block cache, the
+     * inputs are read once and deleted right after.
+     */
+    private static <K extends Comparable<K>, V> Iterator<RawRecord> mergedRecords(List<SSTable<K, V>> tables, byte[] from,
+                                                                                 byte[] to) throws IOException {
+        SSTable<K, V> first = tables.getFirst();
+
+        if (first.getKeySerDe() instanceof OrderedBinarySerDe<?>) {
+            List<Iterator<RawRecord>> inputs = new ArrayList<>(tables.size());
+            for (SSTable<K, V> table : tables) {
+                inputs.add(table.rawRecordIterator(from, to, ScanDirection.FORWARD, false));
+            }
+            return new MergingIterator<>(inputs, RAW_KEY_ORDER);
+        }
+
+        List<Iterator<DataRecord<K, V>>> inputs = new ArrayList<>(tables.size());
+        for (SSTable<K, V> table : tables) {
+            inputs.add(table.recordIterator(from, to, ScanDirection.FORWARD, false));
+        }
+        RecordSerializer<K, V> serializer = new RecordSerializer<>(first.getKeySerDe(), first.getValueSerDe());
+        Iterator<DataRecord<K, V>> merged = new MergingIterator<>(inputs, Comparator.naturalOrder());
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return merged.hasNext();
+            }
+
+            @Override
+            public RawRecord next() {
+                return serializer.toRaw(merged.next());
+            }
+        };
+    }
+
+    /**
+     * @return the records until their keys and values add up to {@code maxBytes}, the record that crosses the
+     * limit included
+     */
+    private static Iterator<RawRecord> limit(Iterator<RawRecord> records, long maxBytes) {
+        return new Iterator<>() {
+            private long bytes;
+
+            @Override
+            public boolean hasNext() {
+                return bytes < maxBytes && records.hasNext();
+            }
+
+            @Override
+            public RawRecord next() {
+                RawRecord record = records.next();
+                bytes += record.key().length + (record.value() == null ? 0 : record.value().length);
+                return record;
+            }
+        };
+    }
+
+    private static <K extends Comparable<K>, V> SSTable<K, V> newTable(SSTable<K, V> like) throws IOException {
+        return new SSTable<>("sstable-" + UUID.randomUUID(), like.getKeySerDe(), like.getValueSerDe(), like.getOptions());
+    }
 }
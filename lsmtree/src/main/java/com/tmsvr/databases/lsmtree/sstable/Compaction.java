@@ -0,0 +1,12 @@
+package com.tmsvr.databases.lsmtree.sstable;
+
+import java.util.List;
+
+/**
+ * Work of a single compaction.
+ *
+ * @param inputs      tables to merge, from the oldest to the newest
+ * @param outputLevel level the merged tables go to
+ */
+public record Compaction<K extends Comparable<K>, V>(List<SSTable<K, V>> inputs, int outputLevel) {
+}
@@ -0,0 +1,84 @@
+package com.tmsvr.databases.lsmtree.sstable;
+
+/**
+ * How a store compacts its SSTables, one record per strategy with the settings of that strategy.
+ */
+public sealed interface CompactionOptions {
+
+    /**
+     * Merges adjacent tables pairwise until the result has more than {@code sizeLimit} rows, see
+     * {@link RowCountBasedCompactor}.
+     */
+    record RowCount(int sizeLimit) implements CompactionOptions {
+        public RowCount {
+            if (sizeLimit <= 0) {
+                throw new IllegalArgumentException("Size limit must be positive: " + sizeLimit);
+            }
+        }
+    }
+
+    /**
+     * Merges runs of similar-sized tables at once, see {@link SizeTieredCompactor}.
+     *
+     * @param minThreshold fewest similar-sized tables worth a merge
+     * @param maxThreshold most tables merged at once
+     * @param bucketRatio  how far a table may be from the average size of a bucket to join it: its size has to
+     *                     be between the average divided and multiplied by the ratio
+     */
+    record SizeTiered(int minThreshold, int maxThreshold, double bucketRatio) implements CompactionOptions {
+        public static final int DEFAULT_MIN_THRESHOLD = 4;
+        public static final int DEFAULT_MAX_THRESHOLD = 32;
+        public static final double DEFAULT_BUCKET_RATIO = 1.5;
+
+        public SizeTiered {
+            if (minThreshold < 2) {
+                throw new IllegalArgumentException("Min threshold must be at least 2: " + minThreshold);
+            }
+            if (maxThreshold < minThreshold) {
+                throw new IllegalArgumentException("Max threshold must not be below the min threshold: " + maxThreshold);
+            }
+            if (bucketRatio < 1) {
+                throw new IllegalArgumentException("Bucket ratio must be at least 1: " + bucketRatio);
+            }
+        }
+
+        public static SizeTiered defaults() {
+            return new SizeTiered(DEFAULT_MIN_THRESHOLD, DEFAULT_MAX_THRESHOLD, DEFAULT_BUCKET_RATIO);
+        }
+    }
+
+    /**
+     * Keeps the tables in levels of non-overlapping key ranges, see {@link LeveledCompactor}.
+     *
+     * @param level0Trigger   flushed tables in level 0 that start a compaction into level 1
+     * @param targetFileSize  bytes of records after which a compaction starts a new output table
+     * @param baseLevelSize   bytes level 1 may hold before its tables are compacted into level 2
+     * @param levelMultiplier how many times larger every further level may grow than the one above it
+     */
+    record Leveled(int level0Trigger, long targetFileSize, long baseLevelSize, int levelMultiplier) implements CompactionOptions {
+        public static final int DEFAULT_LEVEL0_TRIGGER = 4;
+        public static final long DEFAULT_TARGET_FILE_SIZE = 2 * 1024 * 1024;
+        public static final long DEFAULT_BASE_LEVEL_SIZE = 10 * 1024 * 1024;
+        public static final int DEFAULT_LEVEL_MULTIPLIER = 10;
+
+        public Leveled {
+            if (level0Trigger < 1) {
+                throw new IllegalArgumentException("Level 0 trigger must be positive: " + level0Trigger);
+            }
+            if (targetFileSize <= 0) {
+                throw new IllegalArgumentException("Target file size must be positive: " + targetFileSize);
+            }
+            if (baseLevelSize <= 0) {
+                throw new IllegalArgumentException("Base level size must be positive: " + baseLevelSize);
+            }
+            if (levelMultiplier < 2) {
+                throw new IllegalArgumentException("Level multiplier must be at least 2: " + levelMultiplier);
+            }
+        }
+
+        public static Leveled defaults() {
+            return new Leveled(DEFAULT_LEVEL0_TRIGGER, DEFAULT_TARGET_FILE_SIZE, DEFAULT_BASE_LEVEL_SIZE,
+                    DEFAULT_LEVEL_MULTIPLIER);
+        }
+    }
+}
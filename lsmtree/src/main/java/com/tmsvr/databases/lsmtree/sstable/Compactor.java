@@ -2,7 +2,21 @@ package com.tmsvr.databases.lsmtree.sstable;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 public interface Compactor<K extends Comparable<K>, V> {
     List<SSTable<K, V>> compact(List<SSTable<K, V>> tables) throws IOException;
+
+    /**
+     * @param levels     the live tables
+     * @param compacting tables taken by running compactions, they must not be picked again
+     * @return the next compaction, or null if there is nothing to compact
+     */
+    Compaction<K, V> pick(Levels<K, V> levels, Set<SSTable<K, V>> compacting);
+
+    /**
+     * @param newTables tables flushed since the last compaction was scheduled
+     * @return whether a background compaction should be scheduled
+     */
+    boolean isDue(Levels<K, V> levels, int newTables);
 }
@@ -0,0 +1,25 @@
+package com.tmsvr.databases.lsmtree.sstable;
+
+import com.tmsvr.databases.serde.BinarySerDe;
+import com.tmsvr.databases.serde.ByteKeys;
+import com.tmsvr.databases.serde.OrderedBinarySerDe;
+
+import java.util.Comparator;
+
+/**
+ * Order of serialized keys in SSTables. Keys of an {@link OrderedBinarySerDe} are compared as bytes, other keys
+ * are deserialized and compared as objects, which is slower but keeps every key type usable.
+ */
+public final class KeyOrder {
+
+    private KeyOrder() {
+    }
+
+    public static <K extends Comparable<K>> Comparator<byte[]> of(BinarySerDe<K> keySerDe) {
+        if (keySerDe instanceof OrderedBinarySerDe<?>) {
+            return ByteKeys.COMPARATOR;
+        }
+
+        return (a, b) -> keySerDe.fromBytes(a).compareTo(keySerDe.fromBytes(b));
+    }
+}
@@ -0,0 +1,154 @@
+package com.tmsvr.databases.lsmtree.sstable;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Leveled compaction: flushed tables land in level 0, every deeper level is a sorted run of tables of about
+ * {@code targetFileSize} bytes with non-overlapping key ranges, so a lookup reads at most one table per level.
+ * Level 1 may hold {@code baseLevelSize} bytes, every further level {@code levelMultiplier} times more than the
+ * one above it.
+ * <p>
+ * Every level has a score, how full it is: level 0 by the number of tables against {@code level0Trigger}, the
+ * others by their bytes against their limit. The level with the highest score of at least 1 is compacted into
+ * the next one. Level 0 is compacted as a whole, from a deeper level one table is picked, the one that overlaps
+ * the fewest bytes of the next level for its size. The picked tables are merged with every table of the next
+ * level their key range overlaps and the result replaces them there, split at {@code targetFileSize}.
+ * <p>
+ * Compactions that would share a table don't run at the same time, those on separate key ranges or levels do.
+ * <p>
+ * Input tables whose key ranges don't overlap, as with increasing keys, are moved to the next level without
+ * being rewritten.
+ */
+@Slf4j
+public class LeveledCompactor<K extends Comparable<K>, V> extends AbstractCompactor<K, V> {
+    static final int MAX_LEVELS = 7;
+
+    private final int level0Trigger;
+    private final long targetFileSize;
+    private final long baseLevelSize;
+    private final int levelMultiplier;
+
+    public LeveledCompactor(int level0Trigger, long targetFileSize, long baseLevelSize, int levelMultiplier) {
+        this.level0Trigger = level0Trigger;
+        this.targetFileSize = targetFileSize;
+        this.baseLevelSize = baseLevelSize;
+        this.levelMultiplier = levelMultiplier;
+    }
+
+    @Override
+    public List<SSTable<K, V>> compact(List<SSTable<K, V>> tables) throws IOException {
+        if (disjointInKeyOrder(tables) != null) {
+            // Nothing overlaps in the next level, the tables move there as they are
+            log.info("Moving tables to the next level: " + tables.stream().map(SSTable::getName).collect(Collectors.joining(", ")));
+            return tables;
+        }
+
+        log.info("Running compaction on tables: " + tables.stream().map(SSTable::getName).collect(Collectors.joining(", ")));
+        List<SSTable<K, V>> result = merge(tables, targetFileSize);
+        log.info("Compaction result tables: " + result.stream().map(SSTable::getName).collect(Collectors.joining(", ")));
+        return result;
+    }
+
+    @Override
+    public Compaction<K, V> pick(Levels<K, V> levels, Set<SSTable<K, V>> compacting) {
+        List<Integer> candidates = new ArrayList<>();
+        for (int level = 0; level < Math.min(levels.depth(), MAX_LEVELS - 1); level++) {
+            if (score(levels, level) >= 1) {
+                candidates.add(level);
+            }
+        }
+        candidates.sort((a, b) -> Double.compare(score(levels, b), score(levels, a)));
+
+        for (int level : candidates) {
+            Compaction<K, V> compaction = level == 0 ? pickLevel0(levels, compacting) : pickTable(levels, level, compacting);
+            if (compaction != null) {
+                return compaction;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isDue(Levels<K, V> levels, int newTables) {
+        for (int level = 0; level < Math.min(levels.depth(), MAX_LEVELS - 1); level++) {
+            if (score(levels, level) >= 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return how full the level is, a level at 1 or above is due for compaction
+     */
+    double score(Levels<K, V> levels, int level) {
+        if (level == 0) {
+            return (double) levels.level(0).size() / level0Trigger;
+        }
+        return (double) levels.bytes(level) / maxBytes(level);
+    }
+
+    private double maxBytes(int level) {
+        return baseLevelSize * Math.pow(levelMultiplier, level - 1);
+    }
+
+    private Compaction<K, V> pickLevel0(Levels<K, V> levels, Set<SSTable<K, V>> compacting) {
+        List<SSTable<K, V>> level0 = levels.level(0);
+        if (level0.stream().anyMatch(compacting::contains)) {
+            return null;
+        }
+
+        // The whole key range of level 0, so the outputs can't overlap a level 1 table that is left out
+        List<SSTable<K, V>> overlapping = levels.overlapping(1, levels.firstKey(level0), levels.lastKey(level0));
+        if (overlapping.stream().anyMatch(compacting::contains)) {
+            return null;
+        }
+
+        List<SSTable<K, V>> inputs = new ArrayList<>(overlapping);
+        inputs.addAll(level0);
+        return new Compaction<>(List.copyOf(inputs), 1);
+    }
+
+    private Compaction<K, V> pickTable(Levels<K, V> levels, int level, Set<SSTable<K, V>> compacting) {
+        SSTable<K, V> best = null;
+        List<SSTable<K, V>> bestOverlapping = null;
+        double bestRatio = Double.MAX_VALUE;
+
+        for (SSTable<K, V> table : levels.level(level)) {
+            if (compacting.contains(table)) {
+                continue;
+            }
+
+            List<SSTable<K, V>> overlapping = levels.overlapping(level + 1, table.getFirstKey(), table.getLastKey());
+            if (overlapping.stream().anyMatch(compacting::contains)) {
+                continue;
+            }
+
+            long overlappingBytes = 0;
+            for (SSTable<K, V> next : overlapping) {
+                overlappingBytes += next.getDiskSize();
+            }
+            double ratio = (double) overlappingBytes / Math.max(1, table.getDiskSize());
+
+            if (ratio < bestRatio) {
+                best = table;
+                bestOverlapping = overlapping;
+                bestRatio = ratio;
+            }
+        }
+
+        if (best == null) {
+            return null;
+        }
+
+        List<SSTable<K, V>> inputs = new ArrayList<>(bestOverlapping);
+        inputs.add(best);
+        return new Compaction<>(List.copyOf(inputs), level + 1);
+    }
+}
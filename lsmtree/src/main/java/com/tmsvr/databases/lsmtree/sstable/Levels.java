@@ -0,0 +1,223 @@
+package com.tmsvr.databases.lsmtree.sstable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the live SSTables, by level. Level 0 holds the flushed tables from the oldest to the
+ * newest, their key ranges may overlap. Every deeper level is a single sorted run: its tables are ordered by
+ * key and their key ranges don't overlap, so a key can only be in one table of the level. A level holds older
+ * records than the levels above it.
+ * <p>
+ * Stores that don't compact into levels only ever use level 0.
+ */
+public final class Levels<K extends Comparable<K>, V> {
+    private final List<List<SSTable<K, V>>> levels;
+    private final Comparator<byte[]> keyOrder;
+
+    private Levels(List<List<SSTable<K, V>>> levels, Comparator<byte[]> keyOrder) {
+        this.levels = levels;
+        this.keyOrder = keyOrder;
+    }
+
+    public static <K extends Comparable<K>, V> Levels<K, V> empty(Comparator<byte[]> keyOrder) {
+        return new Levels<>(List.of(List.of()), keyOrder);
+    }
+
+    /**
+     * @return number of levels, the deepest one is not empty unless there is only level 0
+     */
+    public int depth() {
+        return levels.size();
+    }
+
+    /**
+     * @return the tables of the level, level 0 from the oldest to the newest and the others by key
+     */
+    public List<SSTable<K, V>> level(int level) {
+        return level < levels.size() ? levels.get(level) : List.of();
+    }
+
+    public Comparator<byte[]> keyOrder() {
+        return keyOrder;
+    }
+
+    /**
+     * @return every table, the deepest level first and level 0 from the oldest to the newest last, so later
+     * tables have newer records
+     */
+    public List<SSTable<K, V>> all() {
+        List<SSTable<K, V>> all = new ArrayList<>();
+        for (int level = levels.size() - 1; level >= 0; level--) {
+            all.addAll(levels.get(level));
+        }
+        return all;
+    }
+
+    /**
+     * @return sum of the data file sizes of the level
+     */
+    public long bytes(int level) {
+        long bytes = 0;
+        for (SSTable<K, V> table : level(level)) {
+            bytes += table.getDiskSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the tables that may hold the key, newest first: every table of level 0 and at most one of every
+     * deeper level
+     */
+    public List<SSTable<K, V>> candidates(byte[] key) {
+        List<SSTable<K, V>> level0 = levels.getFirst();
+        List<SSTable<K, V>> candidates = new ArrayList<>(level0.size() + levels.size() - 1);
+        for (int i = level0.size() - 1; i >= 0; i--) {
+            candidates.add(level0.get(i));
+        }
+
+        for (int level = 1; level < levels.size(); level++) {
+            SSTable<K, V> table = find(levels.get(level), key);
+            if (table != null) {
+                candidates.add(table);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return the table of a level below 0 whose key range holds the key, or null if there is none
+     */
+    public SSTable<K, V> find(int level, byte[] key) {
+        return find(level(level), key);
+    }
+
+    private SSTable<K, V> find(List<SSTable<K, V>> run, byte[] key) {
+        int low = 0;
+        int high = run.size() - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            SSTable<K, V> table = run.get(middle);
+            if (table.getFirstKey() != null && keyOrder.compare(key, table.getFirstKey()) < 0) {
+                high = middle - 1;
+            } else if (table.getLastKey() != null && keyOrder.compare(key, table.getLastKey()) > 0) {
+                low = middle + 1;
+            } else {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the tables of the level whose key range overlaps the given range, a null bound is unbounded
+     */
+    public List<SSTable<K, V>> overlapping(int level, byte[] first, byte[] last) {
+        List<SSTable<K, V>> overlapping = new ArrayList<>();
+        for (SSTable<K, V> table : level(level)) {
+            boolean before = last != null && table.getFirstKey() != null && keyOrder.compare(table.getFirstKey(), last) > 0;
+            boolean after = first != null && table.getLastKey() != null && keyOrder.compare(table.getLastKey(), first) < 0;
+            if (!before && !after) {
+                overlapping.add(table);
+            }
+        }
+        return overlapping;
+    }
+
+    /**
+     * @return the smallest first key of the tables, or null if any of them has no known range
+     */
+    public byte[] firstKey(List<SSTable<K, V>> tables) {
+        byte[] first = null;
+        for (SSTable<K, V> table : tables) {
+            if (table.getFirstKey() == null) {
+                return null;
+            }
+            if (first == null || keyOrder.compare(table.getFirstKey(), first) < 0) {
+                first = table.getFirstKey();
+            }
+        }
+        return first;
+    }
+
+    /**
+     * @return the largest last key of the tables, or null if any of them has no known range
+     */
+    public byte[] lastKey(List<SSTable<K, V>> tables) {
+        byte[] last = null;
+        for (SSTable<K, V> table : tables) {
+            if (table.getLastKey() == null) {
+                return null;
+            }
+            if (last == null || keyOrder.compare(table.getLastKey(), last) > 0) {
+                last = table.getLastKey();
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @return levels with the table added to the level, as the newest table of level 0 or in key order deeper
+     */
+    public Levels<K, V> with(SSTable<K, V> table, int level) {
+        List<List<SSTable<K, V>>> result = mutableCopy(Math.max(levels.size(), level + 1));
+        result.get(level).add(table);
+        return build(result);
+    }
+
+    /**
+     * Swaps the output of a compaction for its inputs. Outputs of level 0 take the place of the first input, the
+     * inputs of a level 0 compaction are always next to each other. Outputs of deeper levels are put in key order.
+     */
+    public Levels<K, V> replace(List<SSTable<K, V>> inputs, List<SSTable<K, V>> outputs, int outputLevel) {
+        List<List<SSTable<K, V>>> result = mutableCopy(Math.max(levels.size(), outputLevel + 1));
+        int position = indexOf(result.get(outputLevel), inputs.getFirst());
+
+        for (List<SSTable<K, V>> level : result) {
+            level.removeIf(table -> indexOf(inputs, table) >= 0);
+        }
+
+        List<SSTable<K, V>> target = result.get(outputLevel);
+        if (outputLevel == 0 && position >= 0) {
+            target.addAll(position, outputs);
+        } else {
+            target.addAll(outputs);
+        }
+        return build(result);
+    }
+
+    private List<List<SSTable<K, V>>> mutableCopy(int depth) {
+        List<List<SSTable<K, V>>> copy = new ArrayList<>(depth);
+        for (int level = 0; level < depth; level++) {
+            copy.add(new ArrayList<>(level(level)));
+        }
+        return copy;
+    }
+
+    private Levels<K, V> build(List<List<SSTable<K, V>>> result) {
+        while (result.size() > 1 && result.getLast().isEmpty()) {
+            result.removeLast();
+        }
+
+        List<List<SSTable<K, V>>> frozen = new ArrayList<>(result.size());
+        for (int level = 0; level < result.size(); level++) {
+            List<SSTable<K, V>> tables = result.get(level);
+            if (level > 0) {
+                tables.sort(Comparator.comparing(SSTable::getFirstKey, Comparator.nullsFirst(keyOrder)));
+            }
+            frozen.add(List.copyOf(tables));
+        }
+        return new Levels<>(List.copyOf(frozen), keyOrder);
+    }
+
+    static <T> int indexOf(List<T> list, T element) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == element) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
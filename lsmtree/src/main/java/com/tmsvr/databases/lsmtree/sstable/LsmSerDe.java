@@ -1,10 +1,18 @@
 package com.tmsvr.databases.lsmtree.sstable;
 
+import com.tmsvr.databases.serde.BinarySerDe;
+import com.tmsvr.databases.serde.BinarySerDes;
 import com.tmsvr.databases.serde.SerDe;
 
+import java.nio.ByteBuffer;
 import java.util.function.Function;
 
-public class LsmSerDe<T> implements SerDe<T> {
+/**
+ * String based SerDe built from two functions. It is also a {@link BinarySerDe}, in binary form the String
+ * representation is stored UTF-8 encoded. Tombstones and the separator are only relevant for the String
+ * form, binary records store tombstones in their length field and need no separator.
+ */
+public class LsmSerDe<T> implements SerDe<T>, BinarySerDe<T> {
     private static final String TOMBSTONE = "<TOMBSTONE>";
     public static final String SEPARATOR = "::";
 
@@ -39,4 +47,14 @@ public class LsmSerDe<T> implements SerDe<T> {
 
         return result;
     }
-}
\ No newline at end of file
+
+    @Override
+    public int serialize(T input, ByteBuffer target) {
+        return BinarySerDes.writeUtf8(serializer.apply(input), target);
+    }
+
+    @Override
+    public T deserialize(ByteBuffer source, int length) {
+        return deserializer.apply(BinarySerDes.readUtf8(source, length));
+    }
+}
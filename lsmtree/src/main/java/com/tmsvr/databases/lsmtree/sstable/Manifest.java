@@ -0,0 +1,87 @@
+package com.tmsvr.databases.lsmtree.sstable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * The list of live SSTables of a store, one file name per line. Tables of level 0 are listed from the oldest to
+ * the newest with their name alone, tables of deeper levels have their level after the name. The directory
+ * may hold other tables too: the output of a compaction or flush that did not finish, and the inputs of a
+ * compaction that still had readers when the store stopped. Only the tables in the manifest are part of the
+ * store, and their order decides which value of a key is the newest.
+ * <p>
+ * The manifest is replaced as a whole: the new version is written to a temporary file, forced to disk and
+ * renamed over the old one, so a crash leaves either the old or the new list.
+ */
+public class Manifest {
+    public static final String FILE_NAME = "MANIFEST";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path file;
+
+    public Manifest() {
+        this(Paths.get(FILE_NAME));
+    }
+
+    public Manifest(Path file) {
+        this.file = file;
+    }
+
+    public boolean exists() {
+        return Files.exists(file);
+    }
+
+    public List<Entry> read() throws IOException {
+        return Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+                .filter(line -> !line.isBlank())
+                .map(Entry::parse)
+                .toList();
+    }
+
+    public void write(List<Entry> entries) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        StringBuilder content = new StringBuilder();
+        for (Entry entry : entries) {
+            content.append(entry).append('\n');
+        }
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * A live table: the name of its data file and its level.
+     */
+    public record Entry(String name, int level) {
+
+        public Entry(String name) {
+            this(name, 0);
+        }
+
+        static Entry parse(String line) {
+            String[] parts = line.trim().split(" ");
+            return parts.length == 1 ? new Entry(parts[0]) : new Entry(parts[0], Integer.parseInt(parts[1]));
+        }
+
+        @Override
+        public String toString() {
+            return level == 0 ? name : name + " " + level;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.tmsvr.databases.lsmtree.sstable;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * K-way merge of sorted iterators with a heap of one cursor per input. The inputs are ordered from the oldest
+ * to the newest and have unique keys. Cursors on the same key come out of the heap newest first, the newest
+ * record is returned and the others are skipped. Only the current record of every input is held, so the merge
+ * needs the same memory no matter how long the inputs are.
+ */
+public final class MergingIterator<T> implements Iterator<T> {
+    private final PriorityQueue<Cursor<T>> heap;
+    private final Comparator<T> comparator;
+
+    public MergingIterator(List<? extends Iterator<T>> inputs, Comparator<T> comparator) {
+        this.comparator = comparator;
+        this.heap = new PriorityQueue<>(Math.max(1, inputs.size()),
+                Comparator.<Cursor<T>, T>comparing(Cursor::current, comparator)
+                        .thenComparing(Comparator.comparingInt(Cursor<T>::recency).reversed()));
+
+        for (int recency = 0; recency < inputs.size(); recency++) {
+            Iterator<T> input = inputs.get(recency);
+            if (input.hasNext()) {
+                heap.add(new Cursor<>(input, recency));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if (heap.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+
+        Cursor<T> newest = heap.poll();
+        T next = newest.current();
+        advance(newest);
+
+        while (!heap.isEmpty() && comparator.compare(heap.peek().current(), next) == 0) {
+            advance(heap.poll());
+        }
+        return next;
+    }
+
+    private void advance(Cursor<T> cursor) {
+        if (cursor.records.hasNext()) {
+            cursor.current = cursor.records.next();
+            heap.add(cursor);
+        }
+    }
+
+    private static final class Cursor<T> {
+        private final Iterator<T> records;
+        // Position of the input from the oldest, a higher recency is a newer table
+        private final int recency;
+        private T current;
+
+        Cursor(Iterator<T> records, int recency) {
+            this.records = records;
+            this.recency = recency;
+            this.current = records.next();
+        }
+
+        T current() {
+            return current;
+        }
+
+        int recency() {
+            return recency;
+        }
+    }
+}
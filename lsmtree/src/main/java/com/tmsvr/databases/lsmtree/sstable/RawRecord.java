@@ -0,0 +1,9 @@
+package com.tmsvr.databases.lsmtree.sstable;
+
+/**
+ * A record with its key and value still in serialized form, a null value is a tombstone. Used where records
+ * only have to be moved around, like compaction, so they don't have to be deserialized and serialized again.
+ * As the components are arrays, records are compared by identity.
+ */
+public record RawRecord(byte[] key, byte[] value) {
+}
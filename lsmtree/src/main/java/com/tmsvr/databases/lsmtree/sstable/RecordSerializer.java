@@ -0,0 +1,165 @@
+package com.tmsvr.databases.lsmtree.sstable;
+
+import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.lsmtree.util.GrowingBuffer;
+import com.tmsvr.databases.serde.BinarySerDe;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary layout of a key-value record, shared by the commit log and the SSTable data files: key length (int),
+ * key bytes, value length (int, {@value #TOMBSTONE_LENGTH} for a deleted key) and value bytes.
+ */
+public class RecordSerializer<K extends Comparable<K>, V> {
+    public static final int TOMBSTONE_LENGTH = -1;
+
+    private final BinarySerDe<K> keySerDe;
+    private final BinarySerDe<V> valueSerDe;
+
+    public RecordSerializer(BinarySerDe<K> keySerDe, BinarySerDe<V> valueSerDe) {
+        this.keySerDe = keySerDe;
+        this.valueSerDe = valueSerDe;
+    }
+
+    public BinarySerDe<K> getKeySerDe() {
+        return keySerDe;
+    }
+
+    public BinarySerDe<V> getValueSerDe() {
+        return valueSerDe;
+    }
+
+    public void write(K key, V value, GrowingBuffer target) {
+        int keyLengthPosition = target.position();
+        target.putInt(0);
+        target.putInt(keyLengthPosition, target.put(keySerDe, key));
+
+        if (value == null) {
+            target.putInt(TOMBSTONE_LENGTH);
+        } else {
+            int valueLengthPosition = target.position();
+            target.putInt(0);
+            target.putInt(valueLengthPosition, target.put(valueSerDe, value));
+        }
+    }
+
+    public RawRecord toRaw(DataRecord<K, V> record) {
+        return new RawRecord(keySerDe.toBytes(record.key()), record.value() == null ? null : valueSerDe.toBytes(record.value()));
+    }
+
+    public static void write(RawRecord record, GrowingBuffer target) {
+        target.putInt(record.key().length);
+        target.put(record.key());
+
+        if (record.value() == null) {
+            target.putInt(TOMBSTONE_LENGTH);
+        } else {
+            target.putInt(record.value().length);
+            target.put(record.value());
+        }
+    }
+
+    /**
+     * Reads the record at the position of the buffer.
+     *
+     * @return the record, or null if the buffer ends in the middle of the record. The position of the buffer is
+     * only advanced when a full record was read.
+     */
+    public DataRecord<K, V> read(ByteBuffer source) {
+        int start = source.position();
+
+        if (source.remaining() < Integer.BYTES) {
+            return null;
+        }
+
+        int keyLength = source.getInt();
+        if (keyLength < 0 || source.remaining() < keyLength + Integer.BYTES) {
+            source.position(start);
+            return null;
+        }
+
+        K key = keySerDe.deserialize(source, keyLength);
+        int valueLength = source.getInt();
+
+        if (valueLength == TOMBSTONE_LENGTH) {
+            return new DataRecord<>(key, null);
+        }
+
+        if (valueLength < 0 || source.remaining() < valueLength) {
+            source.position(start);
+            return null;
+        }
+
+        return new DataRecord<>(key, valueSerDe.deserialize(source, valueLength));
+    }
+
+    /**
+     * Reads the record at the position of the buffer without deserializing the key and the value.
+     *
+     * @return the record, or null if the buffer ends in the middle of the record, see {@link #read(ByteBuffer)}
+     */
+    public static RawRecord readRaw(ByteBuffer source) {
+        int start = source.position();
+
+        if (source.remaining() < Integer.BYTES) {
+            return null;
+        }
+
+        int keyLength = source.getInt();
+        if (keyLength < 0 || source.remaining() < keyLength + Integer.BYTES) {
+            source.position(start);
+            return null;
+        }
+
+        byte[] key = new byte[keyLength];
+        source.get(key);
+        int valueLength = source.getInt();
+
+        if (valueLength == TOMBSTONE_LENGTH) {
+            return new RawRecord(key, null);
+        }
+
+        if (valueLength < 0 || source.remaining() < valueLength) {
+            source.position(start);
+            return null;
+        }
+
+        byte[] value = new byte[valueLength];
+        source.get(value);
+        return new RawRecord(key, value);
+    }
+
+    /**
+     * Moves the position of the buffer over the next record without deserializing it.
+     *
+     * @return false if the buffer ends in the middle of the record
+     */
+    public boolean skip(ByteBuffer source) {
+        int start = source.position();
+
+        if (source.remaining() < Integer.BYTES) {
+            return false;
+        }
+
+        int keyLength = source.getInt();
+        if (keyLength < 0 || source.remaining() < keyLength + Integer.BYTES) {
+            source.position(start);
+            return false;
+        }
+
+        source.position(source.position() + keyLength);
+        int valueLength = source.getInt();
+
+        if (valueLength == TOMBSTONE_LENGTH) {
+            return true;
+        }
+
+        if (valueLength < 0 || source.remaining() < valueLength) {
+            source.position(start);
+            return false;
+        }
+
+        source.position(source.position() + valueLength);
+        return true;
+    }
+}
@@ -30,7 +30,14 @@ public class RowCountBasedCompactor<K extends Comparable<K>, V> extends Abstract
                 SSTable<K, V> mergedTable = table;
 
                 while (i + 1 < tables.size() && mergedTable.getSize() <= compactionSizeLimit) {
-                    mergedTable = merge(mergedTable, tables.get(i + 1));
+                    SSTable<K, V> nextMergedTable = merge(mergedTable, tables.get(i + 1));
+
+                    if (mergedTable != table) {
+                        // Intermediate result of this loop, nothing else refers to it
+                        mergedTable.retire();
+                    }
+
+                    mergedTable = nextMergedTable;
                     i++;
                 }
 
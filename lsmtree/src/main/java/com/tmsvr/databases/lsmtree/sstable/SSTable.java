@@ -1,56 +1,191 @@
 package com.tmsvr.databases.lsmtree.sstable;
 
 import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.ScanDirection;
+import com.tmsvr.databases.lsmtree.sstable.SSTableOptions.ReadMode;
+import com.tmsvr.databases.lsmtree.sstable.block.Block;
+import com.tmsvr.databases.lsmtree.sstable.block.BlockBuilder;
+import com.tmsvr.databases.lsmtree.sstable.block.BlockCache;
+import com.tmsvr.databases.lsmtree.sstable.block.BlockIndex;
 import com.tmsvr.databases.lsmtree.sstable.bloomfilter.BloomFilter;
 import com.tmsvr.databases.lsmtree.sstable.index.Index;
-import com.tmsvr.databases.serde.SerDe;
+import com.tmsvr.databases.serde.BinarySerDe;
+import com.tmsvr.databases.serde.OrderedBinarySerDe;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static com.tmsvr.databases.lsmtree.LsmDataStore.FLUSH_TO_DISK_LIMIT;
-import static com.tmsvr.databases.lsmtree.sstable.LsmSerDe.SEPARATOR;
+import static com.tmsvr.databases.lsmtree.sstable.RecordSerializer.TOMBSTONE_LENGTH;
 
+/**
+ * Sorted, immutable table of records on disk. The data file is a sequence of data blocks of about
+ * {@link SSTableOptions#blockSize()} bytes, closed by a sparse {@link BlockIndex} with one key per block. A lookup
+ * binary searches the block index, reads a single block and binary searches inside it.
+ * <p>
+ * The data file stays open while the table is in use. By default blocks are fetched with a single positional
+ * read on a shared {@link FileChannel}, so concurrent lookups don't interfere with each other. In
+ * {@link ReadMode#MMAP} mode the whole file is mapped into one {@link MemorySegment} and blocks are read from it
+ * without any copy. The table has to be closed once it is not used anymore, closing unmaps the file right away.
+ * <p>
+ * Blocks read with a positional read go through the {@link SSTableOptions#blockCache()} shared by the tables of
+ * the store. Compaction and full table scans read every block once, they don't fill the cache and don't look into
+ * it either.
+ * <p>
+ * Lookups don't lock, a table shared by concurrent readers is released with {@link #retire()} instead of
+ * {@link #close()}: readers {@link #acquire()} the table for the duration of a read and the last one to leave a
+ * retired table closes it and deletes its files.
+ * <p>
+ * Tables written before the block format have a separate {@code .index} file with the offset of every key,
+ * they can still be read but new tables are always written in the block format.
+ */
 @Slf4j
-public class SSTable<K extends Comparable<K>, V> {
+public class SSTable<K extends Comparable<K>, V> implements Closeable {
     private static final String DATA_FILE_SUFFIX = ".data";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int READ_AHEAD_SIZE = 256 * 1024;
+    // Set in the reader count once the table is retired, the rest of the bits count the readers
+    private static final int RETIRED = Integer.MIN_VALUE;
 
+    private final String filename;
     private final Path dataFile;
-    private final SerDe<K> keySerDe;
-    private final SerDe<V> valueSerDe;
-    private final Index<K> index;
-    private final BloomFilter<K> filter;
+    private final SSTableOptions options;
+    private final RecordSerializer<K, V> serializer;
+    private final Comparator<byte[]> keyOrder;
+    private BloomFilter filter;
+    private final BlockCache blockCache;
+    private final BlockCache.Table cacheTable = BlockCache.newTable();
+    private final Index<K> legacyIndex;
+    private BlockIndex blockIndex;
+    private long diskSize;
+    private FileChannel channel;
+    private Arena arena;
+    private MemorySegment mapping;
+    private final AtomicInteger readers = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
 
-    public SSTable(String filename, SerDe<K> keySerDe, SerDe<V> valueSerDe) throws IOException {
+    public SSTable(String filename, BinarySerDe<K> keySerDe, BinarySerDe<V> valueSerDe) throws IOException {
+        this(filename, keySerDe, valueSerDe, SSTableOptions.defaults());
+    }
+
+    public SSTable(String filename, BinarySerDe<K> keySerDe, BinarySerDe<V> valueSerDe, SSTableOptions options) throws IOException {
+        this.filename = filename;
         this.dataFile = Paths.get(filename + DATA_FILE_SUFFIX);
-        this.keySerDe = keySerDe;
-        this.valueSerDe = valueSerDe;
-        this.index = new Index<>(filename, keySerDe);
-        this.filter = new BloomFilter<>(FLUSH_TO_DISK_LIMIT, 0.01, filename);
+        this.options = options;
+        this.serializer = new RecordSerializer<>(keySerDe, valueSerDe);
+        this.keyOrder = KeyOrder.of(keySerDe);
+        this.filter = BloomFilter.loadFromDisk(filename);
+        this.blockCache = options.readMode() == ReadMode.MMAP ? null : options.blockCache();
+
+        Index<K> index = new Index<>(filename, keySerDe);
+        this.legacyIndex = index.exists() ? index : null;
+
+        if (Files.exists(dataFile)) {
+            openDataFile();
+            if (filter == null) {
+                filter = rebuildFilter();
+            }
+        }
+    }
+
+    /**
+     * Tables written before the binary filter format have a filter that can't be read anymore, it is built again
+     * from the keys of the table, once. So is a filter file that is missing.
+     */
+    private BloomFilter rebuildFilter() throws IOException {
+        log.info("Rebuilding the filter of SSTable {}", getName());
+        BloomFilter.Builder builder = new BloomFilter.Builder();
+        Iterator<RawRecord> records = rawRecordIterator();
+        while (records.hasNext()) {
+            builder.add(records.next().key());
+        }
+
+        BloomFilter rebuilt = builder.build(BloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+        rebuilt.saveToDisk(filename);
+        return rebuilt;
+    }
+
+    private void openDataFile() throws IOException {
+        FileChannel fileChannel = FileChannel.open(dataFile, StandardOpenOption.READ);
+        diskSize = fileChannel.size();
+
+        if (legacyIndex == null && blockIndex == null) {
+            blockIndex = BlockIndex.read(fileChannel);
+        }
+
+        if (legacyIndex == null && options.readMode() == ReadMode.MMAP) {
+            // The mapping stays valid after the channel is closed, until the arena is closed
+            try (fileChannel) {
+                arena = Arena.ofShared();
+                mapping = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size(), arena);
+            }
+        } else {
+            channel = fileChannel;
+        }
     }
 
     public int getSize() {
-        return index.getSize();
+        if (legacyIndex != null) {
+            return legacyIndex.getSize();
+        }
+
+        return blockIndex == null ? 0 : (int) blockIndex.getEntryCount();
+    }
+
+    /**
+     * @return size of the data file in bytes, 0 before the table is written
+     */
+    public long getDiskSize() {
+        return diskSize;
+    }
+
+    /**
+     * @return the smallest serialized key, or null if the table is empty or has no block index to tell
+     */
+    public byte[] getFirstKey() {
+        return blockIndex == null ? null : blockIndex.getFirstKey();
+    }
+
+    /**
+     * @return the largest serialized key, or null if the table is empty or has no block index to tell
+     */
+    public byte[] getLastKey() {
+        return blockIndex == null ? null : blockIndex.getLastKey();
+    }
+
+    public SSTableOptions getOptions() {
+        return options;
     }
 
-    public SerDe<K> getKeySerDe() {
-        return keySerDe;
+    public BinarySerDe<K> getKeySerDe() {
+        return serializer.getKeySerDe();
     }
 
-    public SerDe<V> getValueSerDe() {
-        return valueSerDe;
+    public BinarySerDe<V> getValueSerDe() {
+        return serializer.getValueSerDe();
     }
 
     public String getName() {
@@ -58,82 +193,716 @@ public class SSTable<K extends Comparable<K>, V> {
     }
 
     public void write(List<DataRecord<K, V>> records) throws IOException {
-        Map<K, V> collected = records.stream().collect(Collectors.toMap(DataRecord::key, DataRecord::value, (v1, _) -> v1, TreeMap::new));
+        // Not Collectors.toMap, it does not accept the null values of tombstones
+        Map<K, V> collected = new TreeMap<>();
+        for (DataRecord<K, V> dataRecord : records) {
+            if (!collected.containsKey(dataRecord.key())) {
+                collected.put(dataRecord.key(), dataRecord.value());
+            }
+        }
         this.write(collected);
     }
 
     public void write(Map<K, V> data) throws IOException {
-        if (index.exists()) {
-            log.warn("SSTable can't be written, Index file already exists");
+        Map<K, V> sortedData = (data instanceof TreeMap) ? data : new TreeMap<>(data);
+
+        writeSorted(sortedData.entrySet().stream()
+                .map(entry -> new RawRecord(getKeySerDe().toBytes(entry.getKey()),
+                        entry.getValue() == null ? null : getValueSerDe().toBytes(entry.getValue())))
+                .iterator());
+    }
+
+    /**
+     * Writes records that are already serialized. They must be unique and sorted the way the keys sort, which
+     * is the order of their bytes when the key SerDe is an {@link OrderedBinarySerDe}.
+     */
+    public void writeRaw(List<RawRecord> records) throws IOException {
+        writeSorted(records.iterator());
+    }
+
+    /**
+     * Writes records that are already serialized as they come, see {@link #writeRaw(List)}. Only the block being
+     * built is held in memory, so the records may come from a merge of tables of any size.
+     */
+    public void writeRaw(Iterator<RawRecord> records) throws IOException {
+        writeSorted(records);
+    }
+
+    /**
+     * Writes the records of tables with key ranges that don't overlap, given in the order of their keys. The data
+     * blocks are copied as they are, nothing is deserialized or rebuilt: the block index is put together from the
+     * indexes of the tables, and the filter from their filters, see {@link BloomFilter#concatenate}. The tables
+     * must be in the block format.
+     */
+    public void writeConcatenation(List<SSTable<K, V>> tables) throws IOException {
+        if (Files.exists(dataFile)) {
+            log.warn("SSTable can't be written, data file already exists");
             return;
         }
 
-        Map<K, V> sortedData = (data instanceof TreeMap) ? data : new TreeMap<>(data);
+        log.info("Writing SSTable to disk by concatenation: {}", dataFile.getFileName().toString());
+
+        BlockIndex index = new BlockIndex();
+        List<BloomFilter> filters = new ArrayList<>(tables.size());
+        int[] firstBlocks = new int[tables.size()];
+
+        try (FileChannel out = FileChannel.open(dataFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long offset = 0;
+
+            for (int i = 0; i < tables.size(); i++) {
+                SSTable<K, V> table = tables.get(i);
+                long dataSize = table.blockIndex.getDataSize();
+                try (FileChannel in = FileChannel.open(table.dataFile, StandardOpenOption.READ)) {
+                    long copied = 0;
+                    while (copied < dataSize) {
+                        copied += in.transferTo(copied, dataSize - copied, out);
+                    }
+                }
+
+                firstBlocks[i] = index.getBlockCount();
+                filters.add(table.filter);
+                index.append(table.blockIndex, offset);
+                offset += dataSize;
+            }
+
+            ByteBuffer indexBytes = index.toBytes(offset);
+            while (indexBytes.hasRemaining()) {
+                out.write(indexBytes);
+            }
+        }
+
+        BloomFilter concatenatedFilter = BloomFilter.concatenate(filters, firstBlocks);
+        concatenatedFilter.saveToDisk(filename);
+        this.filter = concatenatedFilter;
+        this.blockIndex = index;
+        openDataFile();
+    }
+
+    private void writeSorted(Iterator<RawRecord> records) throws IOException {
+        if (Files.exists(dataFile)) {
+            log.warn("SSTable can't be written, data file already exists");
+            return;
+        }
 
         log.info("Writing SSTable to disk: {}", dataFile.getFileName().toString());
 
-        try (BufferedWriter writer = Files.newBufferedWriter(dataFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        BlockIndex index = new BlockIndex();
+        BloomFilter.Builder filterBuilder = new BloomFilter.Builder();
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(dataFile, StandardOpenOption.CREATE_NEW), WRITE_BUFFER_SIZE)) {
+            BlockBuilder block = new BlockBuilder(options.blockSize());
             long offset = 0;
+            byte[] lastKey = null;
+
+            while (records.hasNext()) {
+                RawRecord dataRecord = records.next();
 
-            for (Map.Entry<K, V> entry : sortedData.entrySet()) {
-                String line = keySerDe.serialize(entry.getKey()) + SEPARATOR + valueSerDe.serialize(entry.getValue()) + System.lineSeparator();
-                writer.write(line);
+                block.add(dataRecord);
+                filterBuilder.add(dataRecord.key());
+                lastKey = dataRecord.key();
 
-                filter.add(entry.getKey());
-                index.add(entry.getKey(), offset);
+                if (block.estimatedSize() >= options.blockSize()) {
+                    offset += writeBlock(block, offset, index, out);
+                }
+            }
 
-                offset += line.getBytes(StandardCharsets.UTF_8).length;
+            if (!block.isEmpty()) {
+                offset += writeBlock(block, offset, index, out);
             }
+
+            index.setLastKey(lastKey);
+            ByteBuffer indexBytes = index.toBytes(offset);
+            out.write(indexBytes.array(), 0, indexBytes.limit());
         }
 
-        filter.saveToDisk();
-        index.saveToDisk();
+        BloomFilter builtFilter = filterBuilder.build(BloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+        builtFilter.saveToDisk(filename);
+        this.filter = builtFilter;
+        this.blockIndex = index;
+        openDataFile();
+    }
+
+    private static int writeBlock(BlockBuilder block, long offset, BlockIndex index, OutputStream out) throws IOException {
+        byte[] firstKey = block.getFirstKey();
+        int records = block.getCount();
+
+        ByteBuffer bytes = block.finish();
+        out.write(bytes.array(), 0, bytes.limit());
+        index.addBlock(firstKey, offset, bytes.limit(), records);
+
+        block.reset();
+        return bytes.limit();
     }
 
     public Optional<V> getValue(K key) throws IOException {
-        if (!filter.isPresent(key)) {
-            return Optional.empty();
+        DataRecord<K, V> found = getRecord(key);
+        return found == null ? Optional.empty() : Optional.ofNullable(found.value());
+    }
+
+    /**
+     * @return the record of the key with a null value if the key is deleted, or null if the table has no record
+     * of the key
+     */
+    public DataRecord<K, V> getRecord(K key) throws IOException {
+        byte[] keyBytes = getKeySerDe().toBytes(key);
+        RawRecord found = getRawRecord(keyBytes, BloomFilter.hash(keyBytes));
+
+        if (found == null) {
+            return null;
         }
+        return new DataRecord<>(key, found.value() == null ? null : getValueSerDe().fromBytes(found.value()));
+    }
 
-        String stringKey = keySerDe.serialize(key);
-        Long offset = index.getOffset(key);
-        if (offset == null) {
-            return Optional.empty();
+    /**
+     * Looks up a serialized key. A caller looking in many tables serializes and hashes the key only once.
+     *
+     * @param keyHash {@link BloomFilter#hash(byte[])} of the key
+     * @return the record of the key with a null value if the key is deleted, or null if the table has no record
+     * of the key
+     */
+    public RawRecord getRawRecord(byte[] keyBytes, long keyHash) throws IOException {
+        if (filter == null) {
+            return null;
         }
 
-        try (RandomAccessFile raf = new RandomAccessFile(dataFile.toFile(), "r")) {
-            raf.seek(offset);
+        if (legacyIndex != null) {
+            return filter.isPresent(keyHash) ? getLegacyRecord(keyBytes) : null;
+        }
+        int blockNumber = blockIndex == null ? -1 : blockIndex.findBlock(keyBytes, keyOrder);
+        if (blockNumber < 0 || !filter.isPresent(blockNumber, keyHash)) {
+            return null;
+        }
+        return readBlock(blockNumber).find(keyBytes, keyOrder);
+    }
 
-            String result = raf.readLine();
-            if (result == null) {
-                return Optional.empty();
+    /**
+     * Looks up many keys with one pass over the table. The keys are checked against the bloom filter first, the
+     * rest are looked up in key order, which is the order of the blocks in the file, so the reads go forward
+     * through the file and the keys of the same block share a single read.
+     *
+     * @param sortedKeys serialized keys in key order
+     * @return the record of every key at the position of the key, null where the table has no record of it
+     */
+    public RawRecord[] getRawRecords(List<byte[]> sortedKeys) throws IOException {
+        long[] keyHashes = new long[sortedKeys.size()];
+        for (int i = 0; i < keyHashes.length; i++) {
+            keyHashes[i] = BloomFilter.hash(sortedKeys.get(i));
+        }
+        return getRawRecords(sortedKeys, keyHashes);
+    }
+
+    /**
+     * Looks up many keys with one pass over the table, see {@link #getRawRecords(List)}.
+     *
+     * @param keyHashes {@link BloomFilter#hash(byte[])} of every key
+     */
+    public RawRecord[] getRawRecords(List<byte[]> sortedKeys, long[] keyHashes) throws IOException {
+        RawRecord[] found = new RawRecord[sortedKeys.size()];
+        if (filter == null) {
+            return found;
+        }
+
+        int blockNumber = -1;
+        Block block = null;
+        for (int i = 0; i < sortedKeys.size(); i++) {
+            byte[] keyBytes = sortedKeys.get(i);
+            if (legacyIndex != null) {
+                found[i] = filter.isPresent(keyHashes[i]) ? getLegacyRecord(keyBytes) : null;
+                continue;
             }
 
-            String[] parts = result.split(SEPARATOR, 2);
-            if (parts.length < 2) {
-                return Optional.empty();
+            int keyBlock = blockIndex == null ? -1 : blockIndex.findBlock(keyBytes, keyOrder);
+            if (keyBlock < 0 || !filter.isPresent(keyBlock, keyHashes[i])) {
+                continue;
+            }
+            if (keyBlock != blockNumber) {
+                block = readBlock(keyBlock);
+                blockNumber = keyBlock;
             }
+            found[i] = block.find(keyBytes, keyOrder);
+        }
+
+        return found;
+    }
+
+    public List<DataRecord<K, V>> getAllLines() throws IOException {
+        List<RawRecord> rawRecords = getAllRawRecords();
+        List<DataRecord<K, V>> records = new ArrayList<>(rawRecords.size());
+
+        for (RawRecord rawRecord : rawRecords) {
+            records.add(toDataRecord(rawRecord));
+        }
+
+        return records;
+    }
+
+    /**
+     * Iterates the records in key order without loading the table, only the blocks at hand are in memory.
+     * Without a mapping consecutive blocks are fetched with a single read of up to {@value #READ_AHEAD_SIZE}
+     * bytes. Tables of the legacy format have no blocks, they are read at once.
+     */
+    public Iterator<RawRecord> rawRecordIterator() throws IOException {
+        return rawRecordIterator(null, null, ScanDirection.FORWARD, false);
+    }
+
+    /**
+     * Iterates the records of a key range, see {@link #rawRecordIterator()}. Reading starts at the block that
+     * may hold the first key of the range.
+     *
+     * @param from first key of the range, or null to start at the first record
+     * @param to   first key after the range, or null to go to the last record
+     */
+    public Iterator<RawRecord> rawRecordIterator(byte[] from, byte[] to) throws IOException {
+        return rawRecordIterator(from, to, ScanDirection.FORWARD);
+    }
+
+    /**
+     * Iterates the records of a key range in the given direction, see {@link #rawRecordIterator(byte[], byte[])}.
+     * In reverse reading starts at the block that may hold the last key of the range and goes back one block at
+     * a time.
+     */
+    public Iterator<RawRecord> rawRecordIterator(byte[] from, byte[] to, ScanDirection direction) throws IOException {
+        return rawRecordIterator(from, to, direction, true);
+    }
+
+    /**
+     * Iterates the records of a key range, see {@link #rawRecordIterator(byte[], byte[], ScanDirection)}.
+     *
+     * @param fillCache false for reads that go over a lot of blocks once, as compaction does, they neither add
+     *                  blocks to the block cache nor read from it
+     */
+    public Iterator<RawRecord> rawRecordIterator(byte[] from, byte[] to, ScanDirection direction, boolean fillCache) throws IOException {
+        if (legacyIndex != null) {
+            List<RawRecord> records = getAllRawRecords().stream()
+                    .filter(record -> (from == null || keyOrder.compare(record.key(), from) >= 0)
+                            && (to == null || keyOrder.compare(record.key(), to) < 0))
+                    .toList();
+            return (direction == ScanDirection.FORWARD ? records : records.reversed()).iterator();
+        }
+        return direction == ScanDirection.FORWARD ? new BlockIterator(from, to, fillCache)
+                : new ReverseBlockIterator(from, to, fillCache);
+    }
+
+    /**
+     * @return the first key of every data block, in key order
+     */
+    public List<byte[]> getBlockFirstKeys() {
+        if (blockIndex == null) {
+            return List.of();
+        }
 
-            String foundKey = parts[0];
-            if (!foundKey.equals(stringKey)) {
-                throw new IllegalStateException("Unexpected key: " + foundKey);
+        List<byte[]> keys = new ArrayList<>(blockIndex.getBlockCount());
+        for (int i = 0; i < blockIndex.getBlockCount(); i++) {
+            keys.add(blockIndex.getFirstKey(i));
+        }
+        return keys;
+    }
+
+    public Comparator<byte[]> getKeyOrder() {
+        return keyOrder;
+    }
+
+    /**
+     * @return the records in key order, deserialized one at a time, see {@link #rawRecordIterator()}
+     */
+    public Iterator<DataRecord<K, V>> recordIterator() throws IOException {
+        return recordIterator(null, null, ScanDirection.FORWARD, false);
+    }
+
+    /**
+     * @return the records of a key range, deserialized one at a time, see {@link #rawRecordIterator(byte[], byte[])}
+     */
+    public Iterator<DataRecord<K, V>> recordIterator(byte[] from, byte[] to) throws IOException {
+        return recordIterator(from, to, ScanDirection.FORWARD);
+    }
+
+    /**
+     * @return the records of a key range in the given direction, deserialized one at a time, see
+     * {@link #rawRecordIterator(byte[], byte[], ScanDirection)}
+     */
+    public Iterator<DataRecord<K, V>> recordIterator(byte[] from, byte[] to, ScanDirection direction) throws IOException {
+        return recordIterator(from, to, direction, true);
+    }
+
+    /**
+     * @return the records of a key range, deserialized one at a time, see
+     * {@link #rawRecordIterator(byte[], byte[], ScanDirection, boolean)}
+     */
+    public Iterator<DataRecord<K, V>> recordIterator(byte[] from, byte[] to, ScanDirection direction, boolean fillCache) throws IOException {
+        Iterator<RawRecord> rawRecords = rawRecordIterator(from, to, direction, fillCache);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return rawRecords.hasNext();
+            }
+
+            @Override
+            public DataRecord<K, V> next() {
+                return toDataRecord(rawRecords.next());
+            }
+        };
+    }
+
+    private DataRecord<K, V> toDataRecord(RawRecord rawRecord) {
+        return new DataRecord<>(getKeySerDe().fromBytes(rawRecord.key()),
+                rawRecord.value() == null ? null : getValueSerDe().fromBytes(rawRecord.value()));
+    }
+
+    /**
+     * Reads every record of the table. The file is read in chunks of up to {@value #READ_AHEAD_SIZE} bytes, never
+     * as a whole, so tables of any size can be read.
+     */
+    public List<RawRecord> getAllRawRecords() throws IOException {
+        List<RawRecord> records = new ArrayList<>();
+
+        if (legacyIndex == null) {
+            Iterator<RawRecord> iterator = rawRecordIterator();
+            while (iterator.hasNext()) {
+                records.add(iterator.next());
+            }
+            return records;
+        }
+
+        // A record cut at the end of a chunk is read again with the next one
+        ByteBuffer data = ByteBuffer.allocate(READ_AHEAD_SIZE).flip();
+        long position = 0;
+        while (data.hasRemaining() || position < diskSize) {
+            RawRecord dataRecord = RecordSerializer.readRaw(data);
+            if (dataRecord != null) {
+                records.add(dataRecord);
+                continue;
+            }
+            if (position == diskSize) {
+                throw new IllegalArgumentException("Invalid record at offset " + (position - data.remaining()) + " in " + getName());
             }
 
-            return Optional.ofNullable(valueSerDe.deserialize(parts[1]));
+            data.compact();
+            if (!data.hasRemaining()) {
+                // The record is larger than a chunk
+                data = ByteBuffer.allocate(data.capacity() * 2).put(data.flip());
+            }
+            int length = (int) Math.min(data.remaining(), diskSize - position);
+            readFully(data.slice(data.position(), length), position);
+            data.position(data.position() + length).flip();
+            position += length;
         }
+        return records;
     }
 
-    public List<DataRecord<K, V>> getAllLines() throws IOException {
-        return Files.readAllLines(dataFile).stream()
-                .map(line -> {
-                    String[] parts = line.split(SEPARATOR, 2);
-                    if (parts.length < 2) {
-                        throw new IllegalArgumentException("Invalid input format: " + line);
-                    }
-                    K key = keySerDe.deserialize(parts[0]);
-                    V value = valueSerDe.deserialize(parts[1]);
-                    return new DataRecord<>(key, value);
-                })
-                .collect(Collectors.toList());
+    private final class BlockIterator implements Iterator<RawRecord> {
+        // Cleared once reached, the records after it need no check
+        private byte[] from;
+        private final byte[] to;
+        private final boolean fillCache;
+        private int nextBlock;
+        private Block block;
+        private int position;
+        private RawRecord pending;
+        private boolean done;
+        private ByteBuffer readAhead;
+        private long readAheadOffset;
+        private int readAheadEnd;
+
+        BlockIterator(byte[] from, byte[] to, boolean fillCache) {
+            this.from = from;
+            this.to = to;
+            this.fillCache = fillCache;
+            this.nextBlock = from == null ? 0 : blockIndex.seekBlock(from, keyOrder);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pending == null && !done) {
+                RawRecord record = nextInBlocks();
+                if (record == null || (to != null && keyOrder.compare(record.key(), to) >= 0)) {
+                    done = true;
+                } else if (from == null || keyOrder.compare(record.key(), from) >= 0) {
+                    pending = record;
+                    from = null;
+                }
+            }
+            return pending != null;
+        }
+
+        @Override
+        public RawRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            RawRecord next = pending;
+            pending = null;
+            return next;
+        }
+
+        private RawRecord nextInBlocks() {
+            while (block == null || position == block.getCount()) {
+                if (nextBlock == blockIndex.getBlockCount()) {
+                    return null;
+                }
+
+                try {
+                    block = nextBlock();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                nextBlock++;
+                position = 0;
+            }
+            return block.get(position++);
+        }
+
+        private Block nextBlock() throws IOException {
+            if (mapping != null) {
+                return new Block(blockBuffer(nextBlock));
+            }
+            if (blockCache == null || !fillCache) {
+                return new Block(readAheadBuffer());
+            }
+
+            long offset = blockIndex.getOffset(nextBlock);
+            ByteBuffer cached = blockCache.get(cacheTable, offset);
+            if (cached == null) {
+                // A copy, a slice would keep the whole read-ahead buffer in memory
+                cached = ByteBuffer.allocate(blockIndex.getLength(nextBlock)).put(readAheadBuffer()).flip();
+                blockCache.put(cacheTable, offset, cached);
+            }
+            return new Block(cached);
+        }
+
+        private ByteBuffer readAheadBuffer() throws IOException {
+            if (nextBlock >= readAheadEnd) {
+                // Blocks are written back to back, the next ones that fit are read along
+                int end = nextBlock + 1;
+                long length = blockIndex.getLength(nextBlock);
+                while (end < blockIndex.getBlockCount() && length + blockIndex.getLength(end) <= READ_AHEAD_SIZE) {
+                    length += blockIndex.getLength(end);
+                    end++;
+                }
+
+                readAheadOffset = blockIndex.getOffset(nextBlock);
+                readAhead = ByteBuffer.allocate((int) length);
+                readFully(readAhead, readAheadOffset);
+                readAhead.flip();
+                readAheadEnd = end;
+            }
+
+            return readAhead.slice((int) (blockIndex.getOffset(nextBlock) - readAheadOffset), blockIndex.getLength(nextBlock));
+        }
+    }
+
+    private final class ReverseBlockIterator implements Iterator<RawRecord> {
+        private final byte[] from;
+        // Cleared once passed, the records before it need no check
+        private byte[] to;
+        private final boolean fillCache;
+        private int nextBlock;
+        private Block block;
+        private int position;
+        private RawRecord pending;
+        private boolean done;
+
+        ReverseBlockIterator(byte[] from, byte[] to, boolean fillCache) {
+            this.from = from;
+            this.to = to;
+            this.fillCache = fillCache;
+            int blockCount = blockIndex == null ? 0 : blockIndex.getBlockCount();
+            this.nextBlock = to == null || blockCount == 0 ? blockCount - 1 : blockIndex.seekBlock(to, keyOrder);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pending == null && !done) {
+                RawRecord record = previousInBlocks();
+                if (record == null || (from != null && keyOrder.compare(record.key(), from) < 0)) {
+                    done = true;
+                } else if (to == null || keyOrder.compare(record.key(), to) < 0) {
+                    pending = record;
+                    to = null;
+                }
+            }
+            return pending != null;
+        }
+
+        @Override
+        public RawRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            RawRecord next = pending;
+            pending = null;
+            return next;
+        }
+
+        private RawRecord previousInBlocks() {
+            while (block == null || position < 0) {
+                if (nextBlock < 0) {
+                    return null;
+                }
+
+                try {
+                    block = readBlock(nextBlock, fillCache);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                nextBlock--;
+                position = block.getCount() - 1;
+            }
+            return block.get(position--);
+        }
+    }
+
+    private Block readBlock(int blockNumber) throws IOException {
+        return readBlock(blockNumber, true);
+    }
+
+    /**
+     * Reads a block through the block cache, a block that is not cached is read from the file and added to it.
+     * Without a cache, with a mapping or without {@code fillCache} the block is read from the file.
+     */
+    private Block readBlock(int blockNumber, boolean fillCache) throws IOException {
+        if (blockCache == null || mapping != null || !fillCache) {
+            return new Block(blockBuffer(blockNumber));
+        }
+
+        long offset = blockIndex.getOffset(blockNumber);
+        ByteBuffer cached = blockCache.get(cacheTable, offset);
+        if (cached != null) {
+            return new Block(cached);
+        }
+
+        ByteBuffer block = blockBuffer(blockNumber);
+        blockCache.put(cacheTable, offset, block);
+        return new Block(block);
+    }
+
+    private ByteBuffer blockBuffer(int blockNumber) throws IOException {
+        long offset = blockIndex.getOffset(blockNumber);
+        int length = blockIndex.getLength(blockNumber);
+
+        if (mapping != null) {
+            return mapping.asSlice(offset, length).asByteBuffer();
+        }
+
+        ByteBuffer block = ByteBuffer.allocate(length);
+        readFully(block, offset);
+        return block.flip();
+    }
+
+    /**
+     * A legacy entry has no stored length, the header with the key and the value length is read first and
+     * the value in a second read.
+     */
+    private RawRecord getLegacyRecord(byte[] keyBytes) throws IOException {
+        Long offset = legacyIndex.getOffset(keyBytes);
+        if (offset == null) {
+            return null;
+        }
+
+        int headerLength = Integer.BYTES + keyBytes.length + Integer.BYTES;
+        ByteBuffer header = ByteBuffer.allocate(headerLength);
+        readFully(header, offset);
+        header.flip();
+
+        int foundKeyLength = header.getInt();
+        byte[] foundKey = new byte[keyBytes.length];
+        header.get(foundKey);
+        if (foundKeyLength != keyBytes.length || !Arrays.equals(foundKey, keyBytes)) {
+            throw new IllegalStateException("Unexpected key at offset " + offset + " in " + getName());
+        }
+
+        int valueLength = header.getInt();
+        if (valueLength == TOMBSTONE_LENGTH) {
+            return new RawRecord(keyBytes, null);
+        }
+
+        ByteBuffer value = ByteBuffer.allocate(valueLength);
+        readFully(value, offset + headerLength);
+        return new RawRecord(keyBytes, value.array());
+    }
+
+    private void readFully(ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position + target.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + getName() + " at " + (position + target.position()));
+            }
+        }
+    }
+
+    /**
+     * Registers a reader, the table stays open until the reader calls {@link #release()}.
+     *
+     * @return false if the table is already retired, the reader has to read its replacement instead
+     */
+    public boolean acquire() {
+        int count;
+        do {
+            count = readers.get();
+            if ((count & RETIRED) != 0) {
+                return false;
+            }
+        } while (!readers.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    public void release() {
+        // The flag and the count change in one word, only the last reader of a retired table sees it empty
+        if (readers.decrementAndGet() == RETIRED) {
+            closeAndDelete();
+        }
+    }
+
+    /**
+     * Closes the table and deletes its files once the readers that acquired it are done, new readers can't
+     * acquire it anymore.
+     */
+    public void retire() {
+        if (readers.getAndUpdate(count -> count | RETIRED) == 0) {
+            closeAndDelete();
+        }
+    }
+
+    private void closeAndDelete() {
+        // Several readers can leave at the same time, only the one that closes the table deletes it
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            closeFiles();
+            deleteFiles(filename);
+            log.info("SSTable deleted: {}", getName());
+        } catch (IOException e) {
+            log.warn("Error while deleting SSTable {}", getName(), e);
+        }
+    }
+
+    /**
+     * Deletes every file of the table, the table must not be open.
+     */
+    public static void deleteFiles(String filename) throws IOException {
+        Files.deleteIfExists(Paths.get(filename + DATA_FILE_SUFFIX));
+        BloomFilter.deleteFile(filename);
+        Index.deleteFile(filename);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            closeFiles();
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        if (blockCache != null) {
+            blockCache.invalidate(cacheTable);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        if (arena != null) {
+            // Unmaps the file, later reads of the mapping fail with an IllegalStateException
+            arena.close();
+            arena = null;
+        }
     }
 }
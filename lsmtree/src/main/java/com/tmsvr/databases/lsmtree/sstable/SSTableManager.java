@@ -1,80 +1,523 @@
 package com.tmsvr.databases.lsmtree.sstable;
 
-import com.tmsvr.databases.serde.SerDe;
+import com.tmsvr.databases.CloseableIterator;
+import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.ScanDirection;
+import com.tmsvr.databases.lsmtree.sstable.bloomfilter.BloomFilter;
+import com.tmsvr.databases.serde.BinarySerDe;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Stream;
 
+/**
+ * Keeps the SSTables in {@link Levels}. The levels are copy-on-write: flushes and compactions publish a new
+ * immutable snapshot, readers work on the snapshot they started with and don't lock. Every published snapshot
+ * is saved to the {@link Manifest} first, so the store restarts with the same tables in the same order.
+ * <p>
+ * Compactions run in the background on {@link SSTableOptions#compactionThreads()} threads. The compactor picks
+ * the input of a compaction among the tables no other compaction works on, so concurrent compactions never share
+ * a table, and the result is swapped into the levels in place of the input. The input tables are retired: they
+ * are closed and deleted once the last reader that acquired them is done.
+ */
 @Slf4j
-public class SSTableManager<K extends Comparable<K>, V> {
-    private static final int COMPACTION_THRESHOLD = 5;
-    private final List<SSTable<K, V>> ssTables;
+public class SSTableManager<K extends Comparable<K>, V> implements Closeable {
+    private static final String DATA_FILE_SUFFIX = ".data";
+    // Lookups mostly wait for reads, a virtual thread per table is cheaper than a pool sized for them
+    private static final ExecutorService LOOKUP_EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("lsm-lookup-", 0).factory());
+    private static final int LOOKUP_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile Levels<K, V> levels;
+    private final Set<SSTable<K, V>> compacting = Collections.newSetFromMap(new IdentityHashMap<>());
 
     private final Compactor<K, V> compactor;
-    private final SerDe<K> keySerDe;
-    private final SerDe<V> valueSerDe;
+    private final ExecutorService compactionExecutor;
+    private final Manifest manifest;
+    private final BinarySerDe<K> keySerDe;
+    private final BinarySerDe<V> valueSerDe;
+    private final SSTableOptions options;
 
     private int newTablesSinceLastCompaction = 0;
+    private boolean closed;
+
+    public SSTableManager(BinarySerDe<K> keySerDe, BinarySerDe<V> valueSerDe) {
+        this(keySerDe, valueSerDe, SSTableOptions.defaults());
+    }
 
-    public SSTableManager(LsmSerDe<K> keySerDe, LsmSerDe<V> valueSerDe) {
+    public SSTableManager(BinarySerDe<K> keySerDe, BinarySerDe<V> valueSerDe, SSTableOptions options) {
         this.keySerDe = keySerDe;
         this.valueSerDe = valueSerDe;
+        this.options = options;
 
-        this.ssTables = new ArrayList<>();
-        this.compactor = new RowCountBasedCompactor<>(10);
+        this.levels = Levels.empty(KeyOrder.of(keySerDe));
+        this.compactor = switch (options.compaction()) {
+            case CompactionOptions.RowCount rowCount -> new RowCountBasedCompactor<>(rowCount.sizeLimit());
+            case CompactionOptions.SizeTiered sizeTiered -> new SizeTieredCompactor<>(sizeTiered.minThreshold(),
+                    sizeTiered.maxThreshold(), sizeTiered.bucketRatio());
+            case CompactionOptions.Leveled leveled -> new LeveledCompactor<>(leveled.level0Trigger(),
+                    leveled.targetFileSize(), leveled.baseLevelSize(), leveled.levelMultiplier());
+        };
+        this.manifest = new Manifest();
+        this.compactionExecutor = Executors.newFixedThreadPool(options.compactionThreads(),
+                Thread.ofPlatform().name("lsm-compaction-", 0).daemon().factory());
     }
 
     public void flush(Map<K, V> data) throws IOException {
-        SSTable<K, V> ssTable = new SSTable<>("sstable-" + UUID.randomUUID(), keySerDe, valueSerDe);
+        SSTable<K, V> ssTable = new SSTable<>("sstable-" + UUID.randomUUID(), keySerDe, valueSerDe, options);
         ssTable.write(data);
-        ssTables.add(ssTable);
-
-        newTablesSinceLastCompaction++;
 
-        if (newTablesSinceLastCompaction > COMPACTION_THRESHOLD) {
-            compact();
+        writeLock.lock();
+        try {
+            publish(levels.with(ssTable, 0));
+            newTablesSinceLastCompaction++;
+            scheduleCompactionIfDue();
+        } finally {
+            writeLock.unlock();
         }
     }
 
     public Optional<V> findValue(K key) throws IOException {
-        for (int i = ssTables.size() - 1; i >= 0; i--) {
-            Optional<V> value = ssTables.get(i).getValue(key);
-            if (value.isPresent()) {
-                return value;
+        byte[] keyBytes = keySerDe.toBytes(key);
+        long keyHash = BloomFilter.hash(keyBytes);
+
+        Levels<K, V> current = levels;
+        List<SSTable<K, V>> tables = current.depth() == 1 ? current.level(0).reversed() : current.candidates(keyBytes);
+
+        for (SSTable<K, V> table : tables) {
+            if (!table.acquire()) {
+                // A compaction replaced the table after we took the levels, start over on the current ones
+                return findValue(key);
+            }
+
+            try {
+                RawRecord found = table.getRawRecord(keyBytes, keyHash);
+                if (found != null) {
+                    return found.value() == null ? Optional.empty() : Optional.of(table.getValueSerDe().fromBytes(found.value()));
+                }
+            } finally {
+                table.release();
             }
         }
 
         return Optional.empty();
     }
 
+    /**
+     * Looks up many keys at once, like {@link #findValue} for each of them. A table is probed at most once, with
+     * the keys it may hold in key order, see {@link SSTable#getRawRecords(List)}.
+     * <p>
+     * The tables are probed in waves from the newest: up to {@link #LOOKUP_PARALLELISM} tables of level 0, then
+     * one wave for each deeper level, whose tables hold separate keys. The tables of a wave are probed in
+     * parallel, and the keys found in a wave are not looked up in the older ones. Only the tables of the wave
+     * being probed are acquired, tables no key gets to are not held.
+     *
+     * @return the values of the keys that have one, deleted and missing keys are left out
+     */
+    public Map<K, V> findValues(Collection<K> keys) throws IOException {
+        if (keys.isEmpty()) {
+            return Map.of();
+        }
+
+        Levels<K, V> current = levels;
+        List<Probe<K>> remaining = new ArrayList<>(keys.size());
+        for (K key : new LinkedHashSet<>(keys)) {
+            byte[] keyBytes = keySerDe.toBytes(key);
+            remaining.add(new Probe<>(key, keyBytes, BloomFilter.hash(keyBytes)));
+        }
+        remaining.sort(Comparator.comparing(Probe::keyBytes, current.keyOrder()));
+
+        Map<K, V> values = new HashMap<>();
+        List<SSTable<K, V>> level0 = current.level(0).reversed();
+        for (int first = 0; first < level0.size() && !remaining.isEmpty(); first += LOOKUP_PARALLELISM) {
+            Map<SSTable<K, V>, List<Probe<K>>> wave = new LinkedHashMap<>();
+            for (SSTable<K, V> table : level0.subList(first, Math.min(first + LOOKUP_PARALLELISM, level0.size()))) {
+                wave.put(table, remaining);
+            }
+            remaining = probe(wave, remaining, values);
+        }
+
+        for (int level = 1; level < current.depth() && !remaining.isEmpty(); level++) {
+            Map<SSTable<K, V>, List<Probe<K>>> wave = new LinkedHashMap<>();
+            for (Probe<K> probe : remaining) {
+                SSTable<K, V> table = current.find(level, probe.keyBytes());
+                if (table != null) {
+                    wave.computeIfAbsent(table, t -> new ArrayList<>()).add(probe);
+                }
+            }
+            remaining = probe(wave, remaining, values);
+        }
+
+        return values;
+    }
+
+    /**
+     * Probes the tables of a wave and adds the live values found to {@code values}, a key found in more than one
+     * table of the wave takes the record of the first. The tables are acquired for the time of the probe.
+     *
+     * @param wave tables from the newest, with the keys to look up in each
+     * @return the keys not found in any table of the wave
+     */
+    private List<Probe<K>> probe(Map<SSTable<K, V>, List<Probe<K>>> wave, List<Probe<K>> remaining,
+                                 Map<K, V> values) throws IOException {
+        List<SSTable<K, V>> acquired = new ArrayList<>(wave.size());
+        for (SSTable<K, V> table : wave.keySet()) {
+            if (!table.acquire()) {
+                // A compaction replaced the table after we took the levels, the keys left start over on the current
+                // ones; the older tables don't matter for the keys found so far
+                acquired.forEach(SSTable::release);
+                values.putAll(findValues(remaining.stream().map(Probe::key).toList()));
+                return List.of();
+            }
+            acquired.add(table);
+        }
+
+        List<RawRecord[]> results;
+        try {
+            results = probeAll(wave);
+        } finally {
+            acquired.forEach(SSTable::release);
+        }
+
+        Set<K> resolved = new HashSet<>();
+        int t = 0;
+        for (Map.Entry<SSTable<K, V>, List<Probe<K>>> entry : wave.entrySet()) {
+            RawRecord[] found = results.get(t++);
+            for (int i = 0; i < found.length; i++) {
+                K key = entry.getValue().get(i).key();
+                if (found[i] != null && resolved.add(key) && found[i].value() != null) {
+                    values.put(key, entry.getKey().getValueSerDe().fromBytes(found[i].value()));
+                }
+            }
+        }
+
+        return resolved.isEmpty() ? remaining
+                : remaining.stream().filter(probe -> !resolved.contains(probe.key())).toList();
+    }
+
+    /**
+     * Probes the tables on {@link #LOOKUP_EXECUTOR}, a single table on the caller's thread.
+     *
+     * @return the records found in every table, in the order of the tables
+     */
+    private List<RawRecord[]> probeAll(Map<SSTable<K, V>, List<Probe<K>>> tables) throws IOException {
+        if (tables.size() == 1) {
+            Map.Entry<SSTable<K, V>, List<Probe<K>>> only = tables.entrySet().iterator().next();
+            return Collections.singletonList(only.getKey().getRawRecords(keyBytes(only.getValue()), keyHashes(only.getValue())));
+        }
+
+        List<Callable<RawRecord[]>> lookups = new ArrayList<>(tables.size());
+        tables.forEach((table, probes) -> lookups.add(() -> table.getRawRecords(keyBytes(probes), keyHashes(probes))));
+
+        List<RawRecord[]> results = new ArrayList<>(tables.size());
+        try {
+            for (Future<RawRecord[]> lookup : LOOKUP_EXECUTOR.invokeAll(lookups)) {
+                results.add(lookup.get());
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException("Lookup failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a lookup");
+        }
+        return results;
+    }
+
+    private static <K> List<byte[]> keyBytes(List<Probe<K>> probes) {
+        return probes.stream().map(Probe::keyBytes).toList();
+    }
+
+    private static <K> long[] keyHashes(List<Probe<K>> probes) {
+        return probes.stream().mapToLong(Probe::keyHash).toArray();
+    }
+
+    private record Probe<K>(K key, byte[] keyBytes, long keyHash) {
+    }
+
+    /**
+     * Iterates the records of a key range in every table, merged so a key comes once with its newest record.
+     * Deleted keys are returned with null values, they hide the older records of the caller's inputs too. The
+     * scan reads the tables of the levels it started with, they stay open until the iterator is closed. A scan of
+     * every key does not fill the block cache.
+     *
+     * @param from first key of the range, or null to start at the smallest key
+     * @param to   first key after the range, or null to go to the largest key
+     */
+    public CloseableIterator<DataRecord<K, V>> scan(K from, K to, ScanDirection direction) throws IOException {
+        byte[] fromBytes = from == null ? null : keySerDe.toBytes(from);
+        byte[] toBytes = to == null ? null : keySerDe.toBytes(to);
+
+        Levels<K, V> current = levels;
+        List<SSTable<K, V>> acquired = new ArrayList<>();
+        // From the deepest level to level 0, the newest tables last
+        List<List<SSTable<K, V>>> runs = new ArrayList<>();
+        for (int level = current.depth() - 1; level >= 0; level--) {
+            List<SSTable<K, V>> tables = current.overlapping(level, fromBytes, toBytes);
+            for (SSTable<K, V> table : tables) {
+                if (!table.acquire()) {
+                    // A compaction replaced the table after we took the levels, start over on the current ones
+                    acquired.forEach(SSTable::release);
+                    return scan(from, to, direction);
+                }
+                acquired.add(table);
+            }
+
+            if (level > 0) {
+                runs.add(direction == ScanDirection.FORWARD ? tables : tables.reversed());
+            } else {
+                tables.forEach(table -> runs.add(List.of(table)));
+            }
+        }
+
+        try {
+            boolean fillCache = from != null || to != null;
+            List<Iterator<DataRecord<K, V>>> inputs = new ArrayList<>(runs.size());
+            for (List<SSTable<K, V>> run : runs) {
+                inputs.add(concatenate(run, fromBytes, toBytes, direction, fillCache));
+            }
+
+            Comparator<DataRecord<K, V>> order = direction == ScanDirection.FORWARD ? Comparator.naturalOrder()
+                    : Comparator.reverseOrder();
+            return CloseableIterator.of(new MergingIterator<>(inputs, order), () -> acquired.forEach(SSTable::release));
+        } catch (RuntimeException e) {
+            acquired.forEach(SSTable::release);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the records of the tables one after the other, a table is only read once the ones before it are done
+     */
+    private Iterator<DataRecord<K, V>> concatenate(List<SSTable<K, V>> run, byte[] from, byte[] to, ScanDirection direction,
+                                                   boolean fillCache) {
+        Iterator<SSTable<K, V>> tables = run.iterator();
+        return new Iterator<>() {
+            private Iterator<DataRecord<K, V>> records = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!records.hasNext() && tables.hasNext()) {
+                    try {
+                        records = tables.next().recordIterator(from, to, direction, fillCache);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return records.hasNext();
+            }
+
+            @Override
+            public DataRecord<K, V> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return records.next();
+            }
+        };
+    }
+
+    /**
+     * Opens the tables listed in the manifest and deletes the tables left behind by an unfinished flush or
+     * compaction. Without a manifest, as in a directory of an older version, every table found is opened. The
+     * tables of level 0 count as new ones, a compaction is scheduled if they are enough for one.
+     */
     public void readTablesFromFile() throws IOException {
-        Path rootPath = Path.of("");
+        List<String> dataFiles;
+        try (Stream<Path> paths = Files.list(Path.of(""))) {
+            dataFiles = paths.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(DATA_FILE_SUFFIX))
+                    .toList();
+        }
 
-        try (Stream<Path> paths = Files.find(rootPath, 1, (path, _) -> path.toString().endsWith(".index"))) {
-            paths.forEach(path -> {
-                log.info("SSTable found: {}", path.toString().replace(".index", ""));
+        List<Manifest.Entry> live = manifest.exists() ? manifest.read() : dataFiles.stream().map(Manifest.Entry::new).toList();
+        List<String> liveNames = live.stream().map(Manifest.Entry::name).toList();
+
+        writeLock.lock();
+        try {
+            Levels<K, V> found = levels;
+            for (Manifest.Entry entry : live) {
+                String name = entry.name();
+                if (!dataFiles.contains(name)) {
+                    log.warn("SSTable in the manifest is missing: {}", name);
+                    continue;
+                }
+
+                log.info("SSTable found: {}", baseName(name));
                 try {
-                    ssTables.add(new SSTable<>(path.toString().replace(".index", ""), keySerDe, valueSerDe));
+                    found = found.with(new SSTable<>(baseName(name), keySerDe, valueSerDe, options), entry.level());
                 } catch (IOException e) {
                     log.warn("Error during reading tables from disk", e);
                 }
-            });
+            }
+            publish(found);
+            // The last run may have stopped with a backlog of flushed tables, it is compacted as after a flush
+            newTablesSinceLastCompaction += found.level(0).size();
+            scheduleCompactionIfDue();
+        } finally {
+            writeLock.unlock();
+        }
+
+        for (String name : dataFiles) {
+            if (!liveNames.contains(name)) {
+                log.info("Deleting SSTable not in the manifest: {}", name);
+                SSTable.deleteFiles(baseName(name));
+            }
         }
     }
 
+    /**
+     * Runs the compaction the compactor picks among the tables no background compaction works on, on the
+     * caller's thread.
+     */
     public void compact() throws IOException {
-        List<SSTable<K, V>> compactedTables = compactor.compact(ssTables);
-        ssTables.clear();
-        ssTables.addAll(compactedTables);
+        Compaction<K, V> compaction = takeCompaction();
+        if (compaction == null) {
+            return;
+        }
+
+        try {
+            List<SSTable<K, V>> outputs = compactor.compact(compaction.inputs());
+            try {
+                replace(compaction, outputs);
+            } catch (IOException | RuntimeException e) {
+                discard(compaction, outputs);
+                throw e;
+            }
+        } finally {
+            writeLock.lock();
+            try {
+                compaction.inputs().forEach(compacting::remove);
+                // A compaction can fill the next level enough to need one itself
+                scheduleCompactionIfDue();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    Levels<K, V> getLevels() {
+        return levels;
+    }
+
+    private void compactInBackground() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            log.error("Compaction failed, the tables stay as they are", e);
+        }
+    }
 
-        newTablesSinceLastCompaction = 0;
+    private void scheduleCompactionIfDue() {
+        if (!closed && compactor.isDue(levels, newTablesSinceLastCompaction)) {
+            newTablesSinceLastCompaction = 0;
+            compactionExecutor.execute(this::compactInBackground);
+        }
+    }
+
+    private Compaction<K, V> takeCompaction() {
+        writeLock.lock();
+        try {
+            Compaction<K, V> compaction = compactor.pick(levels, compacting);
+            if (compaction != null) {
+                compacting.addAll(compaction.inputs());
+            }
+            return compaction;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void replace(Compaction<K, V> compaction, List<SSTable<K, V>> outputs) throws IOException {
+        writeLock.lock();
+        try {
+            publish(levels.replace(compaction.inputs(), outputs, compaction.outputLevel()));
+        } finally {
+            writeLock.unlock();
+        }
+
+        for (SSTable<K, V> input : compaction.inputs()) {
+            if (Levels.indexOf(outputs, input) < 0) {
+                input.retire();
+            }
+        }
+    }
+
+    /**
+     * Deletes the outputs of a compaction that could not be published, the tables it moved as they are stay.
+     */
+    private void discard(Compaction<K, V> compaction, List<SSTable<K, V>> outputs) {
+        for (SSTable<K, V> output : outputs) {
+            if (Levels.indexOf(compaction.inputs(), output) < 0) {
+                // Never published, no reader holds it
+                output.retire();
+            }
+        }
+    }
+
+    private void publish(Levels<K, V> next) throws IOException {
+        List<Manifest.Entry> entries = new ArrayList<>();
+        for (int level = next.depth() - 1; level >= 0; level--) {
+            for (SSTable<K, V> table : next.level(level)) {
+                entries.add(new Manifest.Entry(table.getName(), level));
+            }
+        }
+        manifest.write(entries);
+        levels = next;
+    }
+
+    private static String baseName(String dataFileName) {
+        return dataFileName.substring(0, dataFileName.length() - DATA_FILE_SUFFIX.length());
+    }
+
+    /**
+     * Waits for the scheduled compactions, then closes the tables.
+     */
+    @Override
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            closed = true;
+        } finally {
+            writeLock.unlock();
+        }
+
+        compactionExecutor.close();
+
+        writeLock.lock();
+        try {
+            for (SSTable<K, V> table : levels.all()) {
+                table.close();
+            }
+        } finally {
+            writeLock.unlock();
+        }
     }
 }
@@ -0,0 +1,82 @@
+package com.tmsvr.databases.lsmtree.sstable;
+
+import com.tmsvr.databases.lsmtree.sstable.block.BlockCache;
+
+/**
+ * Settings of the SSTables of a store.
+ *
+ * @param blockSize         target size of a data block in bytes, blocks are closed once they reach it
+ * @param readMode          how lookups and iteration read the data files
+ * @param compactionThreads number of compactions that may run at the same time in the background
+ * @param subcompactions    most key ranges a single compaction is split into and merged in parallel, 1 to merge
+ *                          on the compaction thread alone
+ * @param compaction        the compaction strategy and its settings
+ * @param blockCache        cache of data blocks shared by the tables of the store, or null to read every block
+ *                          from the file; not used in {@link ReadMode#MMAP} mode, the mapping is read directly
+ */
+public record SSTableOptions(int blockSize, ReadMode readMode, int compactionThreads, int subcompactions,
+                             CompactionOptions compaction, BlockCache blockCache) {
+    public static final int DEFAULT_BLOCK_SIZE = 4 * 1024;
+    public static final int DEFAULT_COMPACTION_THREADS = 2;
+    public static final int DEFAULT_SUBCOMPACTIONS = 4;
+    public static final CompactionOptions DEFAULT_COMPACTION = new CompactionOptions.RowCount(10);
+    public static final long DEFAULT_BLOCK_CACHE_SIZE = 32 * 1024 * 1024;
+
+    public SSTableOptions {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        if (compactionThreads <= 0) {
+            throw new IllegalArgumentException("Compaction threads must be positive: " + compactionThreads);
+        }
+        if (subcompactions <= 0) {
+            throw new IllegalArgumentException("Subcompactions must be positive: " + subcompactions);
+        }
+    }
+
+    /**
+     * @return the default settings with a new block cache of {@value #DEFAULT_BLOCK_CACHE_SIZE} bytes
+     */
+    public static SSTableOptions defaults() {
+        return new SSTableOptions(DEFAULT_BLOCK_SIZE, ReadMode.CHANNEL, DEFAULT_COMPACTION_THREADS, DEFAULT_SUBCOMPACTIONS,
+                DEFAULT_COMPACTION, new BlockCache(DEFAULT_BLOCK_CACHE_SIZE));
+    }
+
+    public SSTableOptions withBlockSize(int blockSize) {
+        return new SSTableOptions(blockSize, readMode, compactionThreads, subcompactions, compaction, blockCache);
+    }
+
+    public SSTableOptions withReadMode(ReadMode readMode) {
+        return new SSTableOptions(blockSize, readMode, compactionThreads, subcompactions, compaction, blockCache);
+    }
+
+    public SSTableOptions withCompactionThreads(int compactionThreads) {
+        return new SSTableOptions(blockSize, readMode, compactionThreads, subcompactions, compaction, blockCache);
+    }
+
+    public SSTableOptions withSubcompactions(int subcompactions) {
+        return new SSTableOptions(blockSize, readMode, compactionThreads, subcompactions, compaction, blockCache);
+    }
+
+    public SSTableOptions withCompaction(CompactionOptions compaction) {
+        return new SSTableOptions(blockSize, readMode, compactionThreads, subcompactions, compaction, blockCache);
+    }
+
+    public SSTableOptions withBlockCache(BlockCache blockCache) {
+        return new SSTableOptions(blockSize, readMode, compactionThreads, subcompactions, compaction, blockCache);
+    }
+
+    public enum ReadMode {
+        /**
+         * Every block is fetched with a positional read into a heap buffer.
+         */
+        CHANNEL,
+        /**
+         * The data file is mapped into memory once, blocks are read straight from the mapping. Reads cost no
+         * system call and no copy once the page cache is warm, but the mapping counts against the address space
+         * and a cold page turns into a page fault. Tables in the format before data blocks are always read with
+         * {@link #CHANNEL}.
+         */
+        MMAP
+    }
+}
@@ -0,0 +1,67 @@
+package com.tmsvr.databases.lsmtree.sstable;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Size-tiered compaction: tables of about the same size on disk are merged together, at least
+ * {@code minThreshold} and at most {@code maxThreshold} of them in a single pass. Flushed tables merge into a
+ * table of the next tier, and those merge again once there are enough of them, so a record is rewritten about
+ * once per tier instead of once per merge.
+ * <p>
+ * Buckets are runs of adjacent tables. Merging tables that are not next to each other would make the result
+ * newer or older than the tables between them, and the order of the tables decides which value of a key wins.
+ */
+@Slf4j
+public class SizeTieredCompactor<K extends Comparable<K>, V> extends AbstractCompactor<K, V> {
+
+    private final int minThreshold;
+    private final int maxThreshold;
+    private final double bucketRatio;
+
+    public SizeTieredCompactor(int minThreshold, int maxThreshold, double bucketRatio) {
+        this.minThreshold = minThreshold;
+        this.maxThreshold = maxThreshold;
+        this.bucketRatio = bucketRatio;
+    }
+
+    @Override
+    public List<SSTable<K, V>> compact(List<SSTable<K, V>> tables) throws IOException {
+        log.info("Running compaction on tables: " + tables.stream().map(SSTable::getName).collect(Collectors.joining(", ")));
+        List<SSTable<K, V>> result = new ArrayList<>();
+        List<SSTable<K, V>> bucket = new ArrayList<>();
+        long bucketBytes = 0;
+
+        for (SSTable<K, V> table : tables) {
+            long size = table.getDiskSize();
+
+            if (!bucket.isEmpty() && (bucket.size() == maxThreshold || !isSimilar(size, bucketBytes / bucket.size()))) {
+                result.addAll(compactBucket(bucket));
+                bucket = new ArrayList<>();
+                bucketBytes = 0;
+            }
+
+            bucket.add(table);
+            bucketBytes += size;
+        }
+        result.addAll(compactBucket(bucket));
+
+        log.info("Compaction result tables: " + result.stream().map(SSTable::getName).collect(Collectors.joining(", ")));
+        return result;
+    }
+
+    private List<SSTable<K, V>> compactBucket(List<SSTable<K, V>> bucket) throws IOException {
+        if (bucket.size() < minThreshold) {
+            return bucket;
+        }
+        return List.of(merge(bucket));
+    }
+
+    private boolean isSimilar(long size, long averageSize) {
+        return size >= averageSize / bucketRatio && size <= averageSize * bucketRatio;
+    }
+}
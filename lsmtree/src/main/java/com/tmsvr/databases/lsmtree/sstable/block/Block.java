@@ -0,0 +1,86 @@
+package com.tmsvr.databases.lsmtree.sstable.block;
+
+import com.tmsvr.databases.lsmtree.sstable.RawRecord;
+import com.tmsvr.databases.lsmtree.sstable.RecordSerializer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A data block of an SSTable. The records are stored in key order the same way as in the commit log, followed
+ * by the offset of every record (int) and the number of records (int). The offsets make it possible to binary
+ * search the block without parsing the records in front of the one looked for.
+ */
+public class Block {
+    private final ByteBuffer data;
+    private final int count;
+    private final int offsetsStart;
+
+    /**
+     * @param data the block, from position 0 to the limit
+     */
+    public Block(ByteBuffer data) {
+        this.data = data;
+        this.count = data.getInt(data.limit() - Integer.BYTES);
+        this.offsetsStart = data.limit() - (count + 1) * Integer.BYTES;
+
+        if (count < 0 || offsetsStart < 0) {
+            throw new IllegalArgumentException("Corrupt block, record count: " + count);
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public RawRecord get(int index) {
+        return RecordSerializer.readRaw(data.duplicate().position(offset(index)).limit(offsetsStart));
+    }
+
+    /**
+     * @return the record of the key, or null if the block does not contain it
+     */
+    public RawRecord find(byte[] key, Comparator<byte[]> keyOrder) {
+        int low = 0;
+        int high = count - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int result = keyOrder.compare(keyAt(middle), key);
+
+            if (result < 0) {
+                low = middle + 1;
+            } else if (result > 0) {
+                high = middle - 1;
+            } else {
+                return get(middle);
+            }
+        }
+
+        return null;
+    }
+
+    public List<RawRecord> getAll() {
+        List<RawRecord> records = new ArrayList<>(count);
+        ByteBuffer source = data.duplicate().position(0).limit(offsetsStart);
+
+        for (int i = 0; i < count; i++) {
+            records.add(RecordSerializer.readRaw(source));
+        }
+
+        return records;
+    }
+
+    private byte[] keyAt(int index) {
+        int offset = offset(index);
+        byte[] key = new byte[data.getInt(offset)];
+        data.get(offset + Integer.BYTES, key);
+        return key;
+    }
+
+    private int offset(int index) {
+        return data.getInt(offsetsStart + index * Integer.BYTES);
+    }
+}
@@ -0,0 +1,74 @@
+package com.tmsvr.databases.lsmtree.sstable.block;
+
+import com.tmsvr.databases.lsmtree.sstable.RawRecord;
+import com.tmsvr.databases.lsmtree.sstable.RecordSerializer;
+import com.tmsvr.databases.lsmtree.util.GrowingBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Collects sorted records into a data block, see {@link Block} for the layout. The builder is reused for every
+ * block of a table, {@link #reset()} clears it without giving back the buffers.
+ */
+public class BlockBuilder {
+    private final GrowingBuffer buffer;
+    private int[] offsets = new int[64];
+    private int count;
+    private byte[] firstKey;
+
+    public BlockBuilder(int blockSize) {
+        this.buffer = new GrowingBuffer(blockSize + blockSize / 4);
+    }
+
+    public void add(RawRecord record) {
+        if (count == 0) {
+            firstKey = record.key();
+        }
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+
+        offsets[count++] = buffer.position();
+        RecordSerializer.write(record, buffer);
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return size of the block if it was finished now
+     */
+    public int estimatedSize() {
+        return buffer.position() + (count + 1) * Integer.BYTES;
+    }
+
+    public byte[] getFirstKey() {
+        return firstKey;
+    }
+
+    /**
+     * Appends the offset table to the records.
+     *
+     * @return a heap buffer with the finished block, valid until {@link #reset()}
+     */
+    public ByteBuffer finish() {
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(offsets[i]);
+        }
+        buffer.putInt(count);
+
+        return buffer.flip();
+    }
+
+    public void reset() {
+        buffer.clear();
+        count = 0;
+        firstKey = null;
+    }
+}
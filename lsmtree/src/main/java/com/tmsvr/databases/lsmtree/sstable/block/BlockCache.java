@@ -0,0 +1,308 @@
+package com.tmsvr.databases.lsmtree.sstable.block;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Data blocks shared by the SSTables of a store, keyed by the table and the offset of the block in its data file.
+ * The cache holds at most {@code capacity} bytes of blocks, split into shards by key so concurrent readers rarely
+ * meet on the same lock. Lookups don't lock at all, only adding a block and the eviction it causes do.
+ * <p>
+ * Every shard evicts with S3-FIFO: a new block goes into a small FIFO queue of a tenth of the shard. A block read
+ * again while it is there moves on to the main queue, the others are dropped when they reach the head and only
+ * their key is remembered for a while. A block that comes back while its key is remembered goes straight into the
+ * main queue. The main queue is a CLOCK: a block at the head that was read since it last got there goes to the
+ * tail again, with one read less on its count. Blocks read once, like those of a scan, pass through the small
+ * queue and leave without pushing the blocks read again and again out of the main one.
+ * <p>
+ * Every {@link Table} knows which of its blocks are cached, so dropping the blocks of a closed table only visits
+ * those blocks.
+ */
+public class BlockCache {
+    private static final AtomicLong TABLE_IDS = new AtomicLong();
+    private static final int DEFAULT_SHARDS = 16;
+    private static final int MAX_FREQUENCY = 3;
+
+    private final long capacity;
+    private final Shard[] shards;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public BlockCache(long capacity) {
+        this(capacity, DEFAULT_SHARDS);
+    }
+
+    /**
+     * @param capacity most bytes of blocks held, split evenly between the shards
+     * @param shards   number of shards, a power of two
+     */
+    public BlockCache(long capacity, int shards) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        }
+        if (shards <= 0 || Integer.bitCount(shards) != 1) {
+            throw new IllegalArgumentException("Shards must be a power of two: " + shards);
+        }
+
+        this.capacity = capacity;
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(capacity / shards);
+        }
+    }
+
+    /**
+     * @return a new table to key blocks by, tables have ids that are never reused so a table that replaces a
+     * deleted one under the same name can't see its blocks
+     */
+    public static Table newTable() {
+        return new Table(TABLE_IDS.incrementAndGet());
+    }
+
+    /**
+     * @return the block, or null if it is not cached; the returned buffer is the caller's own view of the block
+     */
+    public ByteBuffer get(Table table, long offset) {
+        BlockKey key = new BlockKey(table.id, offset);
+        Entry entry = shard(key).entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        // A lost update only costs a read on the count, it does not need a lock
+        if (entry.frequency < MAX_FREQUENCY) {
+            entry.frequency++;
+        }
+        hits.increment();
+        return entry.block.duplicate();
+    }
+
+    /**
+     * Adds a block that was read from the data file. Blocks larger than a shard are not cached, nor are blocks of
+     * a table that is already invalidated.
+     *
+     * @param block the block from position 0 to the limit, must not change afterward
+     */
+    public void put(Table table, long offset, ByteBuffer block) {
+        BlockKey key = new BlockKey(table.id, offset);
+        shard(key).put(key, table, block.asReadOnlyBuffer());
+    }
+
+    /**
+     * Drops every block of a table, called once the table is closed. Blocks of the table added meanwhile or later
+     * are dropped too.
+     */
+    public void invalidate(Table table) {
+        table.invalidated = true;
+        for (BlockKey key : table.keys) {
+            shard(key).remove(key);
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return bytes of blocks in the cache
+     */
+    public long getSize() {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private Shard shard(BlockKey key) {
+        int hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+    }
+
+    /**
+     * The blocks of one table in the cache.
+     */
+    public static final class Table {
+        private final long id;
+        // Keys of the blocks in the cache, changed under the lock of the shard of the block
+        private final Set<BlockKey> keys = ConcurrentHashMap.newKeySet();
+        private volatile boolean invalidated;
+
+        private Table(long id) {
+            this.id = id;
+        }
+    }
+
+    private record BlockKey(long tableId, long offset) {
+    }
+
+    private static final class Entry {
+        private final BlockKey key;
+        private final Table table;
+        private final ByteBuffer block;
+        private volatile int frequency;
+        private Queue queue;
+        private Entry previous;
+        private Entry next;
+
+        Entry(BlockKey key, Table table, ByteBuffer block) {
+            this.key = key;
+            this.table = table;
+            this.block = block;
+        }
+
+        int size() {
+            return block.limit();
+        }
+    }
+
+    /**
+     * Doubly linked list of entries around a sentinel, so an entry leaves the middle of it without a search.
+     */
+    private static final class Queue {
+        private final Entry sentinel = new Entry(null, null, null);
+        private long bytes;
+
+        Queue() {
+            sentinel.previous = sentinel;
+            sentinel.next = sentinel;
+        }
+
+        boolean isEmpty() {
+            return sentinel.next == sentinel;
+        }
+
+        void addLast(Entry entry) {
+            entry.previous = sentinel.previous;
+            entry.next = sentinel;
+            sentinel.previous.next = entry;
+            sentinel.previous = entry;
+            entry.queue = this;
+            bytes += entry.size();
+        }
+
+        void remove(Entry entry) {
+            entry.previous.next = entry.next;
+            entry.next.previous = entry.previous;
+            entry.previous = null;
+            entry.next = null;
+            entry.queue = null;
+            bytes -= entry.size();
+        }
+
+        Entry removeFirst() {
+            Entry first = sentinel.next;
+            remove(first);
+            return first;
+        }
+    }
+
+    private static final class Shard {
+        private final long capacity;
+        private final long smallCapacity;
+        private final Map<BlockKey, Entry> entries = new ConcurrentHashMap<>();
+        private final Queue small = new Queue();
+        private final Queue main = new Queue();
+        // Keys recently dropped from the small queue, from the oldest
+        private final LinkedHashSet<BlockKey> ghosts = new LinkedHashSet<>();
+
+        Shard(long capacity) {
+            this.capacity = capacity;
+            this.smallCapacity = capacity / 10;
+        }
+
+        synchronized void put(BlockKey key, Table table, ByteBuffer block) {
+            if (block.limit() > capacity || entries.containsKey(key)) {
+                return;
+            }
+
+            Entry entry = new Entry(key, table, block);
+            if (ghosts.remove(key)) {
+                main.addLast(entry);
+            } else {
+                small.addLast(entry);
+            }
+            entries.put(key, entry);
+            table.keys.add(key);
+
+            // Checked after the key is recorded: either invalidate finds the key or we see the table invalidated
+            if (table.invalidated) {
+                remove(key);
+                return;
+            }
+
+            while (small.bytes + main.bytes > capacity) {
+                if (small.bytes > smallCapacity || main.isEmpty()) {
+                    evictSmall();
+                } else {
+                    evictMain();
+                }
+            }
+        }
+
+        private void evictSmall() {
+            Entry entry = small.removeFirst();
+
+            if (entry.frequency > 0) {
+                entry.frequency = 0;
+                main.addLast(entry);
+                return;
+            }
+
+            drop(entry);
+            ghosts.add(entry.key);
+            // As many keys as there are blocks, older ones would hardly come back before being forgotten
+            Iterator<BlockKey> oldest = ghosts.iterator();
+            while (ghosts.size() > entries.size() && oldest.hasNext()) {
+                oldest.next();
+                oldest.remove();
+            }
+        }
+
+        private void evictMain() {
+            Entry entry = main.removeFirst();
+            if (entry.frequency > 0) {
+                entry.frequency--;
+                main.addLast(entry);
+                return;
+            }
+
+            drop(entry);
+        }
+
+        /**
+         * Removes a block of an invalidated table, the keys of the table in the ghost queue are left to age out.
+         */
+        synchronized void remove(BlockKey key) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                entry.queue.remove(entry);
+                drop(entry);
+            }
+        }
+
+        private void drop(Entry entry) {
+            entries.remove(entry.key);
+            entry.table.keys.remove(entry.key);
+        }
+
+        synchronized long size() {
+            return small.bytes + main.bytes;
+        }
+    }
+}
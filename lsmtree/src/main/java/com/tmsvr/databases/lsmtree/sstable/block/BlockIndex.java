@@ -0,0 +1,213 @@
+package com.tmsvr.databases.lsmtree.sstable.block;
+
+import com.tmsvr.databases.lsmtree.util.GrowingBuffer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Sparse index of a block based SSTable: the first key, offset and length of every data block, plus the last
+ * key of the table. Only one key per block is kept in memory.
+ * <p>
+ * The index is written after the last data block: the number of blocks (int), then for every block the key
+ * length (int), the key bytes, the offset (long) and the length (int) of the block, and finally the length and
+ * bytes of the last key. A fixed size footer closes the file with the offset (long) and length (int) of the
+ * index, the number of records (long) and a magic number (long).
+ */
+public class BlockIndex {
+    public static final int FOOTER_SIZE = Long.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES;
+    private static final long MAGIC = 0x4C534D424C4F434BL; // "LSMBLOCK"
+
+    private byte[][] firstKeys;
+    private long[] offsets;
+    private int[] lengths;
+    private int blockCount;
+    private byte[] lastKey;
+    private long entryCount;
+
+    public BlockIndex() {
+        this(16);
+    }
+
+    private BlockIndex(int capacity) {
+        this.firstKeys = new byte[capacity][];
+        this.offsets = new long[capacity];
+        this.lengths = new int[capacity];
+    }
+
+    public void addBlock(byte[] firstKey, long offset, int length, int records) {
+        if (blockCount == firstKeys.length) {
+            int capacity = Math.max(16, blockCount * 2);
+            firstKeys = Arrays.copyOf(firstKeys, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+
+        firstKeys[blockCount] = firstKey;
+        offsets[blockCount] = offset;
+        lengths[blockCount] = length;
+        blockCount++;
+        entryCount += records;
+    }
+
+    /**
+     * Adds the blocks of another table whose keys all come after the keys of this one.
+     *
+     * @param shift distance of the copied blocks from their offset in the other table
+     */
+    public void append(BlockIndex other, long shift) {
+        for (int i = 0; i < other.blockCount; i++) {
+            addBlock(other.firstKeys[i], other.offsets[i] + shift, other.lengths[i], 0);
+        }
+        entryCount += other.entryCount;
+        if (other.blockCount > 0) {
+            lastKey = other.lastKey;
+        }
+    }
+
+    /**
+     * @return bytes of the data blocks, the index starts after them
+     */
+    public long getDataSize() {
+        return blockCount == 0 ? 0 : offsets[blockCount - 1] + lengths[blockCount - 1];
+    }
+
+    public void setLastKey(byte[] lastKey) {
+        this.lastKey = lastKey;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return the smallest key of the table, or null if it has no blocks
+     */
+    public byte[] getFirstKey() {
+        return blockCount == 0 ? null : firstKeys[0];
+    }
+
+    /**
+     * @return the largest key of the table, or null if it has no blocks
+     */
+    public byte[] getLastKey() {
+        return blockCount == 0 ? null : lastKey;
+    }
+
+    public long getOffset(int block) {
+        return offsets[block];
+    }
+
+    public int getLength(int block) {
+        return lengths[block];
+    }
+
+    public byte[] getFirstKey(int block) {
+        return firstKeys[block];
+    }
+
+    /**
+     * @return the only block that may contain the key, or -1 if the key is outside the key range of the table
+     */
+    public int findBlock(byte[] key, Comparator<byte[]> keyOrder) {
+        if (blockCount == 0 || keyOrder.compare(key, firstKeys[0]) < 0 || keyOrder.compare(key, lastKey) > 0) {
+            return -1;
+        }
+        return seekBlock(key, keyOrder);
+    }
+
+    /**
+     * @return the first block that may contain the key or keys after it: the last block whose first key is not
+     * greater than the key, or 0 if the key is before the table
+     */
+    public int seekBlock(byte[] key, Comparator<byte[]> keyOrder) {
+        int low = 0;
+        int high = blockCount - 1;
+
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (keyOrder.compare(firstKeys[middle], key) <= 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return Math.max(low, 0);
+    }
+
+    public ByteBuffer toBytes(long indexOffset) {
+        GrowingBuffer buffer = new GrowingBuffer(1024);
+
+        buffer.putInt(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            buffer.putInt(firstKeys[i].length);
+            buffer.put(firstKeys[i]);
+            buffer.putLong(offsets[i]);
+            buffer.putInt(lengths[i]);
+        }
+
+        byte[] last = lastKey == null ? new byte[0] : lastKey;
+        buffer.putInt(last.length);
+        buffer.put(last);
+
+        int indexLength = buffer.position();
+        buffer.putLong(indexOffset);
+        buffer.putInt(indexLength);
+        buffer.putLong(entryCount);
+        buffer.putLong(MAGIC);
+
+        return buffer.flip();
+    }
+
+    public static BlockIndex read(FileChannel channel) throws IOException {
+        if (channel.size() < FOOTER_SIZE) {
+            throw new IOException("File is too short for an SSTable footer");
+        }
+
+        ByteBuffer footer = readFully(channel, channel.size() - FOOTER_SIZE, FOOTER_SIZE);
+        long indexOffset = footer.getLong();
+        int indexLength = footer.getInt();
+        long entryCount = footer.getLong();
+
+        if (footer.getLong() != MAGIC) {
+            throw new IOException("Not a block based SSTable, magic number does not match");
+        }
+
+        ByteBuffer data = readFully(channel, indexOffset, indexLength);
+        int blockCount = data.getInt();
+        BlockIndex index = new BlockIndex(Math.max(blockCount, 1));
+
+        for (int i = 0; i < blockCount; i++) {
+            byte[] firstKey = new byte[data.getInt()];
+            data.get(firstKey);
+            index.addBlock(firstKey, data.getLong(), data.getInt(), 0);
+        }
+
+        byte[] lastKey = new byte[data.getInt()];
+        data.get(lastKey);
+        index.setLastKey(lastKey);
+        index.entryCount = entryCount;
+
+        return index;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of SSTable at " + (offset + buffer.position()));
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -6,85 +6,301 @@ import com.tmsvr.databases.lsmtree.util.FileUtils;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Base64;
-import java.util.BitSet;
-import java.util.function.Consumer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * Bloom filter of the serialized keys of an SSTable, it tells for sure that a key is not in the table. The bits are
+ * kept in a long[]. A key is hashed once, with 64 bits of Murmur3, and every probe position is derived from that
+ * hash by double hashing, so a probe allocates nothing and stops at the first bit that is not set.
+ * <p>
+ * A filter is sized for the keys it really holds: a {@link Builder} collects the hashes of the keys while a table is
+ * written and builds the filter once their number is known.
+ * <p>
+ * Filters sized for different tables can't be merged bit by bit, so the filter of tables concatenated into one
+ * is made of their filters as they are, {@link #concatenate(List, int[]) one part per table}. Every part knows
+ * the first block of the table it covers, a key is checked against the part of the block that may hold it.
+ * <p>
+ * The {@code .filter} file is binary: a magic number, the number of parts, the first block, the number of hash
+ * functions and the number of words of every part, then the words of all parts, loaded with a single read.
+ */
 @Slf4j
-public class BloomFilter<K> {
+public final class BloomFilter {
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
     private static final String FILTER_FILE_SUFFIX = ".filter";
+    // Not a Base64 character, a filter file in the former text format never starts with it
+    private static final int MAGIC = 0xB100F11F;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int PART_HEADER_SIZE = 3 * Integer.BYTES;
+    private static final int MAX_WORDS = (Integer.MAX_VALUE - HEADER_SIZE - PART_HEADER_SIZE) / Long.BYTES;
+    private static final int MAX_HASH_FUNCTIONS = 30;
+    private static final HashFunction HASH_FUNCTION = new MurmurHashFunction();
 
-    private final BitSet bitSet;
-    private final int size;
-    private final HashFunction hashFunction = new MurmurHashFunction();
-    private final int hashFunctions;
+    private final long[] words;
+    // In the order of their first blocks
+    private final Part[] parts;
 
-    private final Path filterFile;
+    private BloomFilter(long[] words, Part[] parts) {
+        this.words = words;
+        this.parts = parts;
+    }
 
     /**
-     * Constructor that configures the bloom filter.
-     *
-     * @param expectedElements  number of expected elements in this filter
+     * @param expectedElements  number of keys the filter will hold
      * @param falsePositiveRate the rate of false positives we can accept 1 = 100%, 0.01 = 1% etc
-     * @param filename          name of the SSTable this filter belongs to
      */
-    public BloomFilter(int expectedElements, double falsePositiveRate, String filename) throws IOException {
-        this.filterFile = Paths.get(filename + FILTER_FILE_SUFFIX);
-        this.size = calculateSize(expectedElements, falsePositiveRate);
-        this.hashFunctions = calculateHashFunctions(expectedElements, size);
+    public static BloomFilter create(long expectedElements, double falsePositiveRate) {
+        // Rounded up, so the rate of a filter is below the one asked for instead of around it
+        double bitsPerKey = Math.ceil(-Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        long bits = (long) Math.ceil(Math.max(1, expectedElements) * bitsPerKey);
+        int wordCount = Math.clamp((bits + Long.SIZE - 1) / Long.SIZE, 1, MAX_WORDS);
+        int hashFunctions = Math.clamp(Math.round(bitsPerKey * Math.log(2)), 1, MAX_HASH_FUNCTIONS);
+        return new BloomFilter(new long[wordCount], new Part[]{new Part(0, 0, wordCount, hashFunctions)});
+    }
+
+    /**
+     * Puts the filters of tables concatenated into one together, the parts of every filter are kept as they are.
+     *
+     * @param firstBlocks the block of the concatenated table the table of every filter starts at
+     */
+    public static BloomFilter concatenate(List<BloomFilter> filters, int[] firstBlocks) {
+        long wordCount = 0;
+        for (BloomFilter filter : filters) {
+            wordCount += filter.words.length;
+        }
+        if (wordCount > MAX_WORDS) {
+            throw new IllegalArgumentException("Filters too large to concatenate, words: " + wordCount);
+        }
+
+        long[] words = new long[(int) wordCount];
+        List<Part> parts = new ArrayList<>();
+        int offset = 0;
+        for (int i = 0; i < filters.size(); i++) {
+            BloomFilter filter = filters.get(i);
+            System.arraycopy(filter.words, 0, words, offset, filter.words.length);
+            for (Part part : filter.parts) {
+                parts.add(new Part(firstBlocks[i] + part.firstBlock(), offset + part.offset(), part.wordCount(),
+                        part.hashFunctions()));
+            }
+            offset += filter.words.length;
+        }
+        return new BloomFilter(words, parts.toArray(Part[]::new));
+    }
 
-        this.bitSet = loadFromDisk();
+    /**
+     * Adds a key to a filter of a single part, as built for one table.
+     */
+    public void add(byte[] key) {
+        addHash(hash(key));
     }
 
-    public void add(K key) {
-        processKeyHashes(key, bitSet::set);
+    public boolean isPresent(byte[] key) {
+        return isPresent(hash(key));
     }
 
-    public boolean isPresent(K key) {
-        return processKeyHashes(key, index -> {
-            if (!bitSet.get(index)) {
-                throw new RuntimeException("Not present");
+    /**
+     * Checks every part, a filter of several parts is better asked with the block, see
+     * {@link #isPresent(int, long)}.
+     *
+     * @param hash {@link #hash(byte[])} of the key, a key looked up in many filters is hashed once
+     */
+    public boolean isPresent(long hash) {
+        for (Part part : parts) {
+            if (isPresent(part, hash)) {
+                return true;
             }
-        });
+        }
+        return false;
     }
 
-    public void saveToDisk() throws IOException {
-        FileUtils.saveToDisk(filterFile, bitSet, x -> Base64.getEncoder().encodeToString(x.toByteArray()));
+    /**
+     * @param blockNumber the block of the table that may hold the key
+     * @param hash        {@link #hash(byte[])} of the key
+     */
+    public boolean isPresent(int blockNumber, long hash) {
+        return isPresent(parts.length == 1 ? parts[0] : part(blockNumber), hash);
     }
 
-    private boolean processKeyHashes(K key, Consumer<Integer> indexProcessor) {
-        int hash1 = hashFunction.hash(key.toString().getBytes());
-        int hash2 = (hash1 >>> 16) | (hash1 << 16); // Mix bits for variation
+    private boolean isPresent(Part part, long hash) {
+        long bitCount = part.bitCount();
+        long delta = Long.rotateLeft(hash, 32);
 
-        for (int i = 0; i < hashFunctions; i++) {
-            int hash = (hash1 + i * hash2) & Integer.MAX_VALUE; // Ensure positive index
-            int index = hash % size;
-            try {
-                indexProcessor.accept(index);
-            } catch (RuntimeException e) {
+        for (int i = 0; i < part.hashFunctions(); i++) {
+            long bit = bitIndex(hash, bitCount);
+            if ((words[part.offset() + (int) (bit >>> 6)] & (1L << bit)) == 0) {
                 return false;
             }
+            hash += delta;
         }
         return true;
     }
 
-    private int calculateSize(int expectedElements, double falsePositiveRate) {
-        return (int) Math.ceil(-expectedElements * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    /**
+     * @return the last part that starts at the block or before it
+     */
+    private Part part(int blockNumber) {
+        int low = 0;
+        int high = parts.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (parts[middle].firstBlock() <= blockNumber) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return parts[low];
     }
 
-    private int calculateHashFunctions(int expectedElements, int size) {
-        return (int) Math.round((size / (double) expectedElements) * Math.log(2));
+    /**
+     * @return size of the bit array in bytes
+     */
+    public long getByteSize() {
+        return (long) words.length * Long.BYTES;
     }
 
-    private BitSet loadFromDisk() throws IOException {
-        return FileUtils.loadFromDisk(filterFile, dataFromDisk -> {
-            if (dataFromDisk != null && !dataFromDisk.isBlank()) {
-                return BitSet.valueOf(Base64.getDecoder().decode(dataFromDisk));
-            } else {
-                return new BitSet(size);
+    /**
+     * @return number of hash functions of the first part, every filter built with the same false positive rate
+     * has the same number
+     */
+    public int getHashFunctions() {
+        return parts[0].hashFunctions();
+    }
+
+    public int getPartCount() {
+        return parts.length;
+    }
+
+    public void saveToDisk(String filename) throws IOException {
+        FileUtils.saveBytesToDisk(path(filename), this, BloomFilter::toBytes);
+    }
+
+    /**
+     * @return the filter of the SSTable, or null if it has none or only one in a former format
+     */
+    public static BloomFilter loadFromDisk(String filename) throws IOException {
+        return FileUtils.loadBytesFromDisk(path(filename), bytes -> fromBytes(bytes, filename), null);
+    }
+
+    /**
+     * Deletes the filter file of the SSTable, if it has one.
+     */
+    public static void deleteFile(String filename) throws IOException {
+        Files.deleteIfExists(path(filename));
+    }
+
+    private void addHash(long hash) {
+        Part part = parts[0];
+        long bitCount = part.bitCount();
+        long delta = Long.rotateLeft(hash, 32);
+
+        for (int i = 0; i < part.hashFunctions(); i++) {
+            long bit = bitIndex(hash, bitCount);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+            hash += delta;
+        }
+    }
+
+    /**
+     * Maps the hash onto the bits of a part with a multiplication instead of a division.
+     */
+    private static long bitIndex(long hash, long bitCount) {
+        return Math.unsignedMultiplyHigh(hash, bitCount);
+    }
+
+    /**
+     * @return the hash every probe position of the key is derived from
+     */
+    public static long hash(byte[] key) {
+        return HASH_FUNCTION.hash(key);
+    }
+
+    private static Path path(String filename) {
+        return Paths.get(filename + FILTER_FILE_SUFFIX);
+    }
+
+    private static byte[] toBytes(BloomFilter filter) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + filter.parts.length * PART_HEADER_SIZE
+                + filter.words.length * Long.BYTES);
+        buffer.putInt(MAGIC).putInt(filter.parts.length);
+        for (Part part : filter.parts) {
+            buffer.putInt(part.firstBlock()).putInt(part.hashFunctions()).putInt(part.wordCount());
+        }
+        buffer.asLongBuffer().put(filter.words);
+        return buffer.array();
+    }
+
+    private static BloomFilter fromBytes(byte[] bytes, String filename) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            log.info("Filter of {} is in a former format", filename);
+            return null;
+        }
+
+        int partCount = buffer.getInt();
+        if (partCount <= 0 || partCount > buffer.remaining() / PART_HEADER_SIZE) {
+            throw new IllegalArgumentException("Corrupt filter of " + filename + ", parts: " + partCount);
+        }
+
+        Part[] parts = new Part[partCount];
+        long wordCount = 0;
+        for (int i = 0; i < partCount; i++) {
+            int firstBlock = buffer.getInt();
+            int hashFunctions = buffer.getInt();
+            int partWords = buffer.getInt();
+            if (firstBlock < (i == 0 ? 0 : parts[i - 1].firstBlock()) || hashFunctions <= 0 || partWords <= 0) {
+                throw new IllegalArgumentException("Corrupt filter of " + filename + ", part: " + i);
             }
-        }, new BitSet(size));
+            parts[i] = new Part(firstBlock, (int) wordCount, partWords, hashFunctions);
+            wordCount += partWords;
+        }
+        if (buffer.remaining() != wordCount * Long.BYTES) {
+            throw new IllegalArgumentException("Corrupt filter of " + filename + ", words: " + wordCount);
+        }
+
+        long[] words = new long[(int) wordCount];
+        buffer.asLongBuffer().get(words);
+        return new BloomFilter(words, parts);
+    }
+
+    /**
+     * The bits of the keys of one table.
+     *
+     * @param firstBlock first block of the table in the table the filter belongs to
+     * @param offset     first word of the part
+     */
+    private record Part(int firstBlock, int offset, int wordCount, int hashFunctions) {
+        long bitCount() {
+            return (long) wordCount * Long.SIZE;
+        }
+    }
+
+    /**
+     * Collects the keys of a table being written, as hashes, until the filter can be sized for all of them.
+     */
+    public static final class Builder {
+        private long[] hashes = new long[256];
+        private int count;
+
+        public void add(byte[] key) {
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+            }
+            hashes[count++] = hash(key);
+        }
+
+        public BloomFilter build(double falsePositiveRate) {
+            BloomFilter filter = create(count, falsePositiveRate);
+            for (int i = 0; i < count; i++) {
+                filter.addHash(hashes[i]);
+            }
+            return filter;
+        }
     }
 }
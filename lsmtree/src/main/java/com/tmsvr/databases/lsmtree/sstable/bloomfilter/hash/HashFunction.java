@@ -1,5 +1,5 @@
 package com.tmsvr.databases.lsmtree.sstable.bloomfilter.hash;
 
 public interface HashFunction {
-    int hash(byte[] input);
+    long hash(byte[] input);
 }
@@ -1,27 +1,35 @@
 package com.tmsvr.databases.lsmtree.sstable.index;
 
 import com.tmsvr.databases.lsmtree.util.FileUtils;
-import com.tmsvr.databases.serde.SerDe;
+import com.tmsvr.databases.lsmtree.util.GrowingBuffer;
+import com.tmsvr.databases.serde.BinarySerDe;
+import com.tmsvr.databases.serde.ByteKeys;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.TreeMap;
 
-import static com.tmsvr.databases.lsmtree.sstable.LsmSerDe.SEPARATOR;
-
+/**
+ * Offset of every key in the data file of an SSTable written before the block format, new tables use a sparse
+ * {@link com.tmsvr.databases.lsmtree.sstable.block.BlockIndex} instead. On disk each entry is stored as the key
+ * length (int), the key bytes and the offset (long). Keys are kept and looked up in serialized form, loading the
+ * index does not deserialize them.
+ */
 @Slf4j
 public class Index<K extends Comparable<K>> {
     private static final String INDEX_FILE_SUFFIX = ".index";
 
     private final Path indexFile;
-    private final SerDe<K> keySerDe;
-    private final Map<K, Long> index;
+    private final BinarySerDe<K> keySerDe;
+    private final Map<byte[], Long> index;
 
-    public Index(String filename, SerDe<K> keySerDe) throws IOException {
+    public Index(String filename, BinarySerDe<K> keySerDe) throws IOException {
         this.indexFile = Paths.get(filename + INDEX_FILE_SUFFIX);
         this.keySerDe = keySerDe;
         this.index = loadFromDisk();
@@ -35,41 +43,63 @@ public class Index<K extends Comparable<K>> {
         return Files.exists(indexFile);
     }
 
+    /**
+     * Deletes the index file of the SSTable, if it has one.
+     */
+    public static void deleteFile(String filename) throws IOException {
+        Files.deleteIfExists(Paths.get(filename + INDEX_FILE_SUFFIX));
+    }
+
     public Long getOffset(K key) {
+        return getOffset(keySerDe.toBytes(key));
+    }
+
+    public Long getOffset(byte[] key) {
         return index.get(key);
     }
 
     public void add(K key, long offset) {
+        add(keySerDe.toBytes(key), offset);
+    }
+
+    public void add(byte[] key, long offset) {
         index.put(key, offset);
     }
 
     public void saveToDisk() throws IOException {
-        FileUtils.saveToDisk(indexFile, index, x -> {
-            StringBuilder csvBuilder = new StringBuilder();
-            for (Map.Entry<K, Long> entry : x.entrySet()) {
-                csvBuilder.append(keySerDe.serialize(entry.getKey()))
-                        .append(SEPARATOR)
-                        .append(entry.getValue())
-                        .append(System.lineSeparator());
+        FileUtils.saveBytesToDisk(indexFile, index, x -> {
+            GrowingBuffer buffer = new GrowingBuffer(1024);
+            for (Map.Entry<byte[], Long> entry : x.entrySet()) {
+                buffer.putInt(entry.getKey().length);
+                buffer.put(entry.getKey());
+                buffer.putLong(entry.getValue());
             }
 
-            return csvBuilder.toString();
+            return Arrays.copyOf(buffer.array(), buffer.position());
         });
     }
 
-    private Map<K, Long> loadFromDisk() throws IOException {
-        return FileUtils.loadFromDisk(indexFile, indexContent -> {
-            Map<K, Long> map = new TreeMap<>();
-            String[] lines = indexContent.split(System.lineSeparator());
+    /**
+     * The map only needs to find exact matches, so the byte order works for every key type, not only for the
+     * ones with an order-preserving encoding. An index in the text format of the versions before the binary one
+     * doesn't add up to whole entries, it is refused instead of being read as garbage.
+     */
+    private Map<byte[], Long> loadFromDisk() throws IOException {
+        return FileUtils.loadBytesFromDisk(indexFile, indexContent -> {
+            Map<byte[], Long> map = new TreeMap<>(ByteKeys.COMPARATOR);
+            ByteBuffer buffer = ByteBuffer.wrap(indexContent);
 
-            for (String line : lines) {
-                String[] parts = line.split(SEPARATOR);
-                if (parts.length == 2) {
-                    map.put(keySerDe.deserialize(parts[0]), Long.parseLong(parts[1]));
+            while (buffer.hasRemaining()) {
+                int keyLength = buffer.remaining() >= Integer.BYTES ? buffer.getInt() : -1;
+                if (keyLength < 0 || keyLength > buffer.remaining() - Long.BYTES) {
+                    throw new IllegalArgumentException("Index " + indexFile + " is not in the binary format, "
+                            + "it may be a text index of a former version");
                 }
+                byte[] key = new byte[keyLength];
+                buffer.get(key);
+                map.put(key, buffer.getLong());
             }
             return map;
-        }, new TreeMap<>());
+        }, new TreeMap<>(ByteKeys.COMPARATOR));
     }
 }
-
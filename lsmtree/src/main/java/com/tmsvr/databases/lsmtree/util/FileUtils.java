@@ -15,6 +15,11 @@ public class FileUtils {
         Files.writeString(filePath, processedData);
     }
 
+    public static <T> void saveBytesToDisk(Path filePath, T data, Function<T, byte[]> dataProcessor) throws IOException {
+        byte[] processedData = dataProcessor.apply(data);
+        Files.write(filePath, processedData);
+    }
+
     public static <T> T loadFromDisk(Path filePath, Function<String, T> dataProcessor, T defaultValue) throws IOException {
         try {
             String rawData = Files.readString(filePath);
@@ -26,4 +31,16 @@ public class FileUtils {
             throw new IOException("Failed to load data from file: " + filePath, e);
         }
     }
-}
+
+    public static <T> T loadBytesFromDisk(Path filePath, Function<byte[], T> dataProcessor, T defaultValue) throws IOException {
+        try {
+            byte[] rawData = Files.readAllBytes(filePath);
+            return dataProcessor.apply(rawData);
+        } catch (NoSuchFileException e) {
+            log.info("File '" + filePath + "' is empty or not present, returning default value");
+            return defaultValue;
+        } catch (IOException e) {
+            throw new IOException("Failed to load data from file: " + filePath, e);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,85 @@
+package com.tmsvr.databases.lsmtree.util;
+
+import com.tmsvr.databases.serde.BinarySerDe;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable heap buffer for serializing records. It doubles its capacity whenever a write does not fit,
+ * so after warming up serialization does not allocate.
+ */
+public class GrowingBuffer {
+    private ByteBuffer buffer;
+
+    public GrowingBuffer(int initialCapacity) {
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    public <T> int put(BinarySerDe<T> serDe, T value) {
+        int start = buffer.position();
+
+        while (true) {
+            try {
+                return serDe.serialize(value, buffer);
+            } catch (BufferOverflowException e) {
+                buffer.position(start);
+                grow(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    public void putInt(int value) {
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    public void putInt(int index, int value) {
+        buffer.putInt(index, value);
+    }
+
+    public void putLong(long value) {
+        ensureRemaining(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    public void put(byte[] bytes) {
+        ensureRemaining(bytes.length);
+        buffer.put(bytes);
+    }
+
+    public int position() {
+        return buffer.position();
+    }
+
+    public byte[] array() {
+        return buffer.array();
+    }
+
+    /**
+     * @return a view of the bytes written since the last {@link #clear()}
+     */
+    public ByteBuffer flip() {
+        return buffer.duplicate().flip();
+    }
+
+    public void clear() {
+        buffer.clear();
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (buffer.remaining() < bytes) {
+            grow(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        }
+    }
+
+    private void grow(int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        bigger.put(buffer);
+        buffer = bigger;
+    }
+}
@@ -46,6 +46,7 @@ public class DataStorePerformanceTest {
 
             System.out.println("Time to put " + ITEM_COUNT + " items: " + duration / 1_000_000_000.0 + " s");
 
+            dataStore.close();
             cleanup();
         }
 
@@ -104,7 +105,8 @@ public class DataStorePerformanceTest {
         Path dir = Path.of(".");
 
         try (Stream<Path> paths = Files.walk(dir)) {
-            paths.filter(path -> path.toString().endsWith(".index") || path.toString().endsWith(".filter") || path.toString().endsWith(".data"))
+            paths.filter(path -> path.toString().endsWith(".index") || path.toString().endsWith(".filter") || path.toString().endsWith(".data")
+                            || path.toString().endsWith(".wal") || path.getFileName().toString().startsWith("MANIFEST"))
                     .forEach(path -> {
                         try {
                             Files.delete(path);
@@ -113,8 +115,6 @@ public class DataStorePerformanceTest {
                         }
                     });
         }
-
-        Files.delete(Path.of("./commit-log.txt"));
     }
 }
 
@@ -1,13 +1,33 @@
 package com.tmsvr.databases.lsmtree;
 
+import com.tmsvr.databases.CloseableIterator;
+import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.KeyRanges;
+import com.tmsvr.databases.ScanDirection;
+import com.tmsvr.databases.WriteBatch;
+import com.tmsvr.databases.lsmtree.commitlog.CommitLogOptions;
+import com.tmsvr.databases.lsmtree.commitlog.CommitLogOptions.Durability;
+import com.tmsvr.databases.lsmtree.commitlog.DefaultCommitLog;
 import com.tmsvr.databases.lsmtree.memtable.Memtable;
 import com.tmsvr.databases.lsmtree.sstable.SSTableManager;
+import com.tmsvr.databases.lsmtree.sstable.SSTableOptions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
+import static com.tmsvr.databases.lsmtree.TestUtils.stringSerDe;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -31,11 +51,13 @@ class LsmDataStoreTest {
 
     @Test
     void testDeletionHandling() throws IOException {
-        when(memtable.get("1")).thenReturn("found");
-        when(memtable.get("2")).thenReturn(null);
-        when(memtable.get("3")).thenReturn(null);
-        when(memtable.get("4")).thenReturn(null);
-        when(memtable.get("5")).thenReturn(null);
+        when(memtable.getRecord("1")).thenReturn(new DataRecord<>("1", "found"));
+        when(memtable.getRecord("2")).thenReturn(new DataRecord<>("2", null));
+        when(memtable.getRecord("3")).thenReturn(null);
+        when(memtable.getRecord("4")).thenReturn(null);
+        when(memtable.getRecord("5")).thenReturn(null);
+
+        when(ssTableManager.findValue("2")).thenReturn(Optional.of("deleted later"));
 
         when(ssTableManager.findValue("3")).thenReturn(Optional.of("found"));
         when(ssTableManager.findValue("4")).thenReturn(Optional.empty());
@@ -54,4 +76,245 @@ class LsmDataStoreTest {
         assertTrue(dataStore.get("5").isEmpty());
     }
 
-}
\ No newline at end of file
+    @Test
+    void testRotatedMemtablesStayReadable() throws IOException {
+        TestUtils.cleanupFiles();
+        LsmDataStore<String, String> store = new LsmDataStore<>(stringSerDe(), stringSerDe(), 10);
+
+        for (int i = 0; i < 100; i++) {
+            store.put("key" + i, "value" + i);
+            assertEquals(Optional.of("value" + i), store.get("key" + i));
+        }
+        store.delete("key5");
+
+        store.flush();
+
+        // Only the segment of the new active memtable is left
+        assertEquals(1, DefaultCommitLog.findSegments().size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i == 5 ? Optional.empty() : Optional.of("value" + i), store.get("key" + i));
+        }
+
+        store.close();
+        TestUtils.cleanupFiles();
+    }
+
+    @Test
+    void testRotationMakesWritesDurable() throws IOException {
+        TestUtils.cleanupFiles();
+        CommitLogOptions osBuffered = CommitLogOptions.defaults().withDurability(Durability.OS_BUFFERED);
+        LsmDataStore<String, String> store = new LsmDataStore<>(stringSerDe(), stringSerDe(), 5, SSTableOptions.defaults(), osBuffered);
+
+        for (int i = 0; i < 3; i++) {
+            store.put("key" + i, "value" + i);
+        }
+        assertEquals(0, store.getDurableSequence());
+        assertEquals(3, store.sync());
+
+        store.put("key3", "value3");
+        store.flush();
+        assertEquals(4, store.getDurableSequence());
+
+        store.close();
+        TestUtils.cleanupFiles();
+    }
+
+    @Test
+    void testMemtableIsRecoveredFromCommitLog() throws IOException {
+        TestUtils.cleanupFiles();
+        LsmDataStore<String, String> store = new LsmDataStore<>(stringSerDe(), stringSerDe(), 100);
+        store.put("a", "1");
+        store.put("b", "2");
+        store.close();
+
+        LsmDataStore<String, String> reopened = new LsmDataStore<>(stringSerDe(), stringSerDe(), 100);
+        assertEquals(Optional.of("1"), reopened.get("a"));
+        assertEquals(Optional.of("2"), reopened.get("b"));
+
+        reopened.flush();
+        assertEquals(Optional.of("1"), reopened.get("a"));
+
+        reopened.close();
+        TestUtils.cleanupFiles();
+    }
+
+    @Test
+    void testConcurrentReadersAndWriters() throws Exception {
+        TestUtils.cleanupFiles();
+        LsmDataStore<String, String> store = new LsmDataStore<>(stringSerDe(), stringSerDe(), 50);
+
+        // Every writer owns its keys, readers check the keys that are already written never go missing
+        int writers = 4;
+        int keysPerWriter = 500;
+        AtomicIntegerArray written = new AtomicIntegerArray(writers);
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            tasks.add(() -> {
+                for (int i = 0; i < keysPerWriter; i++) {
+                    store.put(writer + "-" + i, "value" + i);
+                    written.set(writer, i + 1);
+                }
+                return true;
+            });
+            tasks.add(() -> {
+                Random random = new Random(writer);
+                for (int n = 0; n < 2000; n++) {
+                    int owner = random.nextInt(writers);
+                    int count = written.get(owner);
+                    if (count > 0) {
+                        int i = random.nextInt(count);
+                        if (!store.get(owner + "-" + i).equals(Optional.of("value" + i))) {
+                            return false;
+                        }
+
+                        // getAll probes the tables level by level while compactions replace them
+                        Map<String, String> expected = new HashMap<>();
+                        expected.put(owner + "-" + i, "value" + i);
+                        expected.put(owner + "-" + i / 2, "value" + i / 2);
+                        if (!store.getAll(expected.keySet()).equals(expected)) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            });
+        }
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(tasks.size())) {
+            for (Future<Boolean> result : executor.invokeAll(tasks)) {
+                assertTrue(result.get());
+            }
+        }
+
+        for (int w = 0; w < writers; w++) {
+            for (int i = 0; i < keysPerWriter; i++) {
+                assertEquals(Optional.of("value" + i), store.get(w + "-" + i));
+            }
+        }
+
+        store.close();
+        TestUtils.cleanupFiles();
+    }
+
+    @Test
+    void testWriteBatchIsAppliedAndRecovered() throws IOException {
+        TestUtils.cleanupFiles();
+        LsmDataStore<String, String> store = new LsmDataStore<>(stringSerDe(), stringSerDe(), 100);
+        store.put("deleted", "old");
+
+        WriteBatch<String, String> batch = new WriteBatch<>();
+        for (int i = 0; i < 50; i++) {
+            batch.put(key(i), "value" + i);
+        }
+        batch.put(key(7), "overwritten").delete("deleted").delete(key(8));
+        store.write(batch);
+
+        assertEquals(Optional.of("overwritten"), store.get(key(7)));
+        assertEquals(Optional.empty(), store.get(key(8)));
+        assertEquals(Optional.empty(), store.get("deleted"));
+        assertEquals(Optional.of("value9"), store.get(key(9)));
+        store.close();
+
+        LsmDataStore<String, String> reopened = new LsmDataStore<>(stringSerDe(), stringSerDe(), 100);
+        assertEquals(Optional.of("overwritten"), reopened.get(key(7)));
+        assertEquals(Optional.empty(), reopened.get(key(8)));
+        assertEquals(Optional.empty(), reopened.get("deleted"));
+        assertEquals(Optional.of("value49"), reopened.get(key(49)));
+
+        reopened.close();
+        TestUtils.cleanupFiles();
+    }
+
+    @Test
+    void testGetAllLooksInMemtableAndSSTables() throws IOException {
+        TestUtils.cleanupFiles();
+        LsmDataStore<String, String> store = new LsmDataStore<>(stringSerDe(), stringSerDe(), 100);
+
+        for (int i = 0; i < 30; i++) {
+            store.put(key(i), "flushed" + i);
+        }
+        store.flush();
+        store.put(key(1), "memtable1");
+        store.delete(key(2));
+        store.put(key(40), "memtable40");
+
+        Map<String, String> values = store.getAll(List.of(key(0), key(1), key(2), key(29), key(40), key(50)));
+
+        assertEquals(Map.of(key(0), "flushed0", key(1), "memtable1", key(29), "flushed29", key(40), "memtable40"), values);
+
+        store.close();
+        TestUtils.cleanupFiles();
+    }
+
+    @Test
+    void testScanMergesMemtablesAndSSTables() throws IOException {
+        TestUtils.cleanupFiles();
+        LsmDataStore<String, String> store = new LsmDataStore<>(stringSerDe(), stringSerDe(), 100);
+
+        for (int i = 0; i < 50; i++) {
+            store.put(key(i), "old" + i);
+        }
+        store.flush();
+        for (int i = 0; i < 50; i += 2) {
+            store.put(key(i), "new" + i);
+        }
+        store.flush();
+        // Left in the memtable: an overwrite and deletes of flushed keys
+        store.put(key(3), "newest3");
+        for (int i = 10; i < 20; i++) {
+            store.delete(key(i));
+        }
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            if (i < 10 || i >= 20) {
+                expected.add(i == 3 ? "newest3" : (i % 2 == 0 ? "new" : "old") + i);
+            }
+        }
+        assertEquals(expected, values(store.scan(null, null)));
+        assertEquals(expected.reversed(), values(store.scan(null, null, ScanDirection.REVERSE)));
+
+        List<String> range = List.of("old5", "new6", "old7", "new8", "old9", "new20", "old21");
+        assertEquals(range, values(store.scan(key(5), key(22))));
+        assertEquals(range.reversed(), values(store.scan(key(5), key(22), ScanDirection.REVERSE)));
+
+        assertEquals(List.of(), values(store.scanPrefix("key1", KeyRanges::prefixEnd, ScanDirection.FORWARD)));
+        assertEquals(expected.subList(10, 20), values(store.scanPrefix("key2", KeyRanges::prefixEnd, ScanDirection.FORWARD)));
+
+        store.close();
+        TestUtils.cleanupFiles();
+    }
+
+    @Test
+    void testScanStoppedEarlyReleasesTables() throws IOException {
+        TestUtils.cleanupFiles();
+        LsmDataStore<String, String> store = new LsmDataStore<>(stringSerDe(), stringSerDe(), 100);
+        for (int i = 0; i < 50; i++) {
+            store.put(key(i), "value" + i);
+        }
+        store.flush();
+
+        try (CloseableIterator<DataRecord<String, String>> records = store.scan(key(10), null)) {
+            assertEquals(new DataRecord<>(key(10), "value10"), records.next());
+            assertEquals(new DataRecord<>(key(11), "value11"), records.next());
+        }
+        assertEquals(Optional.of("value12"), store.get(key(12)));
+
+        store.close();
+        TestUtils.cleanupFiles();
+    }
+
+    private static String key(int i) {
+        return "key" + String.format("%02d", i);
+    }
+
+    private static List<String> values(CloseableIterator<DataRecord<String, String>> records) {
+        List<String> values = new ArrayList<>();
+        try (records) {
+            records.forEachRemaining(record -> values.add(record.value()));
+        }
+        return values;
+    }
+}
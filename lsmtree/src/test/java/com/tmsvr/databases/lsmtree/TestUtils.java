@@ -1,6 +1,7 @@
 package com.tmsvr.databases.lsmtree;
 
 import com.tmsvr.databases.lsmtree.sstable.LsmSerDe;
+import com.tmsvr.databases.lsmtree.sstable.Manifest;
 import com.tmsvr.databases.serde.SerDe;
 
 import java.io.IOException;
@@ -13,7 +14,9 @@ public final class TestUtils {
     public static void cleanupFiles() throws IOException {
         try (Stream<Path> files = Files.list(Path.of("."))) {
             files
-                    .filter(path -> path.getFileName().toString().startsWith("table") || path.getFileName().toString().startsWith("sstable"))
+                    .filter(path -> path.getFileName().toString().startsWith("table") || path.getFileName().toString().startsWith("sstable")
+                            || path.getFileName().toString().startsWith("commit-log")
+                            || path.getFileName().toString().startsWith(Manifest.FILE_NAME))
                     .forEach(path1 -> {
                         try {
                             Files.delete(path1);
@@ -22,8 +25,6 @@ public final class TestUtils {
                         }
                     });
         }
-
-        Files.deleteIfExists(Path.of("commit-log.txt"));
     }
 
     public static LsmSerDe<String> stringSerDe() {
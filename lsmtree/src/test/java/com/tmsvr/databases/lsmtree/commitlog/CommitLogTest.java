@@ -1,14 +1,32 @@
 package com.tmsvr.databases.lsmtree.commitlog;
 
 import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.lsmtree.TestUtils;
+import com.tmsvr.databases.lsmtree.commitlog.CommitLogOptions.Durability;
+import com.tmsvr.databases.lsmtree.sstable.RecordSerializer;
+import com.tmsvr.databases.lsmtree.util.GrowingBuffer;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static com.tmsvr.databases.lsmtree.TestUtils.stringSerDe;
 import static org.junit.jupiter.api.Assertions.*;
@@ -18,7 +36,7 @@ class CommitLogTest {
     @AfterEach
     @BeforeEach
     void cleanup() throws IOException {
-        Files.deleteIfExists(Path.of(DefaultCommitLog.FILE_PATH));
+        TestUtils.cleanupFiles();
     }
 
     @Test
@@ -26,7 +44,7 @@ class CommitLogTest {
         CommitLog<String, String> cm = new DefaultCommitLog<>(stringSerDe(), stringSerDe());
 
         assertEquals(0, cm.getSize());
-        assertTrue(cm.readCommitLog().isEmpty());
+        assertTrue(replay(cm).isEmpty());
         assertTrue(Files.exists(Path.of(DefaultCommitLog.FILE_PATH)));
     }
 
@@ -39,7 +57,7 @@ class CommitLogTest {
         cm.append(new DataRecord<>("b", "d"));
 
         assertEquals(3, cm.getSize());
-        List<DataRecord<String, String>> commitLogEntries = cm.readCommitLog();
+        List<DataRecord<String, String>> commitLogEntries = replay(cm);
         assertEquals(3, commitLogEntries.size());
 
         assertTrue(commitLogEntries.contains(new DataRecord<>("a", "b")));
@@ -56,13 +74,303 @@ class CommitLogTest {
         cm.append(new DataRecord<>("b", "d"));
 
         assertEquals(3, cm.getSize());
-        List<DataRecord<String, String>> commitLogEntries = cm.readCommitLog();
+        List<DataRecord<String, String>> commitLogEntries = replay(cm);
         assertEquals(3, commitLogEntries.size());
 
         cm.clear();
 
         assertEquals(0, cm.getSize());
-        assertTrue(cm.readCommitLog().isEmpty());
+        assertTrue(replay(cm).isEmpty());
         assertTrue(Files.exists(Path.of(DefaultCommitLog.FILE_PATH)));
     }
-}
\ No newline at end of file
+
+    @Test
+    void separatorAndTombstoneAreStored() throws IOException {
+        CommitLog<String, String> cm = new DefaultCommitLog<>(stringSerDe(), stringSerDe());
+
+        cm.append(new DataRecord<>("a::b", "c::d"));
+        cm.append(new DataRecord<>("e", null));
+
+        CommitLog<String, String> reopened = new DefaultCommitLog<>(stringSerDe(), stringSerDe());
+        assertEquals(List.of(new DataRecord<>("a::b", "c::d"), new DataRecord<>("e", null)), replay(reopened));
+        assertEquals(2, reopened.getSize());
+    }
+
+    @Test
+    void incompleteLastRecordIsIgnored() throws IOException {
+        CommitLog<String, String> cm = withoutPreallocation();
+        cm.append(new DataRecord<>("a", "b"));
+
+        Files.write(Path.of(DefaultCommitLog.FILE_PATH), new byte[]{0, 0, 0, 5, 'x'}, StandardOpenOption.APPEND);
+
+        CommitLog<String, String> reopened = new DefaultCommitLog<>(stringSerDe(), stringSerDe());
+        assertEquals(List.of(new DataRecord<>("a", "b")), replay(reopened));
+        assertEquals(1, reopened.getSize());
+
+        // Appending after replay overwrites the torn tail, so the next replay finds the new record
+        reopened.append(new DataRecord<>("c", "d"));
+        reopened.close();
+        CommitLog<String, String> again = new DefaultCommitLog<>(stringSerDe(), stringSerDe());
+        assertEquals(List.of(new DataRecord<>("a", "b"), new DataRecord<>("c", "d")), replay(again));
+    }
+
+    @Test
+    void replayStopsAtCorruptRecord() throws IOException {
+        CommitLog<String, String> cm = withoutPreallocation();
+        cm.append(new DataRecord<>("a", "b"));
+        cm.append(new DataRecord<>("c", "d"));
+        cm.close();
+
+        Path file = Path.of(DefaultCommitLog.FILE_PATH);
+        byte[] content = Files.readAllBytes(file);
+        content[content.length - 1] ^= 1;
+        Files.write(file, content);
+
+        CommitLog<String, String> reopened = new DefaultCommitLog<>(stringSerDe(), stringSerDe());
+        assertEquals(List.of(new DataRecord<>("a", "b")), replay(reopened));
+    }
+
+    @Test
+    void sequencesContinueAfterReplay() throws IOException {
+        CommitLog<String, String> cm = new DefaultCommitLog<>(DefaultCommitLog.segmentPath(1), stringSerDe(), stringSerDe(),
+                CommitLogOptions.defaults(), 10);
+        assertEquals(10, cm.append(new DataRecord<>("a", "b")));
+        assertEquals(11, cm.append(new DataRecord<>("c", "d")));
+        cm.close();
+
+        CommitLog<String, String> reopened = new DefaultCommitLog<>(DefaultCommitLog.segmentPath(1), stringSerDe(), stringSerDe());
+        List<Long> sequences = new ArrayList<>();
+        reopened.replay((dataRecord, sequence) -> sequences.add(sequence));
+
+        assertEquals(List.of(10L, 11L), sequences);
+        assertEquals(12, reopened.getNextSequence());
+        assertEquals(12, reopened.append(new DataRecord<>("e", "f")));
+    }
+
+    @Test
+    void batchIsReplayedWithConsecutiveSequences() throws IOException {
+        CommitLog<String, String> cm = new DefaultCommitLog<>(stringSerDe(), stringSerDe());
+        assertEquals(0, cm.append(new DataRecord<>("a", "1")));
+        assertEquals(1, cm.append(List.of(new DataRecord<>("b", "2"), new DataRecord<>("c", null), new DataRecord<>("b", "3"))));
+        assertEquals(4, cm.append(new DataRecord<>("d", "4")));
+        assertEquals(5, cm.getSize());
+        cm.close();
+
+        CommitLog<String, String> reopened = new DefaultCommitLog<>(stringSerDe(), stringSerDe());
+        List<Long> sequences = new ArrayList<>();
+        List<DataRecord<String, String>> records = new ArrayList<>();
+        reopened.replay((dataRecord, sequence) -> {
+            records.add(dataRecord);
+            sequences.add(sequence);
+        });
+
+        assertEquals(List.of(new DataRecord<>("a", "1"), new DataRecord<>("b", "2"), new DataRecord<>("c", null),
+                new DataRecord<>("b", "3"), new DataRecord<>("d", "4")), records);
+        assertEquals(List.of(0L, 1L, 2L, 3L, 4L), sequences);
+        assertEquals(5, reopened.getNextSequence());
+    }
+
+    @Test
+    void tornBatchIsNotReplayedInPart() throws IOException {
+        CommitLog<String, String> cm = withoutPreallocation();
+        cm.append(new DataRecord<>("a", "1"));
+        cm.append(List.of(new DataRecord<>("b", "2"), new DataRecord<>("c", "3")));
+        cm.close();
+
+        // Cuts the last record of the batch short
+        Path file = Path.of(DefaultCommitLog.FILE_PATH);
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 1));
+
+        CommitLog<String, String> reopened = new DefaultCommitLog<>(stringSerDe(), stringSerDe());
+        assertEquals(List.of(new DataRecord<>("a", "1")), replay(reopened));
+    }
+
+    @Test
+    void logWithoutFramingIsReplayed() throws IOException {
+        GrowingBuffer buffer = new GrowingBuffer(64);
+        RecordSerializer<String, String> serializer = new RecordSerializer<>(stringSerDe(), stringSerDe());
+        serializer.write("a", "b", buffer);
+        serializer.write("c", null, buffer);
+        ByteBuffer content = buffer.flip();
+        Files.write(Path.of(DefaultCommitLog.FILE_PATH), Arrays.copyOf(content.array(), content.limit()));
+
+        CommitLog<String, String> legacy = new DefaultCommitLog<>(stringSerDe(), stringSerDe());
+
+        assertEquals(List.of(new DataRecord<>("a", "b"), new DataRecord<>("c", null)), replay(legacy));
+        assertThrows(IOException.class, () -> legacy.append(new DataRecord<>("e", "f")));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Durability.class)
+    void concurrentAppendsAreWrittenInSequenceOrder(Durability durability) throws Exception {
+        CommitLog<String, String> cm = new DefaultCommitLog<>(Path.of(DefaultCommitLog.FILE_PATH), stringSerDe(), stringSerDe(),
+                CommitLogOptions.defaults().withDurability(durability), 0);
+        int writers = 8;
+        int recordsPerWriter = 200;
+        Map<Long, DataRecord<String, String>> bySequence = new ConcurrentHashMap<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            tasks.add(() -> {
+                for (int i = 0; i < recordsPerWriter; i++) {
+                    DataRecord<String, String> dataRecord = new DataRecord<>(writer + "-" + i, "value" + i);
+                    bySequence.put(cm.append(dataRecord), dataRecord);
+                }
+                return null;
+            });
+        }
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(writers)) {
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        }
+
+        assertEquals(writers * recordsPerWriter, cm.getSize());
+        List<Long> sequences = new ArrayList<>();
+        cm.replay((dataRecord, sequence) -> {
+            assertEquals(bySequence.get(sequence), dataRecord);
+            sequences.add(sequence);
+        });
+        assertEquals(writers * recordsPerWriter, sequences.size());
+        for (int i = 0; i < sequences.size(); i++) {
+            assertEquals(i, sequences.get(i));
+        }
+        assertEquals(writers * recordsPerWriter, cm.sync());
+        cm.close();
+    }
+
+    @Test
+    void segmentsAreFoundInOrder() throws IOException {
+        new DefaultCommitLog<>(DefaultCommitLog.segmentPath(10), stringSerDe(), stringSerDe()).close();
+        new DefaultCommitLog<>(DefaultCommitLog.segmentPath(2), stringSerDe(), stringSerDe()).close();
+        new DefaultCommitLog<>(stringSerDe(), stringSerDe()).close();
+
+        List<Path> segments = DefaultCommitLog.findSegments();
+
+        assertEquals(List.of(-1L, 2L, 10L), segments.stream().map(DefaultCommitLog::segmentId).toList());
+    }
+
+    @Test
+    void textLogOfFormerVersionIsNotSkipped() throws IOException {
+        Files.writeString(Path.of(DefaultCommitLog.TEXT_FILE_PATH), "key::value\n");
+
+        assertThrows(IOException.class, DefaultCommitLog::findSegments);
+    }
+
+    @Test
+    void deleteRemovesTheFile() throws IOException {
+        CommitLog<String, String> cm = new DefaultCommitLog<>(DefaultCommitLog.segmentPath(1), stringSerDe(), stringSerDe());
+        cm.append(new DataRecord<>("a", "b"));
+
+        cm.delete();
+
+        assertFalse(Files.exists(DefaultCommitLog.segmentPath(1)));
+    }
+
+    @Test
+    void segmentIsPreallocated() throws IOException {
+        CommitLogOptions options = CommitLogOptions.defaults().withSegmentSize(64 * 1024);
+        CommitLog<String, String> cm = new DefaultCommitLog<>(DefaultCommitLog.segmentPath(1), stringSerDe(), stringSerDe(), options, 0);
+
+        cm.append(new DataRecord<>("a", "b"));
+        cm.clear();
+        cm.append(new DataRecord<>("c", "d"));
+
+        assertEquals(64 * 1024, Files.size(DefaultCommitLog.segmentPath(1)));
+        assertEquals(List.of(new DataRecord<>("c", "d")), replay(cm));
+    }
+
+    @Test
+    void segmentIsExtendedBySegmentSizeWhenFull() throws IOException {
+        CommitLogOptions options = CommitLogOptions.defaults().withSegmentSize(64 * 1024);
+        CommitLog<String, String> cm = new DefaultCommitLog<>(DefaultCommitLog.segmentPath(1), stringSerDe(), stringSerDe(), options, 0);
+        String largeValue = "x".repeat(40 * 1024);
+
+        cm.append(new DataRecord<>("a", largeValue));
+        assertEquals(64 * 1024, Files.size(DefaultCommitLog.segmentPath(1)));
+        cm.append(new DataRecord<>("b", largeValue));
+        assertEquals(128 * 1024, Files.size(DefaultCommitLog.segmentPath(1)));
+        cm.append(new DataRecord<>("c", "x".repeat(150 * 1024)));
+        assertEquals(256 * 1024, Files.size(DefaultCommitLog.segmentPath(1)));
+        cm.close();
+
+        CommitLog<String, String> reopened = new DefaultCommitLog<>(DefaultCommitLog.segmentPath(1), stringSerDe(), stringSerDe(), options, 0);
+        assertEquals(List.of("a", "b", "c"), replay(reopened).stream().map(DataRecord::key).toList());
+        reopened.close();
+    }
+
+    @Test
+    void recycledSegmentIsReusedWithoutItsRecords() throws IOException {
+        CommitLog<String, String> first = new DefaultCommitLog<>(DefaultCommitLog.segmentPath(1), stringSerDe(), stringSerDe());
+        first.append(new DataRecord<>("a", "b"));
+        first.append(new DataRecord<>("c", "d"));
+        first.recycle();
+
+        assertFalse(Files.exists(DefaultCommitLog.segmentPath(1)));
+        assertTrue(DefaultCommitLog.findSegments().isEmpty());
+
+        CommitLog<String, String> second = new DefaultCommitLog<>(DefaultCommitLog.segmentPath(2), stringSerDe(), stringSerDe());
+        assertTrue(replay(second).isEmpty());
+        second.append(new DataRecord<>("e", "f"));
+        second.close();
+
+        try (Stream<Path> files = Files.list(Path.of("."))) {
+            assertEquals(1, files.filter(path -> path.getFileName().toString().startsWith("commit-log")).count());
+        }
+        CommitLog<String, String> reopened = new DefaultCommitLog<>(DefaultCommitLog.segmentPath(2), stringSerDe(), stringSerDe());
+        assertEquals(List.of(new DataRecord<>("e", "f")), replay(reopened));
+    }
+
+    @Test
+    void osBufferedLogIsDurableAfterSync() throws IOException {
+        CommitLog<String, String> cm = new DefaultCommitLog<>(Path.of(DefaultCommitLog.FILE_PATH), stringSerDe(), stringSerDe(),
+                CommitLogOptions.defaults().withDurability(Durability.OS_BUFFERED), 0);
+
+        cm.append(new DataRecord<>("a", "b"));
+        cm.append(new DataRecord<>("c", "d"));
+        assertEquals(0, cm.getDurableSequence());
+
+        assertEquals(2, cm.sync());
+        assertEquals(2, cm.getDurableSequence());
+        cm.close();
+    }
+
+    @Test
+    void groupSyncLogIsDurableAfterAppend() throws IOException {
+        CommitLog<String, String> cm = new DefaultCommitLog<>(stringSerDe(), stringSerDe());
+
+        cm.append(new DataRecord<>("a", "b"));
+
+        assertEquals(1, cm.getDurableSequence());
+        cm.close();
+    }
+
+    @Test
+    void periodicSyncAdvancesDurableSequence() throws Exception {
+        CommitLog<String, String> cm = new DefaultCommitLog<>(Path.of(DefaultCommitLog.FILE_PATH), stringSerDe(), stringSerDe(),
+                CommitLogOptions.defaults().withPeriodicSync(10), 0);
+
+        cm.append(new DataRecord<>("a", "b"));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cm.getDurableSequence() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, cm.getDurableSequence());
+        cm.close();
+    }
+
+    private static CommitLog<String, String> withoutPreallocation() throws IOException {
+        return new DefaultCommitLog<>(Path.of(DefaultCommitLog.FILE_PATH), stringSerDe(), stringSerDe(),
+                CommitLogOptions.defaults().withSegmentSize(0), 0);
+    }
+
+    private static List<DataRecord<String, String>> replay(CommitLog<String, String> commitLog) throws IOException {
+        List<DataRecord<String, String>> records = new ArrayList<>();
+        commitLog.replay((dataRecord, sequence) -> records.add(dataRecord));
+        return records;
+    }
+}
@@ -56,4 +56,19 @@ class MemtableTest {
         assertNull(memtable.get("b"));
     }
 
+    @Test
+    void testHigherSequenceWins() {
+        Memtable<String, String> memtable = new Memtable<>();
+        memtable.put(new DataRecord<>("a", "c"), 2);
+        memtable.put(new DataRecord<>("a", "b"), 1);
+        memtable.put(new DataRecord<>("b", "d"), 3);
+        memtable.put(new DataRecord<>("b", null), 4);
+
+        assertEquals(2, memtable.getSize());
+        assertEquals("c", memtable.get("a"));
+        assertNull(memtable.get("b"));
+        assertNotNull(memtable.getRecord("b"));
+        assertNull(memtable.getRecord("c"));
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,150 @@
+package com.tmsvr.databases.lsmtree.sstable;
+
+import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.lsmtree.TestUtils;
+import com.tmsvr.databases.serde.BinarySerDes;
+import com.tmsvr.databases.serde.OrderedBinarySerDes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.tmsvr.databases.lsmtree.TestUtils.stringSerDe;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeveledCompactorTest {
+
+    private final LeveledCompactor<String, String> compactor = new LeveledCompactor<>(2, 1024, 4096, 10);
+
+    @BeforeEach
+    @AfterEach
+    void cleanup() throws IOException {
+        TestUtils.cleanupFiles();
+    }
+
+    @Test
+    void testLevel0BelowTriggerIsNotCompacted() throws IOException {
+        Levels<String, String> levels = empty().with(table("table-1", 0, 10), 0);
+
+        assertFalse(compactor.isDue(levels, 1));
+        assertNull(compactor.pick(levels, Set.of()));
+    }
+
+    @Test
+    void testLevel0IsMergedWithOverlappingTablesOfLevel1() throws IOException {
+        SSTable<String, String> before = table("table-before", 0, 10);
+        SSTable<String, String> overlapping = table("table-overlapping", 20, 10);
+        SSTable<String, String> after = table("table-after", 100, 10);
+        SSTable<String, String> older = table("table-older", 15, 10);
+        SSTable<String, String> newer = table("table-newer", 25, 10);
+
+        Levels<String, String> levels = empty().with(before, 1).with(overlapping, 1).with(after, 1)
+                .with(older, 0).with(newer, 0);
+
+        Compaction<String, String> compaction = compactor.pick(levels, Set.of());
+
+        assertEquals(List.of(overlapping, older, newer), compaction.inputs());
+        assertEquals(1, compaction.outputLevel());
+    }
+
+    @Test
+    void testCompactionSharingATableWithARunningOneIsNotPicked() throws IOException {
+        SSTable<String, String> overlapping = table("table-overlapping", 20, 10);
+        Levels<String, String> levels = empty().with(overlapping, 1)
+                .with(table("table-1", 15, 10), 0).with(table("table-2", 25, 10), 0);
+
+        assertNull(compactor.pick(levels, Set.of(overlapping)));
+    }
+
+    @Test
+    void testFullLevelPicksTableWithLeastOverlap() throws IOException {
+        SSTable<String, String> busy = table("table-busy", 0, 50);
+        SSTable<String, String> quiet = table("table-quiet", 100, 50);
+        SSTable<String, String> underBusy = table("table-under-busy", 0, 100);
+
+        Levels<String, String> levels = empty().with(busy, 1).with(quiet, 1).with(underBusy, 2);
+        LeveledCompactor<String, String> smallLevels = new LeveledCompactor<>(2, 1024, 1, 10);
+
+        Compaction<String, String> compaction = smallLevels.pick(levels, Set.of());
+
+        assertEquals(List.of(quiet), compaction.inputs());
+        assertEquals(2, compaction.outputLevel());
+    }
+
+    @Test
+    void testTablesWithDisjointKeysMoveWithoutRewrite() throws IOException {
+        List<SSTable<String, String>> inputs = List.of(table("table-1", 100, 50), table("table-2", 0, 50));
+
+        assertSame(inputs, compactor.compact(inputs));
+    }
+
+    @Test
+    void testOutputIsSplitIntoNonOverlappingTables() throws IOException {
+        List<SSTable<String, String>> outputs = compactor.compact(List.of(table("table-1", 0, 100), table("table-2", 50, 100)));
+
+        assertTrue(outputs.size() > 1);
+        assertEquals(150, outputs.stream().mapToInt(SSTable::getSize).sum());
+
+        Levels<String, String> levels = empty();
+        for (int i = 1; i < outputs.size(); i++) {
+            assertTrue(levels.keyOrder().compare(outputs.get(i - 1).getLastKey(), outputs.get(i).getFirstKey()) < 0);
+        }
+    }
+
+    @Test
+    void testLargeCompactionIsMergedInParallelRanges() throws IOException {
+        SSTableOptions options = SSTableOptions.defaults().withSubcompactions(4);
+        List<SSTable<Long, String>> tables = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Map<Long, String> data = new HashMap<>();
+            for (long i = t; i < 160_000; i += 4) {
+                data.put(i, "value" + t + "-" + i);
+            }
+            // A key every table has, the newest one wins
+            data.put(1_000L, "newest" + t);
+
+            SSTable<Long, String> table = new SSTable<>("table-" + t, OrderedBinarySerDes.longSerDe(), BinarySerDes.stringSerDe(), options);
+            table.write(data);
+            tables.add(table);
+        }
+
+        assertEquals(3, AbstractCompactor.splitPoints(tables).size());
+
+        List<SSTable<Long, String>> outputs = new LeveledCompactor<Long, String>(2, Long.MAX_VALUE, 4096, 10).compact(tables);
+
+        assertEquals(4, outputs.size());
+        long expectedKey = 0;
+        for (SSTable<Long, String> output : outputs) {
+            Iterator<DataRecord<Long, String>> records = output.recordIterator();
+            while (records.hasNext()) {
+                DataRecord<Long, String> record = records.next();
+                assertEquals(expectedKey, record.key());
+                assertEquals(expectedKey == 1_000L ? "newest3" : "value" + (expectedKey % 4) + "-" + expectedKey, record.value());
+                expectedKey++;
+            }
+        }
+        assertEquals(160_000, expectedKey);
+    }
+
+    private static Levels<String, String> empty() {
+        return Levels.empty(KeyOrder.of(stringSerDe()));
+    }
+
+    private static SSTable<String, String> table(String name, int firstKey, int rows) throws IOException {
+        Map<String, String> data = new HashMap<>();
+        for (int i = firstKey; i < firstKey + rows; i++) {
+            data.put("key" + String.format("%05d", i), "value" + i);
+        }
+
+        SSTable<String, String> table = new SSTable<>(name, stringSerDe(), stringSerDe());
+        table.write(data);
+        return table;
+    }
+}
@@ -2,11 +2,14 @@ package com.tmsvr.databases.lsmtree.sstable;
 
 import com.tmsvr.databases.DataRecord;
 import com.tmsvr.databases.lsmtree.TestUtils;
+import com.tmsvr.databases.lsmtree.sstable.bloomfilter.BloomFilter;
+import com.tmsvr.databases.serde.OrderedBinarySerDes;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -48,6 +51,53 @@ class RowCountBasedCompactorTest {
         }
     }
 
+    @Test
+    void testTablesWithDisjointKeysAreConcatenated() throws IOException {
+        RowCountBasedCompactor<String, String> compactor = new RowCountBasedCompactor<>(3);
+
+        SSTable<String, String> older = new SSTable<>("table-1", stringSerDe(), stringSerDe());
+        SSTable<String, String> newer = new SSTable<>("table-2", stringSerDe(), stringSerDe());
+
+        older.write(Map.of("k5", "v5", "k6", "v6"));
+        newer.write(Map.of("k1", "v1", "k2", "v2", "k3", "v3"));
+
+        SSTable<String, String> result = compactor.merge(older, newer);
+
+        // The blocks are copied as they are instead of being rebuilt into one
+        assertEquals(2, result.getBlockFirstKeys().size());
+        assertEquals(5, result.getSize());
+        assertEquals(List.of("k1", "k2", "k3", "k5", "k6"), result.getAllLines().stream().map(DataRecord::key).toList());
+
+        SSTable<String, String> loaded = new SSTable<>(result.getName().replace(".data", ""), stringSerDe(), stringSerDe());
+        assertEquals("v2", loaded.getValue("k2").get());
+        assertEquals("v6", loaded.getValue("k6").get());
+        assertTrue(loaded.getValue("k4").isEmpty());
+        loaded.close();
+
+        // The filters of the inputs are kept as parts, no record is read to rebuild them
+        assertEquals(2, BloomFilter.loadFromDisk(result.getName().replace(".data", "")).getPartCount());
+    }
+
+    @Test
+    void testMergeOfOrderedKeys() throws IOException {
+        RowCountBasedCompactor<Long, String> compactor = new RowCountBasedCompactor<>(3);
+
+        SSTable<Long, String> older = new SSTable<>("table-1", OrderedBinarySerDes.longSerDe(), stringSerDe());
+        SSTable<Long, String> newer = new SSTable<>("table-2", OrderedBinarySerDes.longSerDe(), stringSerDe());
+
+        Map<Long, String> newerData = new HashMap<>(Map.of(-10L, "v-10", 2L, "v2-2", 100L, "v100"));
+        newerData.put(-1L, null);
+
+        older.write(Map.of(-1L, "v-1", 2L, "v2", 10L, "v10"));
+        newer.write(newerData);
+
+        List<DataRecord<Long, String>> records = compactor.merge(older, newer).getAllLines();
+
+        assertEquals(List.of(-10L, -1L, 2L, 10L, 100L), records.stream().map(DataRecord::key).toList());
+        assertNull(records.get(1).value());
+        assertEquals("v2-2", records.get(2).value());
+    }
+
     @Test
     void testCompactionIsOk() throws IOException {
         SSTable<String, String> table1 = new SSTable<>("table-1", stringSerDe(), stringSerDe());
@@ -8,6 +8,9 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
 
@@ -20,6 +23,8 @@ import static com.tmsvr.databases.lsmtree.sstable.SSTableFixtures.VALUE_2;
 import static com.tmsvr.databases.lsmtree.sstable.SSTableFixtures.VALUE_3;
 import static com.tmsvr.databases.lsmtree.sstable.SSTableFixtures.aDataSet;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class SSTableManagerTest {
@@ -34,6 +39,7 @@ class SSTableManagerTest {
 
     @AfterEach
     void cleanup() throws IOException {
+        manager.close();
         TestUtils.cleanupFiles();
     }
 
@@ -117,6 +123,17 @@ class SSTableManagerTest {
         assertEquals(VALUE_3, manager.findValue(KEY_3).get());
     }
 
+    @Test
+    void testDeletionHidesOlderTables() throws IOException {
+        Map<String, String> deleted = new HashMap<>();
+        deleted.put(KEY_1, null);
+
+        manager.flush(Map.of(KEY_1, VALUE_1));
+        manager.flush(deleted);
+
+        assertTrue(manager.findValue(KEY_1).isEmpty());
+    }
+
     @Test
     void testReadTablesFromFiles() throws IOException {
         Map<String, String> data0 = Map.of(KEY_1, VALUE_1);
@@ -139,6 +156,180 @@ class SSTableManagerTest {
         assertEquals(VALUE_2, newManager.findValue(KEY_2).get());
         assertEquals(VALUE_3, newManager.findValue(KEY_3).get());
         assertEquals("v4", newManager.findValue("k4").get());
+        newManager.close();
+    }
+
+    @Test
+    void testTablesAreReadInManifestOrder() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            manager.flush(Map.of(KEY_1, "value" + i));
+        }
+
+        SSTableManager<String, String> newManager = new SSTableManager<>(stringSerDe(), stringSerDe());
+        newManager.readTablesFromFile();
+
+        assertEquals("value4", newManager.findValue(KEY_1).get());
+        newManager.close();
+    }
+
+    @Test
+    void testTablesNotInManifestAreDeleted() throws IOException {
+        manager.flush(Map.of(KEY_1, VALUE_1));
+        new SSTable<>("sstable-orphan", stringSerDe(), stringSerDe()).write(Map.of(KEY_1, "orphan"));
+
+        SSTableManager<String, String> newManager = new SSTableManager<>(stringSerDe(), stringSerDe());
+        newManager.readTablesFromFile();
+
+        assertEquals(VALUE_1, newManager.findValue(KEY_1).get());
+        assertFalse(Files.exists(Path.of("sstable-orphan.data")));
+        assertSSTablesFlushed(1);
+        newManager.close();
+    }
+
+    @Test
+    void testCompactionRunsInBackground() throws IOException {
+        for (int i = 0; i < 7; i++) {
+            manager.flush(Map.of("compacted" + i, "value" + i, KEY_1, "value" + i));
+        }
+
+        // Waits for the running compaction
+        manager.close();
+
+        manager = new SSTableManager<>(stringSerDe(), stringSerDe());
+        manager.readTablesFromFile();
+
+        List<Manifest.Entry> live = new Manifest().read();
+        assertTrue(live.size() < 7);
+        assertSSTablesFlushed(live.size());
+
+        for (int i = 0; i < 7; i++) {
+            assertEquals("value" + i, manager.findValue("compacted" + i).get());
+        }
+        assertEquals("value6", manager.findValue(KEY_1).get());
+    }
+
+    @Test
+    void testBacklogOfTablesIsCompactedAfterRestart() throws IOException {
+        // Tables flushed by a run that stopped before compacting them, without a manifest they are all in level 0
+        for (int i = 0; i < 8; i++) {
+            new SSTable<>("sstable-" + i, stringSerDe(), stringSerDe()).write(Map.of("compacted" + i, "value" + i));
+        }
+
+        manager.readTablesFromFile();
+        // Waits for the running compaction
+        manager.close();
+
+        List<Manifest.Entry> live = new Manifest().read();
+        assertTrue(live.size() < 8);
+        assertSSTablesFlushed(live.size());
+
+        manager = new SSTableManager<>(stringSerDe(), stringSerDe());
+        manager.readTablesFromFile();
+        for (int i = 0; i < 8; i++) {
+            assertEquals("value" + i, manager.findValue("compacted" + i).get());
+        }
+    }
+
+    @Test
+    void testOutputsOfUnpublishedCompactionAreDeleted() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            manager.flush(Map.of("compacted" + i, "value" + i, KEY_1, "value" + i));
+        }
+
+        // The manifest can't be written while a directory is in the way of its temporary file
+        Path blocker = Files.createDirectory(Path.of(Manifest.FILE_NAME + ".tmp"));
+        assertThrows(IOException.class, () -> manager.compact());
+        Files.delete(blocker);
+
+        assertSSTablesFlushed(3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("value" + i, manager.findValue("compacted" + i).get());
+        }
+        assertEquals("value2", manager.findValue(KEY_1).get());
+    }
+
+    @Test
+    void testSizeTieredCompactionMergesSimilarTables() throws IOException {
+        manager.close();
+        SSTableOptions sizeTiered = SSTableOptions.defaults().withCompaction(CompactionOptions.SizeTiered.defaults());
+        manager = new SSTableManager<>(stringSerDe(), stringSerDe(), sizeTiered);
+
+        // The sixth flush starts a compaction, closing waits for it
+        for (int i = 0; i < 6; i++) {
+            manager.flush(Map.of("compacted" + i, "value" + i, KEY_1, "value" + i));
+        }
+        manager.close();
+
+        manager = new SSTableManager<>(stringSerDe(), stringSerDe(), sizeTiered);
+        manager.readTablesFromFile();
+
+        // The six tables have the same size, they are merged in a single pass
+        assertEquals(1, new Manifest().read().size());
+        assertSSTablesFlushed(1);
+        for (int i = 0; i < 6; i++) {
+            assertEquals("value" + i, manager.findValue("compacted" + i).get());
+        }
+        assertEquals("value5", manager.findValue(KEY_1).get());
+    }
+
+    @Test
+    void testLeveledCompactionKeepsDeeperLevelsNonOverlapping() throws IOException {
+        manager.close();
+        SSTableOptions leveled = SSTableOptions.defaults()
+                .withCompaction(new CompactionOptions.Leveled(2, 2 * 1024, 8 * 1024, 2));
+        manager = new SSTableManager<>(stringSerDe(), stringSerDe(), leveled);
+
+        Map<String, String> expected = new HashMap<>();
+        for (int flush = 0; flush < 30; flush++) {
+            Map<String, String> data = new HashMap<>();
+            for (int i = 0; i < 50; i++) {
+                data.put("key" + String.format("%04d", (flush * 37 + i * 13) % 1000), "value" + flush);
+            }
+            manager.flush(data);
+            expected.putAll(data);
+        }
+        manager.close();
+
+        manager = new SSTableManager<>(stringSerDe(), stringSerDe(), leveled);
+        manager.readTablesFromFile();
+
+        Levels<String, String> levels = manager.getLevels();
+        assertTrue(levels.depth() > 1);
+        for (int level = 1; level < levels.depth(); level++) {
+            List<SSTable<String, String>> run = levels.level(level);
+            for (int i = 1; i < run.size(); i++) {
+                assertTrue(levels.keyOrder().compare(run.get(i - 1).getLastKey(), run.get(i).getFirstKey()) < 0);
+            }
+        }
+
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), manager.findValue(entry.getKey()).get());
+        }
+
+        List<String> keys = new ArrayList<>(expected.keySet());
+        keys.add("missing");
+        assertEquals(expected, manager.findValues(keys));
+    }
+
+    @Test
+    void testFindValuesResolvesNewestRecordOfEveryKey() throws IOException {
+        Map<String, String> oldest = new HashMap<>();
+        oldest.put("a", "old");
+        oldest.put("b", "old");
+        oldest.put("c", "old");
+        Map<String, String> middle = new HashMap<>();
+        middle.put("b", null);
+        middle.put("d", "middle");
+        Map<String, String> newest = new HashMap<>();
+        newest.put("c", "new");
+        newest.put("d", "new");
+
+        manager.flush(oldest);
+        manager.flush(middle);
+        manager.flush(newest);
+
+        assertEquals(Map.of("a", "old", "c", "new", "d", "new"), manager.findValues(List.of("d", "c", "b", "a", "e", "a")));
+        assertEquals(Map.of(), manager.findValues(List.of()));
     }
 
     private void assertSSTablesFlushed(int numberOfExpectedTables) throws IOException {
@@ -146,7 +337,7 @@ class SSTableManagerTest {
             long filesStartingWithSSTable = files.filter(path -> path.getFileName().toString().startsWith("sstable"))
                     .count();
 
-            assertEquals(numberOfExpectedTables, filesStartingWithSSTable / 3);
+            assertEquals(numberOfExpectedTables, filesStartingWithSSTable / 2);
         }
     }
 }
\ No newline at end of file
@@ -3,12 +3,36 @@ package com.tmsvr.databases.lsmtree.sstable;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.TreeMap;
+
+import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.ScanDirection;
+import com.tmsvr.databases.lsmtree.sstable.SSTableOptions.ReadMode;
+import com.tmsvr.databases.lsmtree.sstable.block.BlockCache;
+import com.tmsvr.databases.lsmtree.sstable.bloomfilter.BloomFilter;
+import com.tmsvr.databases.lsmtree.sstable.index.Index;
+import com.tmsvr.databases.lsmtree.util.GrowingBuffer;
+import com.tmsvr.databases.serde.BinarySerDes;
+import com.tmsvr.databases.serde.OrderedBinarySerDes;
 
 import static com.tmsvr.databases.lsmtree.TestUtils.stringSerDe;
 import static com.tmsvr.databases.lsmtree.sstable.SSTableFixtures.FILENAME;
@@ -20,8 +44,12 @@ import static com.tmsvr.databases.lsmtree.sstable.SSTableFixtures.VALUE_1;
 import static com.tmsvr.databases.lsmtree.sstable.SSTableFixtures.VALUE_2;
 import static com.tmsvr.databases.lsmtree.sstable.SSTableFixtures.VALUE_3;
 import static com.tmsvr.databases.lsmtree.sstable.SSTableFixtures.aDataSet;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class SSTableTest {
 
@@ -34,6 +62,7 @@ public class SSTableTest {
 
     @AfterEach
     void cleanup() throws IOException {
+        ssTable.close();
         Files.deleteIfExists(Path.of(FILENAME + ".index"));
         Files.deleteIfExists(Path.of(FILENAME + ".data"));
         Files.deleteIfExists(Path.of(FILENAME + ".filter"));
@@ -44,7 +73,7 @@ public class SSTableTest {
         Map<String, String> data = aDataSet();
         ssTable.write(data);
 
-        assertTrue(Files.exists(Path.of(FILENAME + ".index")));
+        assertFalse(Files.exists(Path.of(FILENAME + ".index")));
         assertTrue(Files.exists(Path.of(FILENAME + ".data")));
         assertTrue(Files.exists(Path.of(FILENAME + ".filter")));
 
@@ -66,4 +95,349 @@ public class SSTableTest {
 
         assertTrue(ssTable.getValue("invalid-key").isEmpty());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testBinarySerDes() throws IOException {
+        SSTable<Long, String> table = new SSTable<>(FILENAME, BinarySerDes.longSerDe(), BinarySerDes.stringSerDe());
+        Map<Long, String> data = new TreeMap<>();
+        data.put(-5L, "minus::five");
+        data.put(7L, "seven");
+        data.put(42L, null);
+        table.write(data);
+
+        assertEquals("minus::five", table.getValue(-5L).get());
+        assertEquals("seven", table.getValue(7L).get());
+        assertTrue(table.getValue(42L).isEmpty());
+        assertTrue(table.getValue(8L).isEmpty());
+
+        List<DataRecord<Long, String>> records = table.getAllLines();
+        assertEquals(3, records.size());
+        assertEquals(-5L, records.get(0).key());
+        assertNull(records.get(2).value());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ReadMode.class)
+    void testLookupAcrossBlocks(ReadMode readMode) throws IOException {
+        SSTableOptions options = SSTableOptions.defaults().withBlockSize(256).withReadMode(readMode);
+        SSTable<Long, String> table = new SSTable<>(FILENAME, OrderedBinarySerDes.longSerDe(), BinarySerDes.stringSerDe(), options);
+        Map<Long, String> data = new TreeMap<>();
+        for (long i = -500; i < 500; i += 2) {
+            data.put(i, "value" + i);
+        }
+        table.write(data);
+
+        SSTable<Long, String> loaded = new SSTable<>(FILENAME, OrderedBinarySerDes.longSerDe(), BinarySerDes.stringSerDe(), options);
+
+        assertEquals(500, loaded.getSize());
+        for (long i = -502; i < 502; i++) {
+            assertEquals(Optional.ofNullable(data.get(i)), loaded.getValue(i));
+        }
+        assertEquals(List.copyOf(data.keySet()), loaded.getAllLines().stream().map(DataRecord::key).toList());
+
+        table.close();
+        loaded.close();
+    }
+
+    @ParameterizedTest
+    @EnumSource(ReadMode.class)
+    void testLookupOfSortedKeys(ReadMode readMode) throws IOException {
+        SSTableOptions options = SSTableOptions.defaults().withBlockSize(256).withReadMode(readMode);
+        SSTable<Long, String> table = new SSTable<>(FILENAME, OrderedBinarySerDes.longSerDe(), BinarySerDes.stringSerDe(), options);
+        Map<Long, String> data = new TreeMap<>();
+        for (long i = -500; i < 500; i += 2) {
+            data.put(i, "value" + i);
+        }
+        table.write(data);
+
+        List<byte[]> keys = new ArrayList<>();
+        for (long i = -502; i < 502; i += 3) {
+            keys.add(OrderedBinarySerDes.longSerDe().toBytes(i));
+        }
+        RawRecord[] found = table.getRawRecords(keys);
+
+        for (int i = 0; i < keys.size(); i++) {
+            long key = OrderedBinarySerDes.longSerDe().fromBytes(keys.get(i));
+            String value = found[i] == null ? null : BinarySerDes.stringSerDe().fromBytes(found[i].value());
+            assertEquals(data.get(key), value);
+        }
+        table.close();
+    }
+
+    @ParameterizedTest
+    @EnumSource(ReadMode.class)
+    void testIteratorStreamsRecordsInKeyOrder(ReadMode readMode) throws IOException {
+        SSTableOptions options = SSTableOptions.defaults().withBlockSize(256).withReadMode(readMode);
+        SSTable<Long, String> table = new SSTable<>(FILENAME, OrderedBinarySerDes.longSerDe(), BinarySerDes.stringSerDe(), options);
+        Map<Long, String> data = new TreeMap<>();
+        // Several read-ahead chunks worth of blocks
+        for (long i = 0; i < 30_000; i++) {
+            data.put(i, i % 10 == 0 ? null : "value" + i);
+        }
+        table.write(data);
+
+        Iterator<DataRecord<Long, String>> records = table.recordIterator();
+        for (Map.Entry<Long, String> entry : data.entrySet()) {
+            assertTrue(records.hasNext());
+            DataRecord<Long, String> record = records.next();
+            assertEquals(entry.getKey(), record.key());
+            assertEquals(entry.getValue(), record.value());
+        }
+        assertFalse(records.hasNext());
+
+        table.close();
+    }
+
+    @Test
+    void testIteratorOfKeyRange() throws IOException {
+        SSTableOptions options = SSTableOptions.defaults().withBlockSize(256);
+        SSTable<Long, String> table = new SSTable<>(FILENAME, OrderedBinarySerDes.longSerDe(), BinarySerDes.stringSerDe(), options);
+        Map<Long, String> data = new TreeMap<>();
+        for (long i = 0; i < 1_000; i += 2) {
+            data.put(i, "value" + i);
+        }
+        table.write(data);
+
+        Iterator<RawRecord> range = table.rawRecordIterator(OrderedBinarySerDes.longSerDe().toBytes(301L),
+                OrderedBinarySerDes.longSerDe().toBytes(600L));
+        List<Long> keys = new ArrayList<>();
+        range.forEachRemaining(record -> keys.add(OrderedBinarySerDes.longSerDe().fromBytes(record.key())));
+
+        assertEquals(List.copyOf(((TreeMap<Long, String>) data).subMap(301L, 600L).keySet()), keys);
+        table.close();
+    }
+
+    @ParameterizedTest
+    @EnumSource(ReadMode.class)
+    void testReverseIteratorOfKeyRange(ReadMode readMode) throws IOException {
+        SSTableOptions options = SSTableOptions.defaults().withBlockSize(256).withReadMode(readMode);
+        SSTable<Long, String> table = new SSTable<>(FILENAME, OrderedBinarySerDes.longSerDe(), BinarySerDes.stringSerDe(), options);
+        TreeMap<Long, String> data = new TreeMap<>();
+        for (long i = 0; i < 1_000; i += 2) {
+            data.put(i, "value" + i);
+        }
+        table.write(data);
+
+        assertEquals(List.copyOf(data.subMap(301L, true, 600L, false).descendingKeySet()), reverseKeys(table, 301L, 600L));
+        assertEquals(List.copyOf(data.headMap(300L, false).descendingKeySet()), reverseKeys(table, null, 300L));
+        assertEquals(List.copyOf(data.tailMap(900L, true).descendingKeySet()), reverseKeys(table, 900L, null));
+        assertEquals(List.copyOf(data.descendingKeySet()), reverseKeys(table, null, null));
+        assertEquals(List.of(), reverseKeys(table, 2_000L, null));
+        table.close();
+    }
+
+    private static List<Long> reverseKeys(SSTable<Long, String> table, Long from, Long to) throws IOException {
+        Iterator<DataRecord<Long, String>> records = table.recordIterator(
+                from == null ? null : OrderedBinarySerDes.longSerDe().toBytes(from),
+                to == null ? null : OrderedBinarySerDes.longSerDe().toBytes(to), ScanDirection.REVERSE);
+        List<Long> keys = new ArrayList<>();
+        records.forEachRemaining(record -> keys.add(record.key()));
+        return keys;
+    }
+
+    @ParameterizedTest
+    @EnumSource(ReadMode.class)
+    void testConcurrentLookupsShareTheFile(ReadMode readMode) throws Exception {
+        SSTableOptions options = SSTableOptions.defaults().withBlockSize(256).withReadMode(readMode);
+        SSTable<Long, String> table = new SSTable<>(FILENAME, OrderedBinarySerDes.longSerDe(), BinarySerDes.stringSerDe(), options);
+        Map<Long, String> data = new TreeMap<>();
+        for (long i = 0; i < 1000; i++) {
+            data.put(i, "value" + i);
+        }
+        table.write(data);
+
+        List<Callable<Boolean>> readers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            long seed = t;
+            readers.add(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 2000; i++) {
+                    long key = random.nextInt(1000);
+                    if (!table.getValue(key).equals(Optional.of("value" + key))) {
+                        return false;
+                    }
+                }
+                return true;
+            });
+        }
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (Future<Boolean> result : executor.invokeAll(readers)) {
+                assertTrue(result.get());
+            }
+        }
+        table.close();
+    }
+
+    @Test
+    void testLookupsGoThroughTheBlockCache() throws IOException {
+        BlockCache cache = new BlockCache(1024 * 1024);
+        SSTableOptions options = SSTableOptions.defaults().withBlockSize(256).withBlockCache(cache);
+        SSTable<Long, String> table = new SSTable<>(FILENAME, OrderedBinarySerDes.longSerDe(), BinarySerDes.stringSerDe(), options);
+        Map<Long, String> data = new TreeMap<>();
+        for (long i = 0; i < 500; i++) {
+            data.put(i, "value" + i);
+        }
+        table.write(data);
+
+        // Full scans neither read nor fill the cache
+        Iterator<DataRecord<Long, String>> records = table.recordIterator();
+        while (records.hasNext()) {
+            records.next();
+        }
+        assertEquals(0, cache.getHits() + cache.getMisses());
+        assertEquals(0, cache.getSize());
+
+        for (long i = 0; i < 500; i++) {
+            assertEquals(Optional.of("value" + i), table.getValue(i));
+        }
+        long misses = cache.getMisses();
+        assertEquals(table.getBlockFirstKeys().size(), misses);
+
+        for (long i = 0; i < 500; i++) {
+            assertEquals(Optional.of("value" + i), table.getValue(i));
+        }
+        assertEquals(misses, cache.getMisses());
+        assertEquals(1000 - misses, cache.getHits());
+
+        table.close();
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    void testMappedTableIsUnmappedOnClose() throws IOException {
+        SSTableOptions options = SSTableOptions.defaults().withReadMode(ReadMode.MMAP);
+        SSTable<String, String> table = new SSTable<>(FILENAME, stringSerDe(), stringSerDe(), options);
+        table.write(aDataSet());
+
+        assertEquals(VALUE_1, table.getValue(KEY_1).get());
+        table.close();
+
+        assertThrows(IllegalStateException.class, () -> table.getValue(KEY_1));
+    }
+
+    @Test
+    void testRetiredTableClosesAfterLastReader() throws IOException {
+        SSTableOptions options = SSTableOptions.defaults().withReadMode(ReadMode.MMAP);
+        SSTable<String, String> table = new SSTable<>(FILENAME, stringSerDe(), stringSerDe(), options);
+        table.write(aDataSet());
+
+        assertTrue(table.acquire());
+        table.retire();
+
+        assertFalse(table.acquire());
+        assertEquals(VALUE_1, table.getValue(KEY_1).get());
+
+        table.release();
+        assertThrows(IllegalStateException.class, () -> table.getValue(KEY_1));
+        assertFalse(Files.exists(Path.of(FILENAME + ".data")));
+    }
+
+    @ParameterizedTest
+    @EnumSource(ReadMode.class)
+    void testRetireRacingWithReadersNeverClosesAnAcquiredTable(ReadMode readMode) throws Exception {
+        SSTableOptions options = SSTableOptions.defaults().withReadMode(readMode);
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            for (int round = 0; round < 100; round++) {
+                SSTable<String, String> table = new SSTable<>(FILENAME, stringSerDe(), stringSerDe(), options);
+                table.write(aDataSet());
+
+                List<Callable<Integer>> readers = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    readers.add(() -> {
+                        int reads = 0;
+                        while (table.acquire()) {
+                            try {
+                                assertEquals(VALUE_1, table.getValue(KEY_1).get());
+                                reads++;
+                            } finally {
+                                table.release();
+                            }
+                        }
+                        return reads;
+                    });
+                }
+
+                List<Future<Integer>> results = new ArrayList<>();
+                for (Callable<Integer> reader : readers) {
+                    results.add(executor.submit(reader));
+                }
+                Thread.sleep(round % 3);
+                table.retire();
+
+                // A failed read surfaces here as an ExecutionException
+                for (Future<Integer> result : results) {
+                    result.get();
+                }
+                assertFalse(Files.exists(Path.of(FILENAME + ".data")));
+            }
+        }
+    }
+
+    @Test
+    void testEmptyTable() throws IOException {
+        ssTable.write(Map.of());
+
+        SSTable<String, String> loaded = new SSTable<>(FILENAME, stringSerDe(), stringSerDe());
+        assertEquals(0, loaded.getSize());
+        assertTrue(loaded.getValue(KEY_1).isEmpty());
+        assertTrue(loaded.getAllLines().isEmpty());
+        assertFalse(loaded.rawRecordIterator().hasNext());
+    }
+
+    @Test
+    void testLegacyFormatIsReadable() throws IOException {
+        Index<String> index = new Index<>(FILENAME, stringSerDe());
+        GrowingBuffer buffer = new GrowingBuffer(64);
+
+        for (Map.Entry<String, String> entry : new TreeMap<>(aDataSet()).entrySet()) {
+            byte[] key = stringSerDe().toBytes(entry.getKey());
+            index.add(key, buffer.position());
+            RecordSerializer.write(new RawRecord(key, entry.getValue() == null ? null : stringSerDe().toBytes(entry.getValue())), buffer);
+        }
+        Files.write(Path.of(FILENAME + ".data"), Arrays.copyOf(buffer.array(), buffer.position()));
+        index.saveToDisk();
+        // Filters of that time were a Base64 encoded BitSet
+        Files.writeString(Path.of(FILENAME + ".filter"), Base64.getEncoder().encodeToString(new byte[]{-1, -1, -1, -1}));
+
+        SSTable<String, String> legacyTable = new SSTable<>(FILENAME, stringSerDe(), stringSerDe());
+
+        assertEquals(4, legacyTable.getSize());
+        assertEquals(VALUE_1, legacyTable.getValue(KEY_1).get());
+        assertEquals(VALUE_3, legacyTable.getValue(KEY_3).get());
+        assertTrue(legacyTable.getValue(KEY_4).isEmpty());
+        assertTrue(legacyTable.getValue("invalid-key").isEmpty());
+        assertEquals(4, legacyTable.getAllLines().size());
+        assertNotNull(BloomFilter.loadFromDisk(FILENAME), "The filter is rebuilt in the binary format");
+    }
+
+    @Test
+    void testLargeLegacyTableIsReadInChunks() throws IOException {
+        Index<String> index = new Index<>(FILENAME, stringSerDe());
+        GrowingBuffer buffer = new GrowingBuffer(64);
+        Map<String, String> data = new TreeMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            data.put(String.format("key%05d", i), "value" + i);
+        }
+        // Larger than a read-ahead chunk, and than several of them
+        data.put("key10000", "x".repeat(600 * 1024));
+
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            byte[] key = stringSerDe().toBytes(entry.getKey());
+            index.add(key, buffer.position());
+            RecordSerializer.write(new RawRecord(key, stringSerDe().toBytes(entry.getValue())), buffer);
+        }
+        Files.write(Path.of(FILENAME + ".data"), Arrays.copyOf(buffer.array(), buffer.position()));
+        index.saveToDisk();
+
+        SSTable<String, String> legacyTable = new SSTable<>(FILENAME, stringSerDe(), stringSerDe());
+        List<DataRecord<String, String>> records = legacyTable.getAllLines();
+
+        assertEquals(data.size(), records.size());
+        for (DataRecord<String, String> record : records) {
+            assertEquals(data.get(record.key()), record.value());
+        }
+        legacyTable.close();
+    }
+}
@@ -0,0 +1,105 @@
+package com.tmsvr.databases.lsmtree.sstable;
+
+import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.lsmtree.TestUtils;
+import com.tmsvr.databases.serde.OrderedBinarySerDes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.tmsvr.databases.lsmtree.TestUtils.stringSerDe;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SizeTieredCompactorTest {
+
+    @BeforeEach
+    @AfterEach
+    void cleanup() throws IOException {
+        TestUtils.cleanupFiles();
+    }
+
+    @Test
+    void testMergeOfManyTablesKeepsNewestRecord() throws IOException {
+        SizeTieredCompactor<String, String> compactor = new SizeTieredCompactor<>(2, 32, 1.5);
+        List<SSTable<String, String>> tables = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            Map<String, String> data = new HashMap<>();
+            data.put("shared", "v" + t);
+            data.put("only" + t, "v" + t);
+            // Deleted in the newest table only
+            data.put("deleted", t == 3 ? null : "v" + t);
+
+            SSTable<String, String> table = new SSTable<>("table-" + t, OrderedBinarySerDes.stringSerDe(), stringSerDe());
+            table.write(data);
+            tables.add(table);
+        }
+
+        List<DataRecord<String, String>> records = compactor.merge(tables).getAllLines();
+
+        assertEquals(List.of("deleted", "only0", "only1", "only2", "only3", "shared"),
+                records.stream().map(DataRecord::key).toList());
+        assertNull(records.get(0).value());
+        assertEquals("v3", records.get(5).value());
+    }
+
+    @Test
+    void testSimilarTablesAreMergedInOnePass() throws IOException {
+        SSTable<String, String> big = table("table-big", 0, 200);
+        List<SSTable<String, String>> small = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            small.add(table("table-small-" + t, t * 5, 10));
+        }
+
+        List<SSTable<String, String>> input = new ArrayList<>();
+        input.add(big);
+        input.addAll(small);
+
+        List<SSTable<String, String>> result = new SizeTieredCompactor<String, String>(4, 32, 1.5).compact(input);
+
+        assertEquals(2, result.size());
+        assertSame(big, result.get(0));
+        assertEquals(25, result.get(1).getSize());
+    }
+
+    @Test
+    void testBucketsBelowMinThresholdAreKept() throws IOException {
+        List<SSTable<String, String>> input = List.of(table("table-1", 0, 10), table("table-2", 10, 10),
+                table("table-3", 20, 10));
+
+        List<SSTable<String, String>> result = new SizeTieredCompactor<String, String>(4, 32, 1.5).compact(input);
+
+        assertEquals(input, result);
+    }
+
+    @Test
+    void testBucketsAreCappedAtMaxThreshold() throws IOException {
+        List<SSTable<String, String>> input = new ArrayList<>();
+        for (int t = 0; t < 5; t++) {
+            input.add(table("table-" + t, t * 10, 10));
+        }
+
+        List<SSTable<String, String>> result = new SizeTieredCompactor<String, String>(2, 3, 1.5).compact(input);
+
+        assertEquals(2, result.size());
+        assertEquals(30, result.get(0).getSize());
+        assertEquals(20, result.get(1).getSize());
+    }
+
+    private static SSTable<String, String> table(String name, int firstKey, int rows) throws IOException {
+        Map<String, String> data = new HashMap<>();
+        for (int i = firstKey; i < firstKey + rows; i++) {
+            data.put("key" + String.format("%05d", i), "value" + i);
+        }
+
+        SSTable<String, String> table = new SSTable<>(name, stringSerDe(), stringSerDe());
+        table.write(data);
+        return table;
+    }
+}
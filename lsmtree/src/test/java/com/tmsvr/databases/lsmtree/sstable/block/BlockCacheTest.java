@@ -0,0 +1,147 @@
+package com.tmsvr.databases.lsmtree.sstable.block;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockCacheTest {
+
+    private static final int BLOCK_SIZE = 100;
+
+    private final BlockCache.Table table1 = BlockCache.newTable();
+    private final BlockCache.Table table2 = BlockCache.newTable();
+
+    @Test
+    void testCachedBlockIsReturnedAndCounted() {
+        BlockCache cache = new BlockCache(10 * BLOCK_SIZE, 1);
+
+        assertNull(cache.get(table1, 0));
+        cache.put(table1, 0, block(7));
+
+        ByteBuffer cached = cache.get(table1, 0);
+        assertEquals(block(7), cached);
+        assertNull(cache.get(table2, 0));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        // The caller's view can be read without moving the cached block
+        cached.get();
+        assertEquals(block(7), cache.get(table1, 0));
+    }
+
+    @Test
+    void testCacheStaysWithinCapacity() {
+        BlockCache cache = new BlockCache(10 * BLOCK_SIZE, 2);
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(table1, (long) i * BLOCK_SIZE, block(i));
+            assertTrue(cache.getSize() <= cache.getCapacity());
+        }
+        assertTrue(cache.getSize() > 0);
+    }
+
+    @Test
+    void testBlockLargerThanAShardIsNotCached() {
+        BlockCache cache = new BlockCache(4 * BLOCK_SIZE, 4);
+
+        cache.put(table1, 0, ByteBuffer.allocate(2 * BLOCK_SIZE));
+
+        assertNull(cache.get(table1, 0));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    void testScanDoesNotEvictBlocksReadAgain() {
+        BlockCache cache = new BlockCache(100 * BLOCK_SIZE, 1);
+        for (int i = 0; i < 50; i++) {
+            cache.put(table1, i, block(i));
+        }
+
+        for (int scanned = 0; scanned < 1000; scanned++) {
+            if (scanned % 10 == 0) {
+                for (int i = 0; i < 50; i++) {
+                    assertNotNull(cache.get(table1, i), "Block read again was evicted: " + i);
+                }
+            }
+            cache.put(table2, scanned, block(scanned));
+        }
+
+        for (int i = 0; i < 50; i++) {
+            assertNotNull(cache.get(table1, i));
+        }
+        assertTrue(cache.getSize() <= cache.getCapacity());
+    }
+
+    @Test
+    void testInvalidateDropsBlocksOfTheTable() {
+        BlockCache cache = new BlockCache(10 * BLOCK_SIZE, 1);
+        cache.put(table1, 0, block(1));
+        cache.put(table2, 0, block(2));
+
+        cache.invalidate(table1);
+
+        assertNull(cache.get(table1, 0));
+        assertNotNull(cache.get(table2, 0));
+        assertEquals(BLOCK_SIZE, cache.getSize());
+    }
+
+    @Test
+    void testBlocksAddedWhileInvalidatingAreDropped() throws Exception {
+        BlockCache cache = new BlockCache(1000 * BLOCK_SIZE, 4);
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            for (int round = 0; round < 200; round++) {
+                BlockCache.Table table = BlockCache.newTable();
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> puts = new ArrayList<>();
+                for (int thread = 0; thread < 2; thread++) {
+                    int first = thread * 50;
+                    puts.add(executor.submit(() -> {
+                        start.await();
+                        for (int i = first; i < first + 50; i++) {
+                            cache.put(table, i, block(i));
+                        }
+                        return null;
+                    }));
+                }
+
+                start.countDown();
+                cache.invalidate(table);
+                for (Future<?> put : puts) {
+                    put.get();
+                }
+
+                for (int i = 0; i < 100; i++) {
+                    assertNull(cache.get(table, i), "Block of an invalidated table is cached: " + i);
+                }
+            }
+        }
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    void testTablesDoNotShareBlocks() {
+        BlockCache cache = new BlockCache(10 * BLOCK_SIZE, 1);
+
+        cache.put(table1, 0, block(1));
+
+        assertNull(cache.get(table2, 0));
+        assertNull(cache.get(BlockCache.newTable(), 0));
+    }
+
+    private static ByteBuffer block(int fill) {
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        while (block.hasRemaining()) {
+            block.put((byte) fill);
+        }
+        return block.flip();
+    }
+}
@@ -1,22 +1,28 @@
 package com.tmsvr.databases.lsmtree.sstable.bloomfilter;
 
+import com.tmsvr.databases.lsmtree.sstable.bloomfilter.hash.MurmurHashFunction;
+import org.apache.commons.codec.digest.MurmurHash3;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class BloomFilterTest {
 
-    private BloomFilter<String> bloomFilter;
+    private BloomFilter bloomFilter;
 
     @BeforeEach
-    void setUp() throws IOException {
-        bloomFilter = new BloomFilter<>(1000, 0.01, "filename");
+    void setUp() {
+        bloomFilter = BloomFilter.create(1000, 0.01);
     }
 
     @AfterEach
@@ -26,25 +32,25 @@ class BloomFilterTest {
 
     @Test
     void testEmptyFilter() {
-        assertFalse(bloomFilter.isPresent("empty"), "An empty Bloom filter should return false for any lookup");
+        assertFalse(bloomFilter.isPresent(bytes("empty")), "An empty Bloom filter should return false for any lookup");
     }
 
     @Test
     void testAddAndCheckPresence() {
-        bloomFilter.add("hello");
-        bloomFilter.add("world");
+        bloomFilter.add(bytes("hello"));
+        bloomFilter.add(bytes("world"));
 
-        assertTrue(bloomFilter.isPresent("hello"), "Element 'hello' should be present");
-        assertTrue(bloomFilter.isPresent("world"), "Element 'world' should be present");
+        assertTrue(bloomFilter.isPresent(bytes("hello")), "Element 'hello' should be present");
+        assertTrue(bloomFilter.isPresent(bytes("world")), "Element 'world' should be present");
     }
 
     @Test
     void testNonExistingElement() {
-        bloomFilter.add("test");
-        bloomFilter.add("apple");
-        bloomFilter.add("tree");
+        bloomFilter.add(bytes("test"));
+        bloomFilter.add(bytes("apple"));
+        bloomFilter.add(bytes("tree"));
 
-        assertFalse(bloomFilter.isPresent("random"), "Element 'random' should not be present");
+        assertFalse(bloomFilter.isPresent(bytes("random")), "Element 'random' should not be present");
     }
 
     @Test
@@ -53,11 +59,11 @@ class BloomFilterTest {
         int testSize = 10000;
 
         for (int i = 0; i < 1000; i++) {
-            bloomFilter.add("test" + i);
+            bloomFilter.add(bytes("test" + i));
         }
 
         for (int i = 1000; i < testSize; i++) {
-            if (bloomFilter.isPresent("test" + i)) {
+            if (bloomFilter.isPresent(bytes("test" + i))) {
                 falsePositives++;
             }
         }
@@ -71,14 +77,98 @@ class BloomFilterTest {
     @Test
     void testSerializationAndDeserialization() throws IOException {
         for (int i = 0; i < 1000; i++) {
-            bloomFilter.add("test" + i);
+            bloomFilter.add(bytes("test" + i));
         }
 
-        bloomFilter.saveToDisk();
-        BloomFilter<String> reconstructedFilter = new BloomFilter<>(1000, 0.01, "filename");
+        bloomFilter.saveToDisk("filename");
+        BloomFilter reconstructedFilter = BloomFilter.loadFromDisk("filename");
 
+        assertEquals(bloomFilter.getHashFunctions(), reconstructedFilter.getHashFunctions());
         for (int i = 0; i < 2000; i++) {
-            assertEquals(bloomFilter.isPresent("test" + i), reconstructedFilter.isPresent("test" + i));
+            assertEquals(bloomFilter.isPresent(bytes("test" + i)), reconstructedFilter.isPresent(bytes("test" + i)));
         }
     }
+
+    @Test
+    void testBuilderSizesFilterForKeysAdded() {
+        BloomFilter.Builder small = new BloomFilter.Builder();
+        BloomFilter.Builder large = new BloomFilter.Builder();
+        for (int i = 0; i < 100_000; i++) {
+            if (i < 100) {
+                small.add(bytes("key" + i));
+            }
+            large.add(bytes("key" + i));
+        }
+
+        BloomFilter smallFilter = small.build(0.01);
+        BloomFilter largeFilter = large.build(0.01);
+
+        // About 9.6 bits per key at 1%
+        assertTrue(smallFilter.getByteSize() <= 128);
+        assertTrue(largeFilter.getByteSize() >= 100_000 * 9 / 8 && largeFilter.getByteSize() <= 100_000 * 10 / 8 + 8);
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(largeFilter.isPresent(bytes("key" + i)));
+        }
+    }
+
+    @Test
+    void testConcatenatedFilterKeepsPartPerBlockRange() throws IOException {
+        BloomFilter first = BloomFilter.create(100, 0.01);
+        BloomFilter second = BloomFilter.create(10_000, 0.01);
+        for (int i = 0; i < 100; i++) {
+            first.add(bytes("first" + i));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            second.add(bytes("second" + i));
+        }
+
+        BloomFilter concatenated = BloomFilter.concatenate(List.of(first, second), new int[]{0, 3});
+        concatenated.saveToDisk("filename");
+        BloomFilter loaded = BloomFilter.loadFromDisk("filename");
+
+        assertEquals(2, loaded.getPartCount());
+        assertEquals(first.getByteSize() + second.getByteSize(), concatenated.getByteSize());
+        for (int i = 0; i < 100; i++) {
+            long hash = BloomFilter.hash(bytes("first" + i));
+            assertTrue(loaded.isPresent(hash));
+            assertTrue(loaded.isPresent(2, hash));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            long hash = BloomFilter.hash(bytes("second" + i));
+            assertTrue(loaded.isPresent(hash));
+            assertTrue(loaded.isPresent(3, hash));
+            assertTrue(loaded.isPresent(40, hash));
+        }
+        // Each part answers with the same bits as the filter it was copied from
+        for (int i = 0; i < 1000; i++) {
+            long hash = BloomFilter.hash(bytes("missing" + i));
+            assertEquals(first.isPresent(hash), loaded.isPresent(0, hash));
+            assertEquals(second.isPresent(hash), loaded.isPresent(5, hash));
+        }
+    }
+
+    @Test
+    void testMissingOrTextFilterLoadsAsNone() throws IOException {
+        assertNull(BloomFilter.loadFromDisk("filename"));
+
+        Files.writeString(Path.of("filename.filter"), Base64.getEncoder().encodeToString(new byte[]{1, 2, 3, 4, 5, 6}));
+
+        assertNull(BloomFilter.loadFromDisk("filename"));
+    }
+
+    @Test
+    void testHashIsMurmur3() {
+        MurmurHashFunction hashFunction = new MurmurHashFunction();
+        Random random = new Random(42);
+
+        for (int length = 0; length < 64; length++) {
+            byte[] input = new byte[length];
+            random.nextBytes(input);
+            assertEquals(MurmurHash3.hash128x64(input)[0], hashFunction.hash(input), "Length " + length);
+        }
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
 }
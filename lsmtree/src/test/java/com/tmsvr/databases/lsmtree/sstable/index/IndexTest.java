@@ -1,16 +1,19 @@
 package com.tmsvr.databases.lsmtree.sstable.index;
 
-import static com.tmsvr.databases.lsmtree.sstable.LsmSerDe.SEPARATOR;
 import static org.junit.jupiter.api.Assertions.*;
 
 import com.tmsvr.databases.lsmtree.TestUtils;
-import com.tmsvr.databases.serde.SerDe;
+import com.tmsvr.databases.serde.BinarySerDe;
+import com.tmsvr.databases.serde.BinarySerDes;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.UUID;
 
 class IndexTest {
 
@@ -18,7 +21,7 @@ class IndexTest {
     private static final Long OFFSET = 123L;
     private static final String KEY = "key1";
 
-    private SerDe<String> keySerDe;
+    private BinarySerDe<String> keySerDe;
     private Index<String> index;
 
     @BeforeEach
@@ -72,8 +75,34 @@ class IndexTest {
         Path indexFile = Path.of(FILENAME + ".index");
         assertTrue(Files.exists(indexFile));
 
-        String content = Files.readString(indexFile);
-        assertTrue(content.contains(KEY + SEPARATOR + OFFSET));
+        ByteBuffer expected = ByteBuffer.allocate(Integer.BYTES + KEY.length() + Long.BYTES)
+                .putInt(KEY.length())
+                .put(KEY.getBytes(StandardCharsets.UTF_8))
+                .putLong(OFFSET);
+        assertArrayEquals(expected.array(), Files.readAllBytes(indexFile));
+    }
+
+    @Test
+    void testBinaryKeys() throws IOException {
+        Index<UUID> uuidIndex = new Index<>(FILENAME, BinarySerDes.uuidSerDe());
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        uuidIndex.add(first, 100L);
+        uuidIndex.add(second, 200L);
+        uuidIndex.saveToDisk();
+
+        Index<UUID> loadedIndex = new Index<>(FILENAME, BinarySerDes.uuidSerDe());
+        assertEquals(2, loadedIndex.getSize());
+        assertEquals(100L, loadedIndex.getOffset(first));
+        assertEquals(200L, loadedIndex.getOffset(second));
+    }
+
+    @Test
+    void testTextIndexOfFormerVersionIsRefused() throws IOException {
+        Files.writeString(Path.of(FILENAME + ".index"), "key1::0\nkey2::12\n");
+
+        assertThrows(IllegalArgumentException.class, () -> new Index<>(FILENAME, keySerDe));
     }
 
     @Test
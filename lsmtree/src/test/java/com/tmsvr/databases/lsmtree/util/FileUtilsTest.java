@@ -67,5 +67,21 @@ class FileUtilsTest {
         assertEquals(30, loadedPerson.age);
     }
 
+    @Test
+    void testSaveAndLoadBytes() throws IOException {
+        byte[] data = {1, 2, 3, -1};
+
+        FileUtils.saveBytesToDisk(TEST_FILE, data, Function.identity());
+
+        assertArrayEquals(data, FileUtils.loadBytesFromDisk(TEST_FILE, Function.identity(), new byte[0]));
+    }
+
+    @Test
+    void testLoadBytesWithNonExistentFile() throws IOException {
+        byte[] defaultValue = new byte[0];
+
+        assertSame(defaultValue, FileUtils.loadBytesFromDisk(TEST_FILE, Function.identity(), defaultValue));
+    }
+
     record Person(String name, int age) { }
 }
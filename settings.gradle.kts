@@ -2,3 +2,5 @@ rootProject.name = "tmsvr-databases"
 include("lsmtree")
 include("interfaces")
 include("btree")
+include("benchmarks")
+include("workload")
@@ -0,0 +1,23 @@
+plugins {
+    application
+}
+
+group = "com.tmsvr.databases"
+version = "1.0-SNAPSHOT"
+
+dependencies {
+    implementation(project(":interfaces"))
+    implementation(project(":lsmtree"))
+    implementation(project(":btree"))
+
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+application {
+    mainClass.set("com.tmsvr.databases.workload.WorkloadRunner")
+}
+
+tasks.named<JavaExec>("run") {
+    // The LSM engine writes its files to the working directory
+    workingDir = layout.buildDirectory.dir("run").get().asFile.apply { mkdirs() }
+}
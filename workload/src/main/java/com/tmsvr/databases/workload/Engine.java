@@ -0,0 +1,58 @@
+package com.tmsvr.databases.workload;
+
+import com.tmsvr.databases.DataStore;
+import com.tmsvr.databases.btree.BTreeDataStore;
+import com.tmsvr.databases.cache.CachingDataStore;
+import com.tmsvr.databases.lsmtree.LsmDataStore;
+import com.tmsvr.databases.lsmtree.sstable.SSTableOptions;
+import com.tmsvr.databases.lsmtree.sstable.SSTableOptions.ReadMode;
+import com.tmsvr.databases.serde.BinarySerDes;
+import com.tmsvr.databases.serde.OrderedBinarySerDes;
+
+import java.io.IOException;
+
+public enum Engine {
+    LSM(true) {
+        @Override
+        DataStore<String, String> create(int memtableSize) throws IOException {
+            return new LsmDataStore<>(OrderedBinarySerDes.stringSerDe(), BinarySerDes.stringSerDe(), memtableSize);
+        }
+    },
+    LSM_MMAP(true) {
+        @Override
+        DataStore<String, String> create(int memtableSize) throws IOException {
+            return new LsmDataStore<>(OrderedBinarySerDes.stringSerDe(), BinarySerDes.stringSerDe(), memtableSize,
+                    SSTableOptions.defaults().withReadMode(ReadMode.MMAP));
+        }
+    },
+    LSM_ROW_CACHE(true) {
+        @Override
+        DataStore<String, String> create(int memtableSize) throws IOException {
+            return new CachingDataStore<>(LSM.create(memtableSize), ROW_CACHE_SIZE);
+        }
+    },
+    BTREE(false) {
+        @Override
+        DataStore<String, String> create(int memtableSize) {
+            return new BTreeDataStore<>();
+        }
+    };
+
+    private static final int ROW_CACHE_SIZE = 10_000;
+
+    private final boolean threadSafe;
+
+    Engine(boolean threadSafe) {
+        this.threadSafe = threadSafe;
+    }
+
+    abstract DataStore<String, String> create(int memtableSize) throws IOException;
+
+    /**
+     * Creates the engine, wrapped in a lock if it does not support concurrent access on its own.
+     */
+    DataStore<String, String> createForClients(int memtableSize) throws IOException {
+        DataStore<String, String> dataStore = create(memtableSize);
+        return threadSafe ? dataStore : new SynchronizedDataStore<>(dataStore);
+    }
+}
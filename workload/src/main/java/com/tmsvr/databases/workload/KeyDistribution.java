@@ -0,0 +1,31 @@
+package com.tmsvr.databases.workload;
+
+import com.tmsvr.databases.workload.generator.KeyGenerator;
+import com.tmsvr.databases.workload.generator.LatestKeyGenerator;
+import com.tmsvr.databases.workload.generator.UniformKeyGenerator;
+import com.tmsvr.databases.workload.generator.ZipfianKeyGenerator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public enum KeyDistribution {
+    UNIFORM {
+        @Override
+        KeyGenerator create(long recordCount, AtomicLong insertedKeys) {
+            return new UniformKeyGenerator(insertedKeys);
+        }
+    },
+    ZIPFIAN {
+        @Override
+        KeyGenerator create(long recordCount, AtomicLong insertedKeys) {
+            return new ZipfianKeyGenerator(recordCount, true);
+        }
+    },
+    LATEST {
+        @Override
+        KeyGenerator create(long recordCount, AtomicLong insertedKeys) {
+            return new LatestKeyGenerator(recordCount, insertedKeys);
+        }
+    };
+
+    abstract KeyGenerator create(long recordCount, AtomicLong insertedKeys);
+}
@@ -0,0 +1,9 @@
+package com.tmsvr.databases.workload;
+
+public enum Operation {
+    READ,
+    UPDATE,
+    INSERT,
+    SCAN,
+    READ_MODIFY_WRITE
+}
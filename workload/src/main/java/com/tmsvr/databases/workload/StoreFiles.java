@@ -0,0 +1,31 @@
+package com.tmsvr.databases.workload;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Removes the files an earlier LSM run left in the working directory.
+ */
+final class StoreFiles {
+
+    private StoreFiles() {
+    }
+
+    static void cleanup() throws IOException {
+        try (Stream<Path> files = Files.list(Path.of("."))) {
+            files.filter(path -> path.getFileName().toString().startsWith("sstable")
+                            || path.getFileName().toString().startsWith("commit-log")
+                            || path.getFileName().toString().startsWith("MANIFEST"))
+                    .forEach(path -> {
+                        try {
+                            Files.delete(path);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.tmsvr.databases.workload;
+
+import com.tmsvr.databases.CloseableIterator;
+import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.DataStore;
+import com.tmsvr.databases.ScanDirection;
+import com.tmsvr.databases.WriteBatch;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes every call to an engine that is not safe for concurrent use. A lock is used instead of
+ * synchronized methods, so that virtual client threads are not pinned to their carrier while they wait.
+ */
+class SynchronizedDataStore<K extends Comparable<K>, V> implements DataStore<K, V> {
+    private final DataStore<K, V> delegate;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    SynchronizedDataStore(DataStore<K, V> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void put(K key, V value) throws IOException {
+        lock.lock();
+        try {
+            delegate.put(key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<V> get(K key) throws IOException {
+        lock.lock();
+        try {
+            return delegate.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws IOException {
+        lock.lock();
+        try {
+            return delegate.getAll(keys);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(K key) throws IOException {
+        lock.lock();
+        try {
+            delegate.delete(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(WriteBatch<K, V> batch) throws IOException {
+        lock.lock();
+        try {
+            delegate.write(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The iterator of the delegate is not safe for concurrent use with its writes either, every step of it takes
+     * the lock too.
+     */
+    @Override
+    public CloseableIterator<DataRecord<K, V>> scan(K fromKey, K toKey, ScanDirection direction) throws IOException {
+        CloseableIterator<DataRecord<K, V>> records;
+        lock.lock();
+        try {
+            records = delegate.scan(fromKey, toKey, direction);
+        } finally {
+            lock.unlock();
+        }
+
+        return new CloseableIterator<>() {
+            @Override
+            public boolean hasNext() {
+                lock.lock();
+                try {
+                    return records.hasNext();
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public DataRecord<K, V> next() {
+                lock.lock();
+                try {
+                    return records.next();
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void close() {
+                lock.lock();
+                try {
+                    records.close();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            delegate.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.tmsvr.databases.workload;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.tmsvr.databases.workload.Operation.INSERT;
+import static com.tmsvr.databases.workload.Operation.READ;
+import static com.tmsvr.databases.workload.Operation.SCAN;
+import static com.tmsvr.databases.workload.Operation.UPDATE;
+
+/**
+ * The standard operation mixes, modelled after the YCSB core workloads.
+ */
+public enum Workload {
+    READ_HEAVY(Map.of(READ, 0.95, UPDATE, 0.05)),
+    UPDATE_HEAVY(Map.of(READ, 0.5, UPDATE, 0.5)),
+    READ_MODIFY_WRITE(Map.of(READ, 0.5, Operation.READ_MODIFY_WRITE, 0.5)),
+    SCAN_HEAVY(Map.of(SCAN, 0.95, INSERT, 0.05)),
+    INSERT_ONLY(Map.of(INSERT, 1.0));
+
+    private final Operation[] operations;
+    private final double[] cumulativeProportions;
+
+    Workload(Map<Operation, Double> proportions) {
+        this.operations = new Operation[proportions.size()];
+        this.cumulativeProportions = new double[proportions.size()];
+
+        double sum = 0;
+        int i = 0;
+        for (Operation operation : Operation.values()) {
+            Double proportion = proportions.get(operation);
+            if (proportion != null) {
+                sum += proportion;
+                operations[i] = operation;
+                cumulativeProportions[i] = sum;
+                i++;
+            }
+        }
+    }
+
+    public Operation nextOperation() {
+        double u = ThreadLocalRandom.current().nextDouble(cumulativeProportions[cumulativeProportions.length - 1]);
+
+        for (int i = 0; i < operations.length; i++) {
+            if (u < cumulativeProportions[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    public boolean uses(Operation operation) {
+        for (Operation o : operations) {
+            if (o == operation) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,114 @@
+package com.tmsvr.databases.workload;
+
+import java.util.Locale;
+
+/**
+ * Command line options of the workload driver, every option has a default.
+ *
+ * @param engine           storage engine under test
+ * @param workload         operation mix
+ * @param distribution     how keys are picked for reads, updates and scans
+ * @param threads          number of client threads
+ * @param virtualThreads   run the clients on virtual instead of platform threads
+ * @param recordCount      keys inserted during the load phase
+ * @param operationCount   operations executed during the run phase, over all clients
+ * @param valueSize        size of the written values in characters
+ * @param memtableSize     memtable size of the LSM engine
+ * @param maxScanLength    scans read a uniformly chosen number of consecutive keys up to this length
+ * @param targetThroughput overall operations per second to throttle to, 0 runs unthrottled
+ * @param clean            delete the files of a previous LSM run before starting
+ */
+public record WorkloadOptions(Engine engine,
+                              Workload workload,
+                              KeyDistribution distribution,
+                              int threads,
+                              boolean virtualThreads,
+                              long recordCount,
+                              long operationCount,
+                              int valueSize,
+                              int memtableSize,
+                              int maxScanLength,
+                              long targetThroughput,
+                              boolean clean) {
+
+    static final String USAGE = """
+            Usage: WorkloadRunner [options]
+              --engine lsm|lsm-mmap|lsm-row-cache|btree                            (default lsm)
+              --workload read-heavy|update-heavy|read-modify-write|scan-heavy|insert-only
+                                                                                   (default read-heavy)
+              --distribution uniform|zipfian|latest                                (default zipfian)
+              --threads N                                                          (default 4)
+              --virtual-threads
+              --records N                                                          (default 100000)
+              --operations N                                                       (default 1000000)
+              --value-size N                                                       (default 500)
+              --memtable-size N                                                    (default 50000)
+              --max-scan-length N                                                  (default 100)
+              --target OPS_PER_SECOND                                              (default 0, unthrottled)
+              --clean
+            """;
+
+    public WorkloadOptions {
+        if (threads < 1 || recordCount < 1 || operationCount < 0 || valueSize < 0 || memtableSize < 1
+                || maxScanLength < 1 || targetThroughput < 0) {
+            throw new IllegalArgumentException("Invalid workload options\n" + USAGE);
+        }
+    }
+
+    public static WorkloadOptions defaults() {
+        return new WorkloadOptions(Engine.LSM, Workload.READ_HEAVY, KeyDistribution.ZIPFIAN, 4, false,
+                100_000, 1_000_000, 500, 50_000, 100, 0, false);
+    }
+
+    public static WorkloadOptions parse(String[] args) {
+        WorkloadOptions o = defaults();
+        Engine engine = o.engine;
+        Workload workload = o.workload;
+        KeyDistribution distribution = o.distribution;
+        int threads = o.threads;
+        boolean virtualThreads = o.virtualThreads;
+        long recordCount = o.recordCount;
+        long operationCount = o.operationCount;
+        int valueSize = o.valueSize;
+        int memtableSize = o.memtableSize;
+        int maxScanLength = o.maxScanLength;
+        long targetThroughput = o.targetThroughput;
+        boolean clean = o.clean;
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+
+            switch (option) {
+                case "--virtual-threads" -> virtualThreads = true;
+                case "--clean" -> clean = true;
+                default -> {
+                    if (i + 1 >= args.length) {
+                        throw new IllegalArgumentException("Missing value for " + option + "\n" + USAGE);
+                    }
+                    String value = args[++i];
+
+                    switch (option) {
+                        case "--engine" -> engine = Engine.valueOf(enumName(value));
+                        case "--workload" -> workload = Workload.valueOf(enumName(value));
+                        case "--distribution" -> distribution = KeyDistribution.valueOf(enumName(value));
+                        case "--threads" -> threads = Integer.parseInt(value);
+                        case "--records" -> recordCount = Long.parseLong(value);
+                        case "--operations" -> operationCount = Long.parseLong(value);
+                        case "--value-size" -> valueSize = Integer.parseInt(value);
+                        case "--memtable-size" -> memtableSize = Integer.parseInt(value);
+                        case "--max-scan-length" -> maxScanLength = Integer.parseInt(value);
+                        case "--target" -> targetThroughput = Long.parseLong(value);
+                        default -> throw new IllegalArgumentException("Unknown option: " + option + "\n" + USAGE);
+                    }
+                }
+            }
+        }
+
+        return new WorkloadOptions(engine, workload, distribution, threads, virtualThreads, recordCount,
+                operationCount, valueSize, memtableSize, maxScanLength, targetThroughput, clean);
+    }
+
+    private static String enumName(String value) {
+        return value.toUpperCase(Locale.ROOT).replace('-', '_');
+    }
+}
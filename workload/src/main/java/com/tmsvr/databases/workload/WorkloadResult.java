@@ -0,0 +1,45 @@
+package com.tmsvr.databases.workload;
+
+import java.io.PrintStream;
+import java.util.Map;
+
+/**
+ * Throughput and per operation latency percentiles of one phase of a run.
+ *
+ * @param phase        name of the phase, e.g. LOAD or RUN
+ * @param runtimeNanos wall clock time of the phase
+ * @param histograms   latencies of the executed operations, merged over all clients
+ */
+public record WorkloadResult(String phase, long runtimeNanos, Map<Operation, LatencyHistogram> histograms) {
+
+    public long getOperationCount() {
+        return histograms.values().stream().mapToLong(LatencyHistogram::getCount).sum();
+    }
+
+    public double getThroughput() {
+        return runtimeNanos == 0 ? 0 : getOperationCount() / (runtimeNanos / 1_000_000_000.0);
+    }
+
+    public void print(PrintStream out) {
+        out.printf("[%s] Runtime(ms): %d%n", phase, runtimeNanos / 1_000_000);
+        out.printf("[%s] Throughput(ops/sec): %.1f%n", phase, getThroughput());
+
+        histograms.forEach((operation, histogram) -> {
+            if (histogram.getCount() == 0) {
+                return;
+            }
+
+            out.printf("[%s %s] Operations: %d, Average(us): %.1f, Min(us): %.1f, p50(us): %.1f, p99(us): %.1f, p99.9(us): %.1f, Max(us): %.1f%n",
+                    phase, operation, histogram.getCount(), histogram.getMean() / 1_000.0,
+                    micros(histogram.getMin()),
+                    micros(histogram.getValueAtPercentile(50)),
+                    micros(histogram.getValueAtPercentile(99)),
+                    micros(histogram.getValueAtPercentile(99.9)),
+                    micros(histogram.getMax()));
+        });
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1_000.0;
+    }
+}
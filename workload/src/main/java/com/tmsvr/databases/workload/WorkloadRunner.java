@@ -0,0 +1,219 @@
+package com.tmsvr.databases.workload;
+
+import com.tmsvr.databases.CloseableIterator;
+import com.tmsvr.databases.DataRecord;
+import com.tmsvr.databases.DataStore;
+import com.tmsvr.databases.workload.generator.KeyGenerator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * YCSB style workload driver. A run has two phases: the load phase inserts the initial records, then the
+ * run phase executes the operation mix of the chosen {@link Workload}. Both phases are executed by the
+ * configured number of client threads and report the latency of every single operation.
+ * <p>
+ * With a target throughput the clients are throttled, and latencies are measured from the time an operation
+ * was supposed to start, so a stalled store shows up in the percentiles instead of silently lowering the
+ * request rate.
+ */
+public class WorkloadRunner {
+    private static final String KEY_PREFIX = "user";
+    private static final int KEY_DIGITS = 12;
+    private static final int VALUE_POOL_SIZE = 1024;
+    private static final String CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private final WorkloadOptions options;
+    private final DataStore<String, String> dataStore;
+    private final AtomicLong insertedKeys = new AtomicLong();
+    private final KeyGenerator keyGenerator;
+    private final String[] valuePool;
+
+    public WorkloadRunner(WorkloadOptions options, DataStore<String, String> dataStore) {
+        this.options = options;
+        this.dataStore = dataStore;
+        this.keyGenerator = options.distribution().create(options.recordCount(), insertedKeys);
+        this.valuePool = generateValues(options.valueSize());
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        WorkloadOptions options = WorkloadOptions.parse(args);
+
+        if (options.clean()) {
+            StoreFiles.cleanup();
+        }
+
+        try (DataStore<String, String> dataStore = options.engine().createForClients(options.memtableSize())) {
+            WorkloadRunner runner = new WorkloadRunner(options, dataStore);
+
+            System.out.println("Running " + options);
+            runner.load().print(System.out);
+            runner.run().print(System.out);
+        }
+    }
+
+    public WorkloadResult load() throws InterruptedException {
+        return execute("LOAD", options.recordCount(), () -> Operation.INSERT);
+    }
+
+    public WorkloadResult run() throws InterruptedException {
+        return execute("RUN", options.operationCount(), () -> options.workload().nextOperation());
+    }
+
+    static String key(long index) {
+        String number = Long.toString(index);
+        return KEY_PREFIX + "0".repeat(Math.max(0, KEY_DIGITS - number.length())) + number;
+    }
+
+    private WorkloadResult execute(String phase, long operationCount, Supplier<Operation> chooser) throws InterruptedException {
+        int threads = options.threads();
+        long intervalNanos = options.targetThroughput() > 0 ? threads * 1_000_000_000L / options.targetThroughput() : 0;
+
+        LongAdder completed = new LongAdder();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Client> clients = new ArrayList<>(threads);
+        List<Thread> clientThreads = new ArrayList<>(threads);
+
+        Thread.Builder builder = options.virtualThreads()
+                ? Thread.ofVirtual().name(phase.toLowerCase() + "-client-", 0)
+                : Thread.ofPlatform().name(phase.toLowerCase() + "-client-", 0);
+
+        ScheduledExecutorService status = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().factory());
+        long start = System.nanoTime();
+        status.scheduleAtFixedRate(() -> printStatus(phase, start, completed), 1, 1, TimeUnit.SECONDS);
+
+        for (int i = 0; i < threads; i++) {
+            long quota = operationCount / threads + (i < operationCount % threads ? 1 : 0);
+            Client client = new Client(quota, intervalNanos, chooser, completed, failure);
+            clients.add(client);
+            clientThreads.add(builder.unstarted(client));
+        }
+
+        clientThreads.forEach(Thread::start);
+        for (Thread thread : clientThreads) {
+            thread.join();
+        }
+
+        long runtime = System.nanoTime() - start;
+        status.shutdownNow();
+
+        if (failure.get() != null) {
+            throw new IllegalStateException("Client failed during " + phase, failure.get());
+        }
+
+        Map<Operation, LatencyHistogram> merged = new EnumMap<>(Operation.class);
+        for (Client client : clients) {
+            client.histograms.forEach((operation, histogram) ->
+                    merged.computeIfAbsent(operation, _ -> new LatencyHistogram()).add(histogram));
+        }
+
+        return new WorkloadResult(phase, runtime, merged);
+    }
+
+    private void printStatus(String phase, long start, LongAdder completed) {
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        long operations = completed.sum();
+        System.out.printf("[%s STATUS] %.0f sec: %d operations, %.1f ops/sec%n", phase, seconds, operations, operations / seconds);
+    }
+
+    private void execute(Operation operation) throws IOException {
+        switch (operation) {
+            case READ -> dataStore.get(key(keyGenerator.nextIndex()));
+            case UPDATE -> dataStore.put(key(keyGenerator.nextIndex()), nextValue());
+            case INSERT -> dataStore.put(key(insertedKeys.getAndIncrement()), nextValue());
+            case SCAN -> scan(keyGenerator.nextIndex(), ThreadLocalRandom.current().nextInt(options.maxScanLength()) + 1);
+            case READ_MODIFY_WRITE -> {
+                String key = key(keyGenerator.nextIndex());
+                dataStore.get(key);
+                dataStore.put(key, nextValue());
+            }
+        }
+    }
+
+    /**
+     * Reads up to {@code length} records in key order from the key of the start index, and stops the scan there.
+     */
+    private void scan(long startIndex, int length) throws IOException {
+        try (CloseableIterator<DataRecord<String, String>> records = dataStore.scan(key(startIndex), null)) {
+            for (int i = 0; i < length && records.hasNext(); i++) {
+                records.next();
+            }
+        }
+    }
+
+    private String nextValue() {
+        return valuePool[ThreadLocalRandom.current().nextInt(valuePool.length)];
+    }
+
+    private static String[] generateValues(int valueSize) {
+        Random random = new Random();
+        String[] values = new String[VALUE_POOL_SIZE];
+
+        for (int i = 0; i < VALUE_POOL_SIZE; i++) {
+            StringBuilder builder = new StringBuilder(valueSize);
+            for (int j = 0; j < valueSize; j++) {
+                builder.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+            }
+            values[i] = builder.toString();
+        }
+        return values;
+    }
+
+    private class Client implements Runnable {
+        private final long quota;
+        private final long intervalNanos;
+        private final Supplier<Operation> chooser;
+        private final LongAdder completed;
+        private final AtomicReference<Throwable> failure;
+        private final Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+
+        Client(long quota, long intervalNanos, Supplier<Operation> chooser, LongAdder completed, AtomicReference<Throwable> failure) {
+            this.quota = quota;
+            this.intervalNanos = intervalNanos;
+            this.chooser = chooser;
+            this.completed = completed;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+
+            try {
+                for (long i = 0; i < quota && failure.get() == null; i++) {
+                    Operation operation = chooser.get();
+                    long operationStart = System.nanoTime();
+
+                    if (intervalNanos > 0) {
+                        long intendedStart = start + i * intervalNanos;
+                        while (operationStart < intendedStart) {
+                            LockSupport.parkNanos(intendedStart - operationStart);
+                            operationStart = System.nanoTime();
+                        }
+                        operationStart = intendedStart;
+                    }
+
+                    execute(operation);
+
+                    histograms.computeIfAbsent(operation, _ -> new LatencyHistogram()).record(System.nanoTime() - operationStart);
+                    completed.increment();
+                }
+            } catch (IOException | RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.tmsvr.databases.workload.generator;
+
+/**
+ * Picks the index of the next key an operation works on. Implementations are shared by all client threads.
+ */
+public interface KeyGenerator {
+    long nextIndex();
+}
@@ -0,0 +1,23 @@
+package com.tmsvr.databases.workload.generator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Favours recently inserted keys: the most recent insert is the most popular, older keys get zipfian
+ * distributed, decreasing popularity.
+ */
+public class LatestKeyGenerator implements KeyGenerator {
+    private final AtomicLong insertedKeys;
+    private final ZipfianKeyGenerator zipfian;
+
+    public LatestKeyGenerator(long recordCount, AtomicLong insertedKeys) {
+        this.insertedKeys = insertedKeys;
+        this.zipfian = new ZipfianKeyGenerator(recordCount, false);
+    }
+
+    @Override
+    public long nextIndex() {
+        long latest = insertedKeys.get() - 1;
+        return Math.max(0, latest - zipfian.nextRank());
+    }
+}
@@ -0,0 +1,20 @@
+package com.tmsvr.databases.workload.generator;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Every key inserted so far is picked with the same probability.
+ */
+public class UniformKeyGenerator implements KeyGenerator {
+    private final AtomicLong insertedKeys;
+
+    public UniformKeyGenerator(AtomicLong insertedKeys) {
+        this.insertedKeys = insertedKeys;
+    }
+
+    @Override
+    public long nextIndex() {
+        return ThreadLocalRandom.current().nextLong(Math.max(1, insertedKeys.get()));
+    }
+}
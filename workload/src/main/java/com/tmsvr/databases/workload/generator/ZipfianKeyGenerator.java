@@ -0,0 +1,83 @@
+package com.tmsvr.databases.workload.generator;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Zipfian distributed key indexes over a fixed number of items, using the algorithm from Gray et al.
+ * "Quickly generating billion-record synthetic databases", the same one YCSB uses.
+ * <p>
+ * Without scrambling index 0 is the most popular, 1 the second most popular and so on. With scrambling the
+ * ranks are hashed over the whole key space, so that popular keys are not clustered next to each other.
+ */
+public class ZipfianKeyGenerator implements KeyGenerator {
+    public static final double DEFAULT_THETA = 0.99;
+
+    private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 1099511628211L;
+
+    private final long items;
+    private final boolean scrambled;
+    private final double theta;
+    private final double zetan;
+    private final double alpha;
+    private final double eta;
+
+    public ZipfianKeyGenerator(long items, boolean scrambled) {
+        this(items, DEFAULT_THETA, scrambled);
+    }
+
+    public ZipfianKeyGenerator(long items, double theta, boolean scrambled) {
+        if (items < 1) {
+            throw new IllegalArgumentException("Zipfian distribution needs at least one item");
+        }
+
+        this.items = items;
+        this.scrambled = scrambled;
+        this.theta = theta;
+        this.zetan = zeta(items, theta);
+        this.alpha = 1.0 / (1.0 - theta);
+
+        double zeta2 = zeta(2, theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+    }
+
+    @Override
+    public long nextIndex() {
+        long rank = nextRank();
+        return scrambled ? Math.floorMod(fnvHash(rank), items) : rank;
+    }
+
+    long nextRank() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        double uz = u * zetan;
+
+        if (uz < 1.0) {
+            return 0;
+        }
+
+        if (uz < 1.0 + Math.pow(0.5, theta)) {
+            return Math.min(1, items - 1);
+        }
+
+        long rank = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+        return Math.min(rank, items - 1);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    private static long fnvHash(long value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xFF;
+            hash *= FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
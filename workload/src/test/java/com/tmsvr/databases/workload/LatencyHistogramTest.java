@@ -0,0 +1,95 @@
+package com.tmsvr.databases.workload;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(50.5, histogram.getMean());
+    }
+
+    @Test
+    void testLargeValuesAreWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1_000_000; i++) {
+            histogram.record(i * 1_000);
+        }
+
+        assertWithinPrecision(500_000_000, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(990_000_000, histogram.getValueAtPercentile(99));
+        assertWithinPrecision(999_000_000, histogram.getValueAtPercentile(99.9));
+        assertEquals(1_000_000_000, histogram.getMax());
+    }
+
+    @Test
+    void testTailIsVisible() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 9_990; i++) {
+            histogram.record(10_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(2_000_000_000L);
+        }
+
+        assertWithinPrecision(10_000, histogram.getValueAtPercentile(99));
+        assertWithinPrecision(10_000, histogram.getValueAtPercentile(99.9));
+        assertWithinPrecision(2_000_000_000L, histogram.getValueAtPercentile(99.95));
+        assertEquals(2_000_000_000L, histogram.getMax());
+    }
+
+    @Test
+    void testBucketsAreContiguous() {
+        for (long value = 0; value < 1 << 20; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value <= LatencyHistogram.highestValueOf(index), "Value " + value + " above its bucket");
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.highestValueOf(index - 1), "Value " + value + " below its bucket");
+            }
+        }
+    }
+
+    @Test
+    void testAdd() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        second.record(20);
+        second.record(30);
+
+        first.add(second);
+
+        assertEquals(3, first.getCount());
+        assertEquals(10, first.getMin());
+        assertEquals(30, first.getMax());
+        assertEquals(20, first.getValueAtPercentile(50));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue(Math.abs(expected - actual) <= expected / 64, "Expected ~" + expected + " but was " + actual);
+    }
+}
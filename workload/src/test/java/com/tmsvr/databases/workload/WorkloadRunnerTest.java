@@ -0,0 +1,75 @@
+package com.tmsvr.databases.workload;
+
+import com.tmsvr.databases.btree.BTreeDataStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkloadRunnerTest {
+
+    @Test
+    void testLoadInsertsAllRecords() throws InterruptedException {
+        BTreeDataStore<String, String> dataStore = new BTreeDataStore<>();
+        WorkloadRunner runner = new WorkloadRunner(options(Workload.READ_HEAVY, KeyDistribution.UNIFORM, false), new SynchronizedDataStore<>(dataStore));
+
+        WorkloadResult result = runner.load();
+
+        assertEquals(1_000, result.getOperationCount());
+        assertEquals(1_000, result.histograms().get(Operation.INSERT).getCount());
+        for (int i = 0; i < 1_000; i++) {
+            Optional<String> value = dataStore.get(WorkloadRunner.key(i));
+            assertTrue(value.isPresent());
+            assertEquals(10, value.get().length());
+        }
+    }
+
+    @Test
+    void testRunExecutesTheWorkloadMix() throws InterruptedException {
+        WorkloadRunner runner = new WorkloadRunner(options(Workload.READ_MODIFY_WRITE, KeyDistribution.ZIPFIAN, true),
+                new SynchronizedDataStore<>(new BTreeDataStore<String, String>()));
+
+        runner.load();
+        WorkloadResult result = runner.run();
+
+        assertEquals(5_000, result.getOperationCount());
+        assertTrue(result.histograms().get(Operation.READ).getCount() > 0);
+        assertTrue(result.histograms().get(Operation.READ_MODIFY_WRITE).getCount() > 0);
+        assertTrue(result.getThroughput() > 0);
+    }
+
+    @Test
+    void testScansAndInserts() throws InterruptedException {
+        WorkloadRunner runner = new WorkloadRunner(options(Workload.SCAN_HEAVY, KeyDistribution.LATEST, false),
+                new SynchronizedDataStore<>(new BTreeDataStore<String, String>()));
+
+        runner.load();
+        WorkloadResult result = runner.run();
+
+        assertEquals(5_000, result.getOperationCount());
+        assertTrue(result.histograms().get(Operation.SCAN).getCount() > 0);
+        assertTrue(result.histograms().get(Operation.INSERT).getCount() > 0);
+    }
+
+    @Test
+    void testParseOptions() {
+        WorkloadOptions options = WorkloadOptions.parse(new String[]{
+                "--engine", "btree", "--workload", "update-heavy", "--distribution", "latest",
+                "--threads", "16", "--virtual-threads", "--records", "10", "--operations", "20"});
+
+        assertEquals(Engine.BTREE, options.engine());
+        assertEquals(Workload.UPDATE_HEAVY, options.workload());
+        assertEquals(KeyDistribution.LATEST, options.distribution());
+        assertEquals(16, options.threads());
+        assertTrue(options.virtualThreads());
+        assertEquals(10, options.recordCount());
+        assertEquals(20, options.operationCount());
+    }
+
+    private static WorkloadOptions options(Workload workload, KeyDistribution distribution, boolean virtualThreads) {
+        return new WorkloadOptions(Engine.BTREE, workload, distribution, 4, virtualThreads, 1_000, 5_000, 10,
+                100, 10, 0, false);
+    }
+}
@@ -0,0 +1,88 @@
+package com.tmsvr.databases.workload.generator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZipfianKeyGeneratorTest {
+    private static final int ITEMS = 1_000;
+    private static final int SAMPLES = 100_000;
+
+    @Test
+    void testIndexesStayInRange() {
+        ZipfianKeyGenerator generator = new ZipfianKeyGenerator(ITEMS, true);
+
+        for (int i = 0; i < SAMPLES; i++) {
+            long index = generator.nextIndex();
+            assertTrue(index >= 0 && index < ITEMS, "Index out of range: " + index);
+        }
+    }
+
+    @Test
+    void testDistributionIsSkewed() {
+        ZipfianKeyGenerator generator = new ZipfianKeyGenerator(ITEMS, false);
+        int[] counts = new int[ITEMS];
+
+        for (int i = 0; i < SAMPLES; i++) {
+            counts[(int) generator.nextIndex()]++;
+        }
+
+        int topTen = 0;
+        for (int i = 0; i < 10; i++) {
+            topTen += counts[i];
+        }
+
+        // With theta 0.99 the ten most popular of 1000 items get about 39% of all requests
+        assertTrue(topTen > SAMPLES * 0.3, "Top ten items got only " + topTen + " requests");
+        assertTrue(counts[0] > counts[10] && counts[10] > counts[500]);
+    }
+
+    @Test
+    void testScramblingSpreadsPopularKeys() {
+        ZipfianKeyGenerator generator = new ZipfianKeyGenerator(ITEMS, true);
+        Set<Long> popular = new HashSet<>();
+
+        for (int i = 0; i < 1_000; i++) {
+            popular.add(generator.nextIndex());
+        }
+
+        long clustered = popular.stream().filter(index -> index < 10).count();
+        assertTrue(clustered < 10);
+    }
+
+    @Test
+    void testLatestFavoursRecentInserts() {
+        AtomicLong insertedKeys = new AtomicLong(ITEMS);
+        LatestKeyGenerator generator = new LatestKeyGenerator(ITEMS, insertedKeys);
+
+        int recent = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            long index = generator.nextIndex();
+            assertTrue(index >= 0 && index < ITEMS);
+            if (index >= ITEMS - 10) {
+                recent++;
+            }
+        }
+        assertTrue(recent > SAMPLES * 0.3);
+
+        insertedKeys.set(2 * ITEMS);
+        assertTrue(generator.nextIndex() >= ITEMS);
+    }
+
+    @Test
+    void testUniformCoversAllInsertedKeys() {
+        UniformKeyGenerator generator = new UniformKeyGenerator(new AtomicLong(10));
+        Set<Long> seen = new HashSet<>();
+
+        for (int i = 0; i < SAMPLES; i++) {
+            seen.add(generator.nextIndex());
+        }
+
+        assertEquals(10, seen.size());
+    }
+}